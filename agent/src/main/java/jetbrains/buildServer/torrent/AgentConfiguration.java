@@ -16,6 +16,10 @@ import jetbrains.buildServer.xmlrpc.XmlRpcTarget;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -84,6 +88,16 @@ public class AgentConfiguration implements TorrentConfiguration, SeedSettings, L
     return call("getAnnounceUrl", serverUrlLocal + "/trackerAnnounce.html");
   }
 
+  @Nullable
+  public String getUdpAnnounceUrl() {
+    // UDP endpoint belongs to server tracker, it must not be mixed with locally configured tracker
+    String announceUrlLocal = myBuildAgentConfiguration.getConfigurationParameters().get(ANNOUNCE_URL_KEY);
+    if (StringUtil.isNotEmpty(announceUrlLocal)) return null;
+
+    final String udpAnnounceUrl = call("getUdpAnnounceUrl", "");
+    return StringUtil.isEmpty(udpAnnounceUrl) ? null : udpAnnounceUrl;
+  }
+
   @Override
   public long getFileSizeThresholdBytes() {
     final String fileSizeThresholdBytes = getPropertyFromBuildOrDefault(FILE_SIZE_THRESHOLD, DEFAULT_FILE_SIZE_THRESHOLD);
@@ -148,6 +162,29 @@ public class AgentConfiguration implements TorrentConfiguration, SeedSettings, L
     return call("getMaxConnectionsCount", TorrentConfiguration.DEFAULT_MAX_CONNECTIONS);
   }
 
+  @Override
+  public int getTrackerTorrentExpireTimeoutSec() {
+    return call("getTrackerTorrentExpireTimeoutSec", TorrentConfiguration.DEFAULT_TRACKER_TORRENT_EXPIRE_TIMEOUT);
+  }
+
+  /**
+   * @return artifacts which server asks this agent to download ahead of dependent builds
+   */
+  @NotNull
+  public List<Map<String, Object>> getPrefetchTasks() {
+    final List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+    // server identifies the agent by its authorization token
+    final Object tasks = callHandler(XmlRpcConstants.TORRENT_PREFETCH, "getPrefetchTasks", new Vector<Object>(),
+            myBuildAgentConfiguration.getAuthorizationToken());
+    if (!(tasks instanceof List)) return result;
+    for (Object task : (List) tasks) {
+      if (task instanceof Map) {
+        result.add((Map<String, Object>) task);
+      }
+    }
+    return result;
+  }
+
   private int getFromBuildOrDefault(String key, int defaultValue) {
     String value = getPropertyFromBuildOrDefault(key, String.valueOf(defaultValue));
     try {
@@ -174,13 +211,18 @@ public class AgentConfiguration implements TorrentConfiguration, SeedSettings, L
 
   @NotNull
   private <T> T call(@NotNull String methodName, @NotNull final T defaultValue) {
+    return callHandler(XmlRpcConstants.TORRENT_CONFIGURATION, methodName, defaultValue);
+  }
+
+  @NotNull
+  private <T> T callHandler(@NotNull String handlerName, @NotNull String methodName, @NotNull final T defaultValue, Object... params) {
     final XmlRpcTarget xmlRpcTargetLocal = myXmlRpcTarget;
     if (xmlRpcTargetLocal == null) {
       Loggers.AGENT.warn("RPC object is not initialized");
       return defaultValue;
     }
     try {
-      final Object retval = xmlRpcTargetLocal.call(XmlRpcConstants.TORRENT_CONFIGURATION + "." + methodName, new Object[0]);
+      final Object retval = xmlRpcTargetLocal.call(handlerName + "." + methodName, params);
 
       if (retval == null) {
         Loggers.AGENT.warn("method " + methodName + " cannot be invoked via RPC");
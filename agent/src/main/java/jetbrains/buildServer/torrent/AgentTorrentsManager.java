@@ -96,6 +96,7 @@ public class AgentTorrentsManager extends AgentLifeCycleAdapter {
       myTorrentsSeeder.setSocketTimeout(myTrackerManager.getSocketTimeout());
       myTorrentsSeeder.setCleanupTimeout(myTrackerManager.getCleanupTimeout());
       myTorrentsSeeder.setAnnounceInterval(myAnnounceIntervalSec);
+      myTorrentsSeeder.setTrackerExpireTimeoutSec(myTrackerManager.getTrackerTorrentExpireTimeoutSec());
       final int maxConnectionsCount = myTrackerManager.getMaxConnectionsCount();
       myTorrentsSeeder.setMaxIncomingConnectionsCount(maxConnectionsCount);
       myTorrentsSeeder.setMaxOutgoingConnectionsCount(maxConnectionsCount);
@@ -114,6 +115,14 @@ public class AgentTorrentsManager extends AgentLifeCycleAdapter {
     return true;
   }
 
+  @Override
+  public void beforeAgentConfigurationLoaded(@NotNull BuildAgent agent) {
+    final File metricsFile = myTorrentsSeeder.getMetricsFile();
+    if (metricsFile != null) {
+      agent.getConfiguration().addConfigurationParameter(AgentTorrentsSeeder.METRICS_FILE_PARAMETER, metricsFile.getAbsolutePath());
+    }
+  }
+
   @Override
   public void agentStarted(@NotNull BuildAgent agent) {
     checkReady();
@@ -211,6 +220,19 @@ public class AgentTorrentsManager extends AgentLifeCycleAdapter {
             myTorrentsDownloadStatistic.getFailedDownloadCount()).asString());
     logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.SUCCESS_DOWNLOAD_KEY,
             myTorrentsDownloadStatistic.getSuccessfulDownloadCount()).asString());
+    if (myTorrentsDownloadStatistic.getSuccessfulDownloadCount() + myTorrentsDownloadStatistic.getFailedDownloadCount() == 0) {
+      return;
+    }
+    logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.DOWNLOADED_BYTES_KEY,
+            myTorrentsDownloadStatistic.getDownloadedBytes()).asString());
+    logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.SERVER_BYTES_KEY,
+            myTorrentsDownloadStatistic.getServerBytes()).asString());
+    logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.HASH_FAILURES_KEY,
+            myTorrentsDownloadStatistic.getHashFailuresCount()).asString());
+    logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.AVG_TIME_TO_FIRST_PEER_KEY,
+            myTorrentsDownloadStatistic.getAverageTimeToFirstPeerMs()).asString());
+    logger.message(new BuildStatisticValue(TorrentsDownloadStatistic.AVG_TIME_TO_FIRST_PIECE_KEY,
+            myTorrentsDownloadStatistic.getAverageTimeToFirstPieceMs()).asString());
   }
 
   @NotNull
@@ -2,35 +2,51 @@
 
 package jetbrains.buildServer.torrent;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.turn.ttorrent.client.SelectorFactoryImpl;
 import com.turn.ttorrent.client.SharedTorrent;
-import com.turn.ttorrent.client.announce.TrackerClientFactoryImpl;
 import com.turn.ttorrent.common.TorrentLoggerFactory;
 import jetbrains.buildServer.agent.BuildAgentConfiguration;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.torrent.announce.DeltaAnnounceTrackerClientFactory;
 import jetbrains.buildServer.torrent.seeder.ParentDirConverter;
 import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
 import jetbrains.buildServer.torrent.torrent.TeamcityTorrentClient;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.util.FileUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class AgentTorrentsSeeder {
 
+  private final static Logger LOG = Logger.getInstance(AgentTorrentsSeeder.class.getName());
+
+  public static final String METRICS_FILE_PARAMETER = "teamcity.torrent.metrics.file";
+  public static final String METRICS_FILE_INTERVAL = "teamcity.torrent.agent.metrics.fileIntervalSec";
+  private static final String METRICS_FILE_NAME = "metrics.prom";
+
   static {
     TorrentLoggerFactory.setStaticLoggersName("jetbrains.torrent.Library");
   }
 
   private final ScheduledExecutorService myExecutorService;
   private final TorrentsSeeder myTorrentsSeeder;
+  private final DeltaAnnounceTrackerClientFactory myTrackerClientFactory = new DeltaAnnounceTrackerClientFactory();
+  @Nullable
+  private File myMetricsFile;
 
   public AgentTorrentsSeeder(@NotNull final BuildAgentConfiguration agentConfiguration,
                              @NotNull final TorrentConfiguration torrentConfiguration) {
@@ -41,7 +57,52 @@ public class AgentTorrentsSeeder {
       public File getParentDir() {
         return agentConfiguration.getSystemDirectory();
       }
-    }, myExecutorService, torrentConfiguration, new TrackerClientFactoryImpl());
+    }, myExecutorService, torrentConfiguration, myTrackerClientFactory);
+    scheduleMetricsFileWriting(agentConfiguration);
+  }
+
+  /**
+   * agent has no http endpoint, so metrics are periodically written in Prometheus text format to the file,
+   * path to the file is reported as agent configuration parameter
+   */
+  private void scheduleMetricsFileWriting(@NotNull BuildAgentConfiguration agentConfiguration) {
+    final int intervalSec = TeamCityProperties.getInteger(METRICS_FILE_INTERVAL, 60);
+    if (intervalSec <= 0) return;
+    final File metricsFile = new File(agentConfiguration.getCacheDirectory(Constants.TORRENTS_DIRNAME), METRICS_FILE_NAME);
+    myMetricsFile = metricsFile;
+    myExecutorService.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          writeMetrics(metricsFile);
+        } catch (Throwable e) {
+          LOG.warnAndDebugDetails("Failed to write torrent metrics to " + metricsFile, e);
+        }
+      }
+    }, intervalSec, intervalSec, TimeUnit.SECONDS);
+  }
+
+  private static void writeMetrics(@NotNull File metricsFile) throws IOException {
+    final File tmpFile = new File(metricsFile.getParentFile(), metricsFile.getName() + ".tmp");
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+    try {
+      MetricsRegistry.getInstance().write(writer);
+    } finally {
+      FileUtil.close(writer);
+    }
+    if (!tmpFile.renameTo(metricsFile)) {
+      FileUtil.delete(metricsFile);
+      if (!tmpFile.renameTo(metricsFile)) {
+        throw new IOException("Failed to rename " + tmpFile + " to " + metricsFile);
+      }
+    }
+  }
+
+  /**
+   * @return file with agent metrics in Prometheus text format or null if writing of metrics is disabled
+   */
+  @Nullable
+  public File getMetricsFile() {
+    return myMetricsFile;
   }
 
   public void setRemoveExpiredTorrentFiles(boolean removeExpiredTorrentFiles) {
@@ -85,6 +146,10 @@ public class AgentTorrentsSeeder {
     return myTorrentsSeeder.getNumberOfSeededTorrents();
   }
 
+  public void setTrackerExpireTimeoutSec(int trackerExpireTimeoutSec) {
+    myTrackerClientFactory.setTrackerExpireTimeoutSec(trackerExpireTimeoutSec);
+  }
+
   public void setAnnounceInterval(int announceInterval) {
     myTorrentsSeeder.setAnnounceInterval(announceInterval);
   }
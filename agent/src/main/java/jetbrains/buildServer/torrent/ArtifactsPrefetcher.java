@@ -0,0 +1,151 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.common.TorrentParser;
+import com.turn.ttorrent.common.TorrentUtils;
+import jetbrains.buildServer.agent.AgentIdleTasks;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.agent.InterruptState;
+import jetbrains.buildServer.artifacts.ArtifactCacheProvider;
+import jetbrains.buildServer.artifacts.FileProgress;
+import jetbrains.buildServer.artifacts.RevisionRules;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import jetbrains.buildServer.torrent.util.StringUtils;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downloads artifacts which server asks to prefetch while agent is idle, see ArtifactsPrefetchPlanner on the server.
+ * <p>
+ * Artifact is downloaded via BitTorrent to a temporary directory and then moved to the artifacts cache
+ * to the same place where artifact downloaded by a dependent build would be stored, so builds of this agent reuse it
+ * and agent seeds it to other agents.
+ */
+public class ArtifactsPrefetcher {
+  private final static Logger LOG = Logger.getInstance(ArtifactsPrefetcher.class.getName());
+
+  private static final String PREFETCH_DIRNAME = "prefetch";
+  // server seeds all artifacts it has torrents for
+  private static final int MIN_SEEDERS_FOR_PREFETCH = 1;
+  private static final int TIMEOUT_FOR_CONNECT_TO_PEERS_MS = 5000;
+
+  @NotNull
+  private final AgentConfiguration myConfiguration;
+  @NotNull
+  private final BuildAgentConfiguration myAgentConfiguration;
+  @NotNull
+  private final AgentTorrentsSeeder myTorrentsSeeder;
+  @NotNull
+  private final TorrentFilesFactory myTorrentFilesFactory;
+  @NotNull
+  private final ArtifactCacheProvider myArtifactCacheProvider;
+
+  public ArtifactsPrefetcher(@NotNull final AgentConfiguration configuration,
+                             @NotNull final BuildAgentConfiguration agentConfiguration,
+                             @NotNull final AgentIdleTasks agentIdleTasks,
+                             @NotNull final AgentTorrentsSeeder torrentsSeeder,
+                             @NotNull final TorrentFilesFactory torrentFilesFactory,
+                             @NotNull final ArtifactCacheProvider artifactCacheProvider) {
+    myConfiguration = configuration;
+    myAgentConfiguration = agentConfiguration;
+    myTorrentsSeeder = torrentsSeeder;
+    myTorrentFilesFactory = torrentFilesFactory;
+    myArtifactCacheProvider = artifactCacheProvider;
+    agentIdleTasks.addRecurringTask(new AgentIdleTasks.Task() {
+      @NotNull
+      public String getName() {
+        return "Torrent artifacts prefetcher";
+      }
+
+      public void execute(@NotNull InterruptState interruptState) {
+        prefetch(interruptState);
+      }
+    });
+  }
+
+  private void prefetch(@NotNull InterruptState interruptState) {
+    if (myTorrentsSeeder.isStopped()) return;
+    final File cacheDir = myArtifactCacheProvider.getCacheDir();
+    final String serverUrl = myAgentConfiguration.getServerUrl();
+    if (cacheDir == null || serverUrl == null) return;
+    final File projectsDir = new File(cacheDir, StringUtils.parseServerUrlToDirectoriesPath(serverUrl) + File.separator + Constants.CACHE_STATIC_DIRS);
+
+    for (Map<String, Object> task : myConfiguration.getPrefetchTasks()) {
+      if (interruptState.isInterrupted()) return;
+      final Object buildTypeId = task.get(XmlRpcConstants.PREFETCH_BUILD_TYPE_ID);
+      final Object buildId = task.get(XmlRpcConstants.PREFETCH_BUILD_ID);
+      final Object artifactPath = task.get(XmlRpcConstants.PREFETCH_ARTIFACT_PATH);
+      final Object torrentData = task.get(XmlRpcConstants.PREFETCH_TORRENT);
+      if (!(buildTypeId instanceof String) || !(buildId instanceof String)
+              || !(artifactPath instanceof String) || !(torrentData instanceof byte[])) {
+        LOG.debug("Skipping malformed prefetch task " + task.keySet());
+        continue;
+      }
+      final File buildDir = new File(new File(projectsDir, (String) buildTypeId), buildId + RevisionRules.BUILD_ID_SUFFIX);
+      final File target = new File(buildDir, (String) artifactPath);
+      if (!FileUtil.isAncestor(buildDir, target, true)) continue;
+      try {
+        prefetchArtifact((byte[]) torrentData, target);
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Failed to prefetch artifact " + artifactPath + " of build " + buildId, e);
+      }
+    }
+  }
+
+  private void prefetchArtifact(@NotNull byte[] torrentData, @NotNull File target) throws Exception {
+    if (target.exists()) return;
+    final TorrentMetadata metadata = new TorrentParser().parse(torrentData);
+    if (myTorrentsSeeder.getClient().isSeeding(metadata)) return;
+    final List<String> fileNames = TorrentUtils.getTorrentFileNames(metadata);
+    if (fileNames.size() != 1) return;
+    long size = 0;
+    for (TorrentFile file : metadata.getFiles()) {
+      size += file.size;
+    }
+
+    final File torrentFile = myTorrentFilesFactory.getTorrentFile();
+    TorrentUtil.saveTorrentToFile(metadata, torrentFile);
+    final File tempDir = FileUtil.createTempDirectory(PREFETCH_DIRNAME, "",
+            myAgentConfiguration.getCacheDirectory(Constants.TORRENTS_DIRNAME));
+    try {
+      final File downloaded = new File(tempDir, fileNames.get(0));
+      LOG.info("Prefetching " + target.getAbsolutePath() + " via BitTorrent");
+      myTorrentsSeeder.getClient().downloadAndShareOrFail(
+              torrentFile,
+              fileNames,
+              metadata.getHexInfoHash(),
+              downloaded,
+              tempDir,
+              new FileProgress.Adapter(),
+              myConfiguration.getMaxPieceDownloadTime() * 1000,
+              MIN_SEEDERS_FOR_PREFETCH,
+              TIMEOUT_FOR_CONNECT_TO_PEERS_MS);
+      if (downloaded.length() != size) {
+        throw new IOException("Expected file size: " + size + ", actual file size: " + downloaded.length());
+      }
+      moveToCache(downloaded, target);
+      myTorrentsSeeder.registerSrcAndTorrentFile(target, torrentFile, true);
+    } finally {
+      FileUtil.delete(tempDir);
+    }
+  }
+
+  private static void moveToCache(@NotNull File downloaded, @NotNull File target) throws IOException {
+    final File parent = target.getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    if (!downloaded.renameTo(target)) {
+      FileUtil.copy(downloaded, target);
+    }
+  }
+}
@@ -3,7 +3,6 @@
 package jetbrains.buildServer.torrent;
 
 import com.intellij.openapi.diagnostic.Logger;
-import com.turn.ttorrent.common.TorrentCreator;
 import com.turn.ttorrent.common.TorrentMetadata;
 import jetbrains.buildServer.agent.AgentIdleTasks;
 import jetbrains.buildServer.agent.BuildAgentConfiguration;
@@ -72,7 +71,8 @@ public class TorrentFilesFactoryImpl implements TorrentFilesFactory {
 
     try {
       File torrentFile = getTorrentFile();
-      TorrentMetadata torrent = TorrentCreator.create(srcFile, URI.create(announceUrl), "TeamCity Torrent Plugin");
+      TorrentMetadata torrent = TorrentUtil.createTorrent(srcFile, URI.create(announceUrl),
+              TorrentUtil.getUdpAnnounceURI(myConfiguration), "TeamCity Torrent Plugin");
       TorrentUtil.saveTorrentToFile(torrent, torrentFile);
       return torrentFile;
     } catch (Exception e) {
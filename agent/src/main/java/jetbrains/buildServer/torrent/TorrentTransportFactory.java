@@ -23,6 +23,7 @@ import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
 import jetbrains.buildServer.torrent.settings.LeechSettings;
 import jetbrains.buildServer.torrent.torrent.TeamcityTorrentClient;
 import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import jetbrains.buildServer.torrent.util.TorrentDownloadReport;
 import jetbrains.buildServer.torrent.util.TorrentsDownloadStatistic;
 import jetbrains.buildServer.util.StringUtil;
 import org.apache.commons.httpclient.*;
@@ -38,6 +39,8 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.URL;
 import java.net.URLDecoder;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -56,6 +59,7 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
   private final static Logger LOG = Logger.getInstance("jetbrains.TorrentPlugin");
 
   public static final String TEAMCITY_ARTIFACTS_TRANSPORT = "teamcity.artifacts.transport";
+  private static final String DOWNLOAD_REPORT_BLOCK_TYPE = "torrentDownloadReport";
 
 
   private final AgentTorrentsManager myAgentTorrentsManager;
@@ -119,7 +123,24 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
             myAgentTorrentsManager.getTorrentsDownloadStatistic(),
             myLeechSettings,
             myTorrentFilesFactory,
-            new HttpTransport(httpClient, serverUrl));
+            new HttpTransport(httpClient, serverUrl),
+            getServerAddresses(serverUrl));
+  }
+
+  /**
+   * @return ip addresses of server, they are used to distinguish bytes received from server and from other agents
+   */
+  @NotNull
+  private static Collection<String> getServerAddresses(@NotNull String serverUrl) {
+    final List<String> result = new ArrayList<String>();
+    try {
+      for (InetAddress address : InetAddress.getAllByName(new URL(serverUrl).getHost())) {
+        result.add(address.getHostAddress());
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to resolve server address from " + serverUrl, e);
+    }
+    return result;
   }
 
   private boolean shouldUseTorrentTransport() {
@@ -146,6 +167,8 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
     private final TorrentFilesFactory myTorrentFilesFactory;
 
     private final Map<String, String> myTorrentsForArtifacts;
+    @NotNull
+    private final Collection<String> myServerAddresses;
 
     protected TorrentTransport(@NotNull final TorrentsSeeder seeder,
                                @NotNull final HttpDownloader httpDownloader,
@@ -154,6 +177,19 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
                                @NotNull final LeechSettings leechSettings,
                                @NotNull final TorrentFilesFactory torrentFilesFactory,
                                @NotNull final URLContentRetriever httpRetriever) {
+      this(seeder, httpDownloader, buildLogger, torrentsDownloadStatistic, leechSettings, torrentFilesFactory, httpRetriever,
+              Collections.<String>emptyList());
+    }
+
+    protected TorrentTransport(@NotNull final TorrentsSeeder seeder,
+                               @NotNull final HttpDownloader httpDownloader,
+                               @NotNull final BuildProgressLogger buildLogger,
+                               @NotNull final TorrentsDownloadStatistic torrentsDownloadStatistic,
+                               @NotNull final LeechSettings leechSettings,
+                               @NotNull final TorrentFilesFactory torrentFilesFactory,
+                               @NotNull final URLContentRetriever httpRetriever,
+                               @NotNull final Collection<String> serverAddresses) {
+      myServerAddresses = serverAddresses;
       myDelegate = httpRetriever;
       mySeeder = seeder;
       myLeechSettings = leechSettings;
@@ -218,6 +254,7 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
         final int timeoutForConnectToPeersMs = 5000;
 
         final AtomicReference<Exception> exceptionHolder = new AtomicReference<Exception>();
+        final TorrentDownloadReport report = new TorrentDownloadReport(myServerAddresses);
         Loggers.AGENT.debug("start download file " + target.getName());
 
         Thread th = myClient.downloadAndShareOrFailAsync(
@@ -230,10 +267,14 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
                 myLeechSettings.getMaxPieceDownloadTime() * 1000,
                 minSeedersForDownload,
                 timeoutForConnectToPeersMs,
-                exceptionHolder);
+                exceptionHolder,
+                report);
         myCurrentDownload.set(Thread.currentThread());
         th.join();
         myCurrentDownload.set(null);
+        report.finished();
+        myTorrentsDownloadStatistic.reportCollected(report);
+        logReport(target.getName(), report);
         if (exceptionHolder.get() != null) {
           myTorrentsDownloadStatistic.fileDownloadFailed();
           Loggers.AGENT.warnAndDebugDetails("unable to download file " + name + " "
@@ -329,6 +370,19 @@ public class TorrentTransportFactory implements TransportFactoryExtension {
       return null;
     }
 
+    private void logReport(@NotNull String fileName, @NotNull TorrentDownloadReport report) {
+      final String blockName = "BitTorrent download statistic for " + fileName;
+      myBuildLogger.activityStarted(blockName, DOWNLOAD_REPORT_BLOCK_TYPE);
+      try {
+        for (String line : report.getSummary()) {
+          log2Build(line);
+        }
+      } finally {
+        myBuildLogger.activityFinished(blockName, DOWNLOAD_REPORT_BLOCK_TYPE);
+      }
+      LOG.debug(blockName + ": " + StringUtil.join("; ", report.getSummary()));
+    }
+
     private void log2Build(String msg) {
       TorrentUtil.log2Build(msg, myBuildLogger);
     }
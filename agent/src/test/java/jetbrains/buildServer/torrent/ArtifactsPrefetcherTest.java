@@ -0,0 +1,198 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.client.CommunicationManager;
+import com.turn.ttorrent.common.TorrentCreator;
+import com.turn.ttorrent.common.TorrentMetadata;
+import com.turn.ttorrent.tracker.Tracker;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.agent.AgentLifeCycleListener;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
+import jetbrains.buildServer.agent.InterruptState;
+import jetbrains.buildServer.agent.impl.CurrentBuildTrackerImpl;
+import jetbrains.buildServer.artifacts.ArtifactCacheProvider;
+import jetbrains.buildServer.artifacts.RevisionRules;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import jetbrains.buildServer.torrent.util.StringUtils;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.WaitFor;
+import jetbrains.buildServer.util.ssl.SSLTrustStoreProvider;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Test
+public class ArtifactsPrefetcherTest extends BaseTestCase {
+
+  private static final String BUILD_TYPE_ID = "Project_Build";
+  private static final String BUILD_ID = "42";
+  private static final URI ANNOUNCE_URI = URI.create("http://localhost:6969/announce");
+
+  private final BuildAgentConfigurationFixture myAgentConfigurationFixture = new BuildAgentConfigurationFixture();
+  private final List<Map<String, Object>> myTasks = new ArrayList<Map<String, Object>>();
+  private AgentTorrentsSeeder mySeeder;
+  private FakeAgentIdleTasks myIdleTasks;
+  private InterruptState myInterruptState;
+  private File myBuildCacheDir;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTasks.clear();
+    final EventDispatcher<AgentLifeCycleListener> dispatcher = EventDispatcher.create(AgentLifeCycleListener.class);
+    final BuildAgentConfiguration agentConfiguration = myAgentConfigurationFixture.setUp();
+    final File cacheDir = createTempDir();
+
+    final Mockery m = new Mockery();
+    final ArtifactCacheProvider cacheProvider = m.mock(ArtifactCacheProvider.class);
+    final TorrentFilesFactory torrentFilesFactory = m.mock(TorrentFilesFactory.class);
+    final SSLTrustStoreProvider trustStoreProvider = m.mock(SSLTrustStoreProvider.class);
+    myInterruptState = m.mock(InterruptState.class);
+    m.checking(new Expectations() {{
+      allowing(cacheProvider).getCacheDir(); will(returnValue(cacheDir));
+      allowing(torrentFilesFactory).getTorrentFile(); will(returnValue(createTempFile()));
+      allowing(myInterruptState).isInterrupted(); will(returnValue(false));
+    }});
+
+    final AgentConfiguration configuration = new AgentConfiguration(dispatcher, agentConfiguration,
+            new CurrentBuildTrackerImpl(dispatcher), trustStoreProvider) {
+      @NotNull
+      @Override
+      public List<Map<String, Object>> getPrefetchTasks() {
+        return myTasks;
+      }
+
+      @Override
+      public int getMaxPieceDownloadTime() {
+        return 15;
+      }
+    };
+
+    mySeeder = new AgentTorrentsSeeder(agentConfiguration, new FakeTorrentConfiguration());
+    myIdleTasks = new FakeAgentIdleTasks();
+    new ArtifactsPrefetcher(configuration, agentConfiguration, myIdleTasks, mySeeder, torrentFilesFactory, cacheProvider);
+
+    final File projectsDir = new File(cacheDir, StringUtils.parseServerUrlToDirectoriesPath(agentConfiguration.getServerUrl())
+            + File.separator + Constants.CACHE_STATIC_DIRS);
+    myBuildCacheDir = new File(new File(projectsDir, BUILD_TYPE_ID), BUILD_ID + RevisionRules.BUILD_ID_SUFFIX);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    mySeeder.dispose();
+    myAgentConfigurationFixture.tearDown();
+    super.tearDown();
+  }
+
+  public void testArtifactIsPrefetchedToCacheAndSeeded() throws Exception {
+    final File storageDir = createTempDir();
+    final File artifact = new File(storageDir, "dist.zip");
+    FileUtils.copyFile(createTempFile(5 * 1024 * 1024), artifact);
+
+    final Tracker tracker = new Tracker(6969);
+    final CommunicationManager serverClient = createClientWithClosingExecutorServiceOnStop();
+    try {
+      tracker.start(true);
+      mySeeder.start(new InetAddress[]{InetAddress.getLocalHost()}, tracker.getAnnounceURI(), 5);
+
+      final byte[] torrentData = createTorrent(artifact, tracker.getAnnounceURI());
+      final File torrentFile = createTempFile();
+      FileUtils.writeByteArrayToFile(torrentFile, torrentData);
+      serverClient.start(InetAddress.getLocalHost());
+      serverClient.addTorrent(torrentFile.getAbsolutePath(), storageDir.getAbsolutePath());
+
+      myTasks.add(task("lib/dist.zip", torrentData));
+      runPrefetch();
+
+      final File cached = new File(myBuildCacheDir, "lib/dist.zip");
+      assertTrue(FileUtils.contentEquals(artifact, cached));
+      new WaitFor(3 * 1000) {
+        @Override
+        protected boolean condition() {
+          return mySeeder.getNumberOfSeededTorrents() == 1;
+        }
+      };
+      assertEquals(1, mySeeder.getNumberOfSeededTorrents());
+    } finally {
+      serverClient.stop();
+      tracker.stop();
+    }
+  }
+
+  public void testCachedArtifactIsNotDownloadedAgain() throws Exception {
+    final File cached = new File(myBuildCacheDir, "dist.zip");
+    FileUtils.writeStringToFile(cached, "cached content");
+
+    myTasks.add(task("dist.zip", createTorrent(createTempFile(1024), ANNOUNCE_URI)));
+    runPrefetch();
+
+    assertEquals("cached content", FileUtils.readFileToString(cached));
+    assertEquals(0, mySeeder.getSharedTorrents().size());
+  }
+
+  public void testArtifactOutsideOfBuildDirectoryIsSkipped() throws Exception {
+    final byte[] torrentData = createTorrent(createTempFile(1024), ANNOUNCE_URI);
+    myTasks.add(task("../../evil.zip", torrentData));
+    final Map<String, Object> malformed = task("dist.zip", torrentData);
+    malformed.remove(XmlRpcConstants.PREFETCH_TORRENT);
+    myTasks.add(malformed);
+    runPrefetch();
+
+    assertFalse(new File(myBuildCacheDir, "../../evil.zip").exists());
+    assertFalse(new File(myBuildCacheDir, "dist.zip").exists());
+    assertEquals(0, mySeeder.getSharedTorrents().size());
+  }
+
+  private void runPrefetch() {
+    myIdleTasks.getTask().execute(myInterruptState);
+  }
+
+  @NotNull
+  private static byte[] createTorrent(@NotNull File file, @NotNull URI announceUri) throws Exception {
+    final TorrentMetadata metadata = TorrentCreator.create(file, announceUri, "testplugin");
+    final File torrentFile = File.createTempFile("prefetch", TorrentUtil.TORRENT_FILE_SUFFIX);
+    try {
+      TorrentUtil.saveTorrentToFile(metadata, torrentFile);
+      return FileUtils.readFileToByteArray(torrentFile);
+    } finally {
+      torrentFile.delete();
+    }
+  }
+
+  @NotNull
+  private static Map<String, Object> task(@NotNull String artifactPath, @NotNull byte[] torrentData) {
+    final Map<String, Object> task = new HashMap<String, Object>();
+    task.put(XmlRpcConstants.PREFETCH_BUILD_TYPE_ID, BUILD_TYPE_ID);
+    task.put(XmlRpcConstants.PREFETCH_BUILD_ID, BUILD_ID);
+    task.put(XmlRpcConstants.PREFETCH_ARTIFACT_PATH, artifactPath);
+    task.put(XmlRpcConstants.PREFETCH_TORRENT, torrentData);
+    return task;
+  }
+
+  private static CommunicationManager createClientWithClosingExecutorServiceOnStop() {
+    final ExecutorService es = Executors.newFixedThreadPool(2);
+    final ExecutorService validatorES = Executors.newFixedThreadPool(2);
+    return new CommunicationManager(es, validatorES) {
+      @Override
+      public void stop() {
+        super.stop();
+        es.shutdown();
+        validatorES.shutdown();
+      }
+    };
+  }
+}
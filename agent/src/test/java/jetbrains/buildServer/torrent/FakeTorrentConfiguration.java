@@ -11,6 +11,10 @@ public class FakeTorrentConfiguration implements TorrentConfiguration {
     return "http://localhost:6969/announce";
   }
 
+  public String getUdpAnnounceUrl() {
+    return null;
+  }
+
   public long getFileSizeThresholdBytes() {
     return 1024*1024;
   }
@@ -61,4 +65,8 @@ public class FakeTorrentConfiguration implements TorrentConfiguration {
     return 10;
   }
 
+  @Override public int getTrackerTorrentExpireTimeoutSec() {
+    return DEFAULT_TRACKER_TORRENT_EXPIRE_TIMEOUT;
+  }
+
 }
\ No newline at end of file
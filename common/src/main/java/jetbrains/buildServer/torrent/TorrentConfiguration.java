@@ -23,8 +23,17 @@ public interface TorrentConfiguration {
   int DEFAULT_ANNOUNCE_INTERVAL = 60;
   String TRACKER_TORRENT_EXPIRE_TIMEOUT = "torrent.tracker.expire.timeout.sec";
   int DEFAULT_TRACKER_TORRENT_EXPIRE_TIMEOUT = 600;
+  String TRACKER_ANNOUNCE_CACHE_TTL = "torrent.tracker.announce.cache.ttl.sec";
+  int DEFAULT_TRACKER_ANNOUNCE_CACHE_TTL = 5;
+  String TRACKER_SNAPSHOT_ENABLED = "torrent.tracker.snapshot.enabled";
+  String TRACKER_SNAPSHOT_INTERVAL = "torrent.tracker.snapshot.interval.sec";
+  int DEFAULT_TRACKER_SNAPSHOT_INTERVAL = 60;
   String TRACKER_DEDICATED_PORT ="torrent.tracker.dedicated.port";
   boolean DEFAULT_TRACKER_DEDICATED_PORT = false;
+  String TRACKER_UDP_ENABLED = "torrent.tracker.udp.enabled";
+  boolean DEFAULT_TRACKER_UDP_ENABLED = false;
+  String TRACKER_UDP_PORT = "torrent.tracker.udp.port";
+  int DEFAULT_TRACKER_UDP_PORT = 6969;
   boolean DEFAULT_TORRENT_ENABLED = false;
   String SOCKET_CONNECTION_TIMEOUT ="teamcity.torrent.peer.connection.operationTimeout.seconds";
   String MAX_INCOMING_CONNECTIONS ="teamcity.torrent.peer.download.maxConnections";
@@ -36,6 +45,36 @@ public interface TorrentConfiguration {
   int DEFAULT_WORKER_POOL_SIZE = 10;
   String VALIDATOR_POOL_SIZE = "teamcity.torrent.validation.poolSize";
   int DEFAULT_VALIDATOR_POOL_SIZE = 4;
+  String ARTIFACTS_PIPELINE_THREADS = "teamcity.torrent.server.artifactsPipeline.threads";
+  int DEFAULT_ARTIFACTS_PIPELINE_THREADS = 1;
+  String ARTIFACTS_PIPELINE_QUEUE_SIZE = "teamcity.torrent.server.artifactsPipeline.queueSize";
+  int DEFAULT_ARTIFACTS_PIPELINE_QUEUE_SIZE = 100;
+  String ARTIFACTS_PIPELINE_SHUTDOWN_TIMEOUT_MS = "teamcity.torrent.server.artifactsPipeline.shutdownTimeoutMs";
+  long DEFAULT_ARTIFACTS_PIPELINE_SHUTDOWN_TIMEOUT_MS = 30 * 1000;
+  String ARTIFACTS_PIPELINE_BATCH_SIZE = "teamcity.torrent.server.artifactsPipeline.batchSize";
+  int DEFAULT_ARTIFACTS_PIPELINE_BATCH_SIZE = 500;
+  String ARTIFACTS_PIPELINE_RESOLVE_PARALLELISM = "teamcity.torrent.server.artifactsPipeline.resolveParallelism";
+  String SERVER_TORRENT_GENERATION_ENABLED = "teamcity.torrent.server.generateTorrents.enabled";
+  String SERVER_TORRENT_GENERATION_THREADS = "teamcity.torrent.server.generateTorrents.threads";
+  int DEFAULT_SERVER_TORRENT_GENERATION_THREADS = 2;
+  String SERVER_TORRENT_GENERATION_QUEUE_SIZE = "teamcity.torrent.server.generateTorrents.queueSize";
+  int DEFAULT_SERVER_TORRENT_GENERATION_QUEUE_SIZE = 10000;
+  String SERVER_TORRENT_GENERATION_BYTES_PER_SEC = "teamcity.torrent.server.generateTorrents.maxBytesPerSec";
+  long DEFAULT_SERVER_TORRENT_GENERATION_BYTES_PER_SEC = 50L * 1024 * 1024;
+  String TORRENTS_INDEX_CACHE_SIZE = "teamcity.torrent.server.torrentsIndex.cacheSize";
+  int DEFAULT_TORRENTS_INDEX_CACHE_SIZE = 1000;
+  String SERVER_PREFETCH_ENABLED = "teamcity.torrent.server.prefetch.enabled";
+  String SERVER_PREFETCH_FAN_OUT = "teamcity.torrent.server.prefetch.fanOut";
+  int DEFAULT_SERVER_PREFETCH_FAN_OUT = 3;
+  String SERVER_PREFETCH_MIN_FILE_SIZE = "teamcity.torrent.server.prefetch.minFileSize";
+  String DEFAULT_SERVER_PREFETCH_MIN_FILE_SIZE = "100mb";
+  String SERVER_PREFETCH_TASK_TTL_SEC = "teamcity.torrent.server.prefetch.taskTtlSec";
+  int DEFAULT_SERVER_PREFETCH_TASK_TTL_SEC = 1800;
+  String SERVER_SEEDING_ADMISSION_ENABLED = "teamcity.torrent.server.seedingAdmission.enabled";
+  String SERVER_SEEDING_ADMISSION_MIN_AGENT_SEEDERS = "teamcity.torrent.server.seedingAdmission.minAgentSeeders";
+  int DEFAULT_SERVER_SEEDING_ADMISSION_MIN_AGENT_SEEDERS = 3;
+  String SERVER_SEEDING_ADMISSION_INTERVAL_SEC = "teamcity.torrent.server.seedingAdmission.intervalSec";
+  int DEFAULT_SERVER_SEEDING_ADMISSION_INTERVAL_SEC = 30;
   int DEFAULT_BUFFER_SIZE_WINDOWS = 1024*1024;
   // this is fake option to multicast announce url changes;
   String ANNOUNCE_URL = "announce.url";
@@ -46,6 +85,13 @@ public interface TorrentConfiguration {
    */
   @Nullable String getAnnounceUrl();
 
+  /**
+   * Returns announce URL of the UDP tracker endpoint or null (empty string) if it isn't started.
+   * Torrents list it as the first announce tier and {@link #getAnnounceUrl()} as the fallback one
+   * @return see above
+   */
+  @Nullable String getUdpAnnounceUrl();
+
   /**
    * host address, which must be used by agent/server in tracker announce messages
    * @return see above
@@ -95,4 +141,10 @@ public interface TorrentConfiguration {
    */
   int getMaxConnectionsCount();
 
+  /**
+   * Returns timeout in seconds after which tracker forgets peers which didn't announce
+   * @return see above
+   */
+  int getTrackerTorrentExpireTimeoutSec();
+
 }
\ No newline at end of file
@@ -9,4 +9,9 @@ package jetbrains.buildServer.torrent;
  */
 final class XmlRpcConstants {
   static final String TORRENT_CONFIGURATION = "TorrentConfiguration";
+  static final String TORRENT_PREFETCH = "TorrentPrefetch";
+  static final String PREFETCH_BUILD_TYPE_ID = "buildTypeId";
+  static final String PREFETCH_BUILD_ID = "buildId";
+  static final String PREFETCH_ARTIFACT_PATH = "artifactPath";
+  static final String PREFETCH_TORRENT = "torrent";
 }
\ No newline at end of file
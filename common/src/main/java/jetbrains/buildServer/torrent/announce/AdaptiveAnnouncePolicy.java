@@ -0,0 +1,139 @@
+
+
+package jetbrains.buildServer.torrent.announce;
+
+import com.turn.ttorrent.common.AnnounceableInformation;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which torrents must be announced in the current announce round.
+ * <p>
+ * Active torrents (torrents which are downloading or were requested by other peers since previous announce)
+ * are announced every round. Idle seeds back off exponentially starting from initial idle interval,
+ * interval is bounded by half of tracker expire timeout so idle seeds are never expired on tracker.
+ * Expire timeout is a setting of the tracker, so it is passed from outside and can change while the policy is used.
+ */
+public class AdaptiveAnnouncePolicy {
+
+  public static final String ADAPTIVE_ANNOUNCE_ENABLED = "teamcity.torrent.announce.adaptive.enabled";
+  public static final String IDLE_INITIAL_INTERVAL = "teamcity.torrent.announce.idle.initialIntervalSec";
+  public static final String IDLE_MAX_INTERVAL = "teamcity.torrent.announce.idle.maxIntervalSec";
+
+  private static final int DEFAULT_IDLE_INITIAL_INTERVAL_SEC = 120;
+
+  private final boolean myEnabled;
+  private final long myInitialIdleIntervalMs;
+  private final long myMaxIdleIntervalMs;
+  @NotNull
+  private final AtomicInteger myTrackerExpireTimeoutSec;
+
+  /**
+   * hex info hash -> announce state of the torrent
+   */
+  @NotNull
+  private final ConcurrentMap<String, State> myStates = new ConcurrentHashMap<String, State>();
+
+  public AdaptiveAnnouncePolicy(boolean enabled, long initialIdleIntervalMs, long maxIdleIntervalMs) {
+    this(enabled, initialIdleIntervalMs, maxIdleIntervalMs, new AtomicInteger(Integer.MAX_VALUE));
+  }
+
+  /**
+   * @param trackerExpireTimeoutSec current expire timeout of the tracker, idle interval never exceeds half of it
+   */
+  public AdaptiveAnnouncePolicy(boolean enabled,
+                                long initialIdleIntervalMs,
+                                long maxIdleIntervalMs,
+                                @NotNull AtomicInteger trackerExpireTimeoutSec) {
+    myEnabled = enabled;
+    myMaxIdleIntervalMs = maxIdleIntervalMs;
+    myInitialIdleIntervalMs = initialIdleIntervalMs;
+    myTrackerExpireTimeoutSec = trackerExpireTimeoutSec;
+  }
+
+  /**
+   * creates policy configured by internal properties
+   *
+   * @param trackerExpireTimeoutSec expire timeout of the tracker as reported by the server
+   */
+  @NotNull
+  public static AdaptiveAnnouncePolicy fromProperties(@NotNull AtomicInteger trackerExpireTimeoutSec) {
+    return new AdaptiveAnnouncePolicy(TeamCityProperties.getBooleanOrTrue(ADAPTIVE_ANNOUNCE_ENABLED),
+            TimeUnit.SECONDS.toMillis(TeamCityProperties.getInteger(IDLE_INITIAL_INTERVAL, DEFAULT_IDLE_INITIAL_INTERVAL_SEC)),
+            TimeUnit.SECONDS.toMillis(TeamCityProperties.getInteger(IDLE_MAX_INTERVAL, Integer.MAX_VALUE / 1000)),
+            trackerExpireTimeoutSec);
+  }
+
+  /**
+   * @return torrents which must be announced at the specified moment
+   */
+  @NotNull
+  public <T extends AnnounceableInformation> List<T> selectForAnnounce(@NotNull List<T> torrents, long now) {
+    if (!myEnabled) return torrents;
+    List<T> result = new ArrayList<T>();
+    for (T torrent : torrents) {
+      final State state = myStates.get(torrent.getHexInfoHash());
+      // interval is bounded again here, because expire timeout could be decreased since the previous announce
+      if (state == null || isActive(torrent, state) || now >= state.myAnnounceTime + Math.min(state.myIdleIntervalMs, getMaxIdleIntervalMs())) {
+        result.add(torrent);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * must be invoked after torrents were announced successfully
+   */
+  public void announced(@NotNull List<? extends AnnounceableInformation> torrents, long now) {
+    if (!myEnabled) return;
+    for (AnnounceableInformation torrent : torrents) {
+      final String hash = torrent.getHexInfoHash();
+      final State oldState = myStates.get(hash);
+      final long idleInterval;
+      if (oldState == null || isActive(torrent, oldState)) {
+        idleInterval = 0;
+      } else if (oldState.myIdleIntervalMs == 0) {
+        idleInterval = Math.min(myInitialIdleIntervalMs, getMaxIdleIntervalMs());
+      } else {
+        idleInterval = Math.min(oldState.myIdleIntervalMs * 2, getMaxIdleIntervalMs());
+      }
+      myStates.put(hash, new State(torrent.getLeft(), torrent.getUploaded(), idleInterval, now));
+    }
+  }
+
+  private long getMaxIdleIntervalMs() {
+    return Math.min(myMaxIdleIntervalMs, TimeUnit.SECONDS.toMillis(myTrackerExpireTimeoutSec.get()) / 2);
+  }
+
+  /**
+   * resets state of the torrent, next announce of the torrent will be performed in the nearest round
+   */
+  public void forget(@NotNull String hexInfoHash) {
+    myStates.remove(hexInfoHash);
+  }
+
+  private boolean isActive(@NotNull AnnounceableInformation torrent, @NotNull State state) {
+    return torrent.getLeft() > 0 || torrent.getLeft() != state.myLeft || torrent.getUploaded() != state.myUploaded;
+  }
+
+  private static final class State {
+    private final long myLeft;
+    private final long myUploaded;
+    private final long myIdleIntervalMs;
+    private final long myAnnounceTime;
+
+    private State(long left, long uploaded, long idleIntervalMs, long announceTime) {
+      myLeft = left;
+      myUploaded = uploaded;
+      myIdleIntervalMs = idleIntervalMs;
+      myAnnounceTime = announceTime;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+
+
+package jetbrains.buildServer.torrent.announce;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.client.announce.AnnounceException;
+import com.turn.ttorrent.client.announce.HTTPTrackerClient;
+import com.turn.ttorrent.common.AnnounceableInformation;
+import com.turn.ttorrent.common.Peer;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Http tracker client which sends torrents unchanged since previous full announce as compact keep-alive set
+ * (see {@link KeepAliveAnnounce}). Torrents with changed state and torrents unknown for tracker are announced in regular way.
+ * If tracker doesn't support keep-alive announces the client falls back to regular announces.
+ * Regular announce rounds are filtered by {@link AdaptiveAnnouncePolicy} so idle seeds are announced less often,
+ * torrents of regular announce are sent as size-bounded multi-announce batches separated by random delay.
+ * Torrent is marked as announced only when its batch is accepted by tracker, failed batch doesn't abort the rest.
+ */
+public class DeltaAnnounceTrackerClient extends HTTPTrackerClient {
+
+  private final static Logger LOG = Logger.getInstance(DeltaAnnounceTrackerClient.class.getName());
+
+  private static final MetricsRegistry.Histogram ANNOUNCE_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_announce_seconds", "Duration of successful announce requests to tracker",
+          MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Counter BATCHES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_announce_batches_total", "Multi-announce batches accepted by tracker");
+  private static final MetricsRegistry.Counter FAILED_BATCHES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_announce_batch_failures_total", "Multi-announce batches failed or rejected by tracker");
+  private static final MetricsRegistry.Counter ANNOUNCED_TORRENTS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_announced_torrents_total", "Torrents announced to tracker in accepted multi-announce batches");
+
+  private static final int CONNECTION_TIMEOUT_MS = 30 * 1000;
+
+  /**
+   * hex info hash -> count of left bytes sent in last full announce
+   */
+  @NotNull
+  private final ConcurrentMap<String, Long> myAnnouncedLeft = new ConcurrentHashMap<String, Long>();
+  private final boolean myKeepAliveEnabled;
+  @NotNull
+  private final AdaptiveAnnouncePolicy myAnnouncePolicy;
+  @NotNull
+  private final Random myRandom = new Random();
+  private volatile boolean myKeepAliveSupported = true;
+
+  public DeltaAnnounceTrackerClient(List<Peer> peers,
+                                    URI tracker,
+                                    boolean keepAliveEnabled,
+                                    @NotNull AdaptiveAnnouncePolicy announcePolicy) {
+    super(peers, tracker);
+    myKeepAliveEnabled = keepAliveEnabled;
+    myAnnouncePolicy = announcePolicy;
+  }
+
+  @Override
+  protected void multiAnnounce(AnnounceRequestMessage.RequestEvent event,
+                               boolean inhibitEvent,
+                               List<? extends AnnounceableInformation> torrents,
+                               List<Peer> addresses) throws AnnounceException, ConnectException {
+    final long now = System.currentTimeMillis();
+    if (event != AnnounceRequestMessage.RequestEvent.NONE) {
+      fullAnnounce(event, inhibitEvent, torrents, addresses, now);
+      return;
+    }
+
+    final List<? extends AnnounceableInformation> toAnnounce = myAnnouncePolicy.selectForAnnounce(torrents, now);
+    if (toAnnounce.isEmpty()) return;
+
+    if (!isKeepAliveAvailable()) {
+      fullAnnounce(event, inhibitEvent, toAnnounce, addresses, now);
+      return;
+    }
+
+    List<AnnounceableInformation> changed = new ArrayList<AnnounceableInformation>();
+    Map<String, AnnounceableInformation> unchanged = new LinkedHashMap<String, AnnounceableInformation>();
+    for (AnnounceableInformation torrent : toAnnounce) {
+      Long announcedLeft = myAnnouncedLeft.get(torrent.getHexInfoHash());
+      if (announcedLeft != null && announcedLeft == torrent.getLeft()) {
+        unchanged.put(torrent.getHexInfoHash(), torrent);
+      } else {
+        changed.add(torrent);
+      }
+    }
+
+    if (!unchanged.isEmpty()) {
+      try {
+        for (String unknownHash : sendKeepAlive(unchanged.keySet(), addresses)) {
+          AnnounceableInformation torrent = unchanged.remove(unknownHash);
+          if (torrent == null) continue;
+          myAnnouncedLeft.remove(unknownHash);
+          myAnnouncePolicy.forget(unknownHash);
+          changed.add(torrent);
+        }
+        myAnnouncePolicy.announced(new ArrayList<AnnounceableInformation>(unchanged.values()), now);
+      } catch (IOException e) {
+        LOG.debug("Keep-alive announce to " + getTrackerURI() + " failed, will use regular announce", e);
+        changed.addAll(unchanged.values());
+      }
+    }
+
+    if (!changed.isEmpty()) {
+      fullAnnounce(event, inhibitEvent, changed, addresses, now);
+    }
+  }
+
+  /**
+   * announces torrents by batches. Failure of one batch doesn't prevent sending of the rest,
+   * the first failure is rethrown after all batches are processed. Connection failure aborts announce immediately
+   */
+  private void fullAnnounce(AnnounceRequestMessage.RequestEvent event,
+                            boolean inhibitEvent,
+                            List<? extends AnnounceableInformation> torrents,
+                            List<Peer> addresses,
+                            long now) throws AnnounceException, ConnectException {
+    final int batchSize = DeltaAnnounceTrackerClientFactory.getBatchSize();
+    if (event != AnnounceRequestMessage.RequestEvent.NONE || torrents.size() <= batchSize) {
+      sendBatch(event, inhibitEvent, torrents, addresses, now);
+      return;
+    }
+    final int jitterMs = DeltaAnnounceTrackerClientFactory.getBatchJitterMs();
+    AnnounceException failure = null;
+    for (int from = 0; from < torrents.size(); from += batchSize) {
+      if (from > 0 && jitterMs > 0) {
+        try {
+          Thread.sleep(myRandom.nextInt(jitterMs));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new AnnounceException("Announce to " + getTrackerURI() + " was interrupted, " +
+                  (torrents.size() - from) + " torrents were not announced", e);
+        }
+      }
+      try {
+        sendBatch(event, inhibitEvent, torrents.subList(from, Math.min(from + batchSize, torrents.size())), addresses, now);
+      } catch (AnnounceException e) {
+        LOG.debug("Announce batch to " + getTrackerURI() + " failed, sending the rest", e);
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void sendBatch(AnnounceRequestMessage.RequestEvent event,
+                         boolean inhibitEvent,
+                         List<? extends AnnounceableInformation> torrents,
+                         List<Peer> addresses,
+                         long now) throws AnnounceException, ConnectException {
+    final long startNanos = System.nanoTime();
+    try {
+      super.multiAnnounce(event, inhibitEvent, torrents, addresses);
+    } catch (AnnounceException e) {
+      FAILED_BATCHES.inc();
+      throw e;
+    } catch (ConnectException e) {
+      FAILED_BATCHES.inc();
+      throw e;
+    }
+    ANNOUNCE_TIME.observeNanos(System.nanoTime() - startNanos);
+    BATCHES.inc();
+    ANNOUNCED_TORRENTS.add(torrents.size());
+    if (event == AnnounceRequestMessage.RequestEvent.NONE) {
+      myAnnouncePolicy.announced(torrents, now);
+    }
+    for (AnnounceableInformation torrent : torrents) {
+      if (event == AnnounceRequestMessage.RequestEvent.STOPPED) {
+        myAnnouncedLeft.remove(torrent.getHexInfoHash());
+        myAnnouncePolicy.forget(torrent.getHexInfoHash());
+      } else {
+        myAnnouncedLeft.put(torrent.getHexInfoHash(), torrent.getLeft());
+      }
+    }
+  }
+
+  private boolean isKeepAliveAvailable() {
+    return myKeepAliveEnabled && myKeepAliveSupported;
+  }
+
+  /**
+   * sends keep-alive announce for specified torrents
+   *
+   * @return info hashes of torrents which are unknown for tracker
+   * @throws IOException if request failed or tracker doesn't support keep-alive announces
+   */
+  @NotNull
+  protected Collection<String> sendKeepAlive(@NotNull Collection<String> hexInfoHashes,
+                                             @NotNull List<Peer> addresses) throws IOException {
+    URL url = new URL(getTrackerURI().toString() + (getTrackerURI().getQuery() == null ? "?" : "&") + KeepAliveAnnounce.KEEP_ALIVE_PARAM + "=true");
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(CONNECTION_TIMEOUT_MS);
+    connection.setReadTimeout(CONNECTION_TIMEOUT_MS);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "text/plain; charset=" + KeepAliveAnnounce.CHARSET);
+
+    Writer writer = null;
+    BufferedReader reader = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), KeepAliveAnnounce.CHARSET));
+      for (Peer address : addresses) {
+        writer.write(KeepAliveAnnounce.PEER_PREFIX + address.getIp() + " " + address.getPort() + "\n");
+      }
+      for (String hash : hexInfoHashes) {
+        writer.write(KeepAliveAnnounce.TORRENT_PREFIX + hash + "\n");
+      }
+      writer.flush();
+
+      final int responseCode = connection.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_BAD_REQUEST) {
+        LOG.info("Tracker " + getTrackerURI() + " doesn't support keep-alive announces. Regular announces will be used");
+        myKeepAliveSupported = false;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response code " + responseCode + " for keep-alive announce");
+      }
+
+      List<String> unknownHashes = new ArrayList<String>();
+      reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), KeepAliveAnnounce.CHARSET));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty()) {
+          unknownHashes.add(line);
+        }
+      }
+      return unknownHashes;
+    } finally {
+      FileUtil.close(writer);
+      FileUtil.close(reader);
+      connection.disconnect();
+    }
+  }
+}
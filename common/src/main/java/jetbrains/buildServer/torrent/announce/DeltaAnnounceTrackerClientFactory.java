@@ -0,0 +1,60 @@
+
+
+package jetbrains.buildServer.torrent.announce;
+
+import com.turn.ttorrent.client.announce.TrackerClient;
+import com.turn.ttorrent.client.announce.TrackerClientFactory;
+import com.turn.ttorrent.client.announce.TrackerClientFactoryImpl;
+import com.turn.ttorrent.common.Peer;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.torrent.TorrentConfiguration;
+
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.UnknownServiceException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates {@link DeltaAnnounceTrackerClient} for http trackers, other protocols are delegated to library factory
+ */
+public class DeltaAnnounceTrackerClientFactory implements TrackerClientFactory {
+
+  public static final String KEEP_ALIVE_ENABLED = "teamcity.torrent.announce.keepAlive.enabled";
+  public static final String BATCH_SIZE = "teamcity.torrent.announce.batchSize";
+  public static final int DEFAULT_BATCH_SIZE = 200;
+  public static final String BATCH_JITTER_MS = "teamcity.torrent.announce.batchJitterMs";
+  public static final int DEFAULT_BATCH_JITTER_MS = 500;
+
+  private final TrackerClientFactory myDelegate = new TrackerClientFactoryImpl();
+  // shared by announce policies of all created clients, so changed tracker setting is applied to them
+  private final AtomicInteger myTrackerExpireTimeoutSec = new AtomicInteger(TorrentConfiguration.DEFAULT_TRACKER_TORRENT_EXPIRE_TIMEOUT);
+
+  @Override
+  public TrackerClient createTrackerClient(List<Peer> peers, URI tracker) throws UnknownHostException, UnknownServiceException {
+    String scheme = tracker.getScheme();
+    if ("http".equals(scheme) || "https".equals(scheme)) {
+      return new DeltaAnnounceTrackerClient(peers, tracker, isKeepAliveEnabled(), AdaptiveAnnouncePolicy.fromProperties(myTrackerExpireTimeoutSec));
+    }
+    return myDelegate.createTrackerClient(peers, tracker);
+  }
+
+  /**
+   * @param trackerExpireTimeoutSec expire timeout of the tracker, idle seeds are announced at least twice during it
+   */
+  public void setTrackerExpireTimeoutSec(int trackerExpireTimeoutSec) {
+    myTrackerExpireTimeoutSec.set(trackerExpireTimeoutSec);
+  }
+
+  public static int getBatchSize() {
+    return Math.max(1, TeamCityProperties.getInteger(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+  }
+
+  public static int getBatchJitterMs() {
+    return Math.max(0, TeamCityProperties.getInteger(BATCH_JITTER_MS, DEFAULT_BATCH_JITTER_MS));
+  }
+
+  public static boolean isKeepAliveEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(KEEP_ALIVE_ENABLED);
+  }
+}
@@ -0,0 +1,23 @@
+
+
+package jetbrains.buildServer.torrent.announce;
+
+/**
+ * Wire format of keep-alive announces.
+ * <p>
+ * Keep-alive announce is a POST request to the announce url with {@link #KEEP_ALIVE_PARAM} query parameter.
+ * Body of the request contains lines {@link #PEER_PREFIX}ip port for each address of the peer
+ * and lines {@link #TORRENT_PREFIX}hexInfoHash for each torrent which state was not changed since previous full announce.
+ * Tracker refreshes known peers and responds with list of info hashes (one per line) which are unknown for it,
+ * such torrents must be announced in regular way.
+ */
+public final class KeepAliveAnnounce {
+
+  public static final String KEEP_ALIVE_PARAM = "keepalive";
+  public static final String PEER_PREFIX = "P ";
+  public static final String TORRENT_PREFIX = "T ";
+  public static final String CHARSET = "UTF-8";
+
+  private KeepAliveAnnounce() {
+  }
+}
@@ -0,0 +1,170 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.util.executors.TeamCityThreadPoolExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+
+/**
+ * Thread pool which size is adjusted between min and max size depending on queue depth.
+ * <p>
+ * {@link #adjustPoolSize()} must be called periodically: pool grows by one thread while queue is deeper than
+ * {@link #QUEUED_TASKS_PER_THREAD} tasks per thread and shrinks by one thread when queue is empty and some threads are idle.
+ * When queue is full only threads of other adaptive pools (e.g. workers submitting pieces for validation) wait for
+ * free space up to back-pressure timeout. Other submitters, including network threads of the bittorrent client,
+ * and threads of this pool are never blocked: the task is rejected immediately and counted in rejected tasks counter.
+ * Time spent by tasks in the queue is observed in the histogram.
+ */
+public class AdaptiveThreadPoolExecutor extends TeamCityThreadPoolExecutor {
+
+  private final static Logger LOG = Logger.getInstance(AdaptiveThreadPoolExecutor.class.getName());
+
+  static final int QUEUED_TASKS_PER_THREAD = 2;
+
+  // waiting submitter rechecks shutdown of the pool with this interval
+  private static final long SHUTDOWN_CHECK_INTERVAL_MS = 100;
+
+  // pool which thread is the current thread, null for threads of other executors
+  private static final ThreadLocal<AdaptiveThreadPoolExecutor> CURRENT_POOL = new ThreadLocal<AdaptiveThreadPoolExecutor>();
+
+  @NotNull
+  private final String myName;
+  private final int myMinPoolSize;
+  private final int myMaxPoolSize;
+  @NotNull
+  private final MetricsRegistry.Histogram myQueueWaitTime;
+  @NotNull
+  private final MetricsRegistry.Counter myRejectedTasks;
+
+  public AdaptiveThreadPoolExecutor(@NotNull String name,
+                                    int minPoolSize,
+                                    int maxPoolSize,
+                                    int queueCapacity,
+                                    long backPressureTimeoutMs,
+                                    @NotNull MetricsRegistry.Histogram queueWaitTime,
+                                    @NotNull MetricsRegistry.Counter rejectedTasks) {
+    super(minPoolSize, minPoolSize,
+            60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(queueCapacity),
+            new NamedThreadFactory(name));
+    myName = name;
+    myMinPoolSize = minPoolSize;
+    myMaxPoolSize = Math.max(minPoolSize, maxPoolSize);
+    myQueueWaitTime = queueWaitTime;
+    myRejectedTasks = rejectedTasks;
+    final ThreadFactory threadFactory = getThreadFactory();
+    setThreadFactory(new ThreadFactory() {
+      public Thread newThread(@NotNull final Runnable r) {
+        return threadFactory.newThread(new Runnable() {
+          public void run() {
+            CURRENT_POOL.set(AdaptiveThreadPoolExecutor.this);
+            r.run();
+          }
+        });
+      }
+    });
+    allowCoreThreadTimeOut(true);
+    setRejectedExecutionHandler(new BackPressurePolicy(backPressureTimeoutMs));
+  }
+  @Override
+  public void execute(@NotNull Runnable command) {
+    super.execute(new QueuedTask(command));
+  }
+
+  /**
+   * grows or shrinks the pool by one thread according to current queue depth
+   */
+  public void adjustPoolSize() {
+    if (isShutdown()) return;
+    final int queued = getQueue().size();
+    final int current = getMaximumPoolSize();
+    if (queued > current * QUEUED_TASKS_PER_THREAD && current < myMaxPoolSize) {
+      // maximum must be increased first, core size can't be greater than maximum
+      setMaximumPoolSize(current + 1);
+      setCorePoolSize(current + 1);
+      LOG.debug(String.format("%s: %d tasks in queue, pool size increased to %d", myName, queued, current + 1));
+    } else if (queued == 0 && getActiveCount() < current && current > myMinPoolSize) {
+      setCorePoolSize(current - 1);
+      setMaximumPoolSize(current - 1);
+      LOG.debug(String.format("%s: pool is idle, pool size decreased to %d", myName, current - 1));
+    }
+  }
+
+  public int getMinPoolSize() {
+    return myMinPoolSize;
+  }
+
+  public int getMaxAllowedPoolSize() {
+    return myMaxPoolSize;
+  }
+
+  private class QueuedTask implements Runnable {
+    @NotNull
+    private final Runnable myDelegate;
+    private final long myQueuedAt;
+
+    QueuedTask(@NotNull Runnable delegate) {
+      myDelegate = delegate;
+      myQueuedAt = System.nanoTime();
+    }
+
+    public void run() {
+      myQueueWaitTime.observeNanos(System.nanoTime() - myQueuedAt);
+      myDelegate.run();
+    }
+
+    @Override
+    public String toString() {
+      return myDelegate.toString();
+    }
+  }
+
+  private class BackPressurePolicy implements RejectedExecutionHandler {
+    private final long myTimeoutMs;
+
+    BackPressurePolicy(long timeoutMs) {
+      myTimeoutMs = timeoutMs;
+    }
+
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException(myName + " is shut down");
+      }
+      final AdaptiveThreadPoolExecutor submitterPool = CURRENT_POOL.get();
+      if (submitterPool == null || submitterPool == AdaptiveThreadPoolExecutor.this) {
+        // network threads must not wait and threads of this pool would wait for themselves
+        myRejectedTasks.inc();
+        throw new RejectedExecutionException(myName + " queue is full");
+      }
+      if (offer(r, executor)) return;
+      myRejectedTasks.inc();
+      throw new RejectedExecutionException(String.format("%s queue is full for more than %d ms", myName, myTimeoutMs));
+    }
+
+    private boolean offer(@NotNull Runnable r, @NotNull ThreadPoolExecutor executor) {
+      final long deadline = System.currentTimeMillis() + myTimeoutMs;
+      try {
+        while (!executor.isShutdown()) {
+          final long timeout = Math.min(SHUTDOWN_CHECK_INTERVAL_MS, deadline - System.currentTimeMillis());
+          if (timeout <= 0) return false;
+          if (executor.getQueue().offer(r, timeout, TimeUnit.MILLISECONDS)) {
+            // pool could be terminated while the task was added, in this case the task is never run
+            if (executor.isShutdown() && executor.getQueue().remove(r)) {
+              throw new RejectedExecutionException(myName + " is shut down");
+            }
+            return true;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      throw new RejectedExecutionException(myName + " is shut down");
+    }
+  }
+}
@@ -0,0 +1,140 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits combined connections budget (sum of configured incoming and outgoing limits) between incoming and outgoing
+ * connections according to swarms demand.
+ * <p>
+ * Swarm is active if torrent data was uploaded or downloaded since previous update. Uploading swarms need incoming connections
+ * of leechers, downloading swarms need outgoing connections to seeders, each active swarm demands the same number of connections.
+ * Started downloads demand outgoing connections before they receive any data, so they don't wait for the next update.
+ * If demand exceeds the budget it is scaled down proportionally, connections of idle swarms are not reserved,
+ * so budget is reclaimed when swarms become idle and given to the busy direction, which can get more connections
+ * than configured for it. Each direction always keeps minimum number of connections for swarms which become active.
+ */
+public class ConnectionBudgetPolicy {
+
+  private final int myConnectionsPerSwarm;
+  private final int myMinConnections;
+  private final Map<String, Transfer> myLastTransfers = new HashMap<String, Transfer>();
+  private final Set<String> myStartedDownloads = new HashSet<String>();
+
+  /**
+   * @param connectionsPerSwarm connections demanded by one active swarm
+   * @param minConnections      min connections in each direction
+   */
+  public ConnectionBudgetPolicy(int connectionsPerSwarm, int minConnections) {
+    myConnectionsPerSwarm = connectionsPerSwarm;
+    myMinConnections = minConnections;
+  }
+
+  /**
+   * reports download which demands outgoing connections until it is finished or its data is transferred
+   */
+  public synchronized void downloadStarted(@NotNull String hexInfoHash) {
+    myStartedDownloads.add(hexInfoHash);
+  }
+
+  public synchronized void downloadFinished(@NotNull String hexInfoHash) {
+    myStartedDownloads.remove(hexInfoHash);
+  }
+
+  /**
+   * @param maxIncoming configured max number of incoming connections
+   * @param maxOutgoing configured max number of outgoing connections
+   * @param transfers   total uploaded and downloaded bytes of loaded torrents by info hash
+   */
+  @NotNull
+  public synchronized Budget update(int maxIncoming, int maxOutgoing, @NotNull Map<String, Transfer> transfers) {
+    int uploadingSwarms = 0;
+    int downloadingSwarms = 0;
+    for (Map.Entry<String, Transfer> entry : transfers.entrySet()) {
+      final Transfer previous = myLastTransfers.get(entry.getKey());
+      final Transfer current = entry.getValue();
+      // just loaded torrent is active if it has transferred any data
+      final long previousUploaded = previous == null ? 0 : previous.myUploaded;
+      final long previousDownloaded = previous == null ? 0 : previous.myDownloaded;
+      if (current.myUploaded > previousUploaded) uploadingSwarms++;
+      if (current.myDownloaded > previousDownloaded || myStartedDownloads.contains(entry.getKey())) downloadingSwarms++;
+      // download which has received data is tracked by its transfers
+      if (current.myDownloaded > 0) myStartedDownloads.remove(entry.getKey());
+    }
+    for (String hash : myStartedDownloads) {
+      if (!transfers.containsKey(hash)) downloadingSwarms++;
+    }
+    myLastTransfers.clear();
+    myLastTransfers.putAll(transfers);
+
+    final long incomingDemand = (long) uploadingSwarms * myConnectionsPerSwarm;
+    final long outgoingDemand = (long) downloadingSwarms * myConnectionsPerSwarm;
+    final long demand = incomingDemand + outgoingDemand;
+    if (demand == 0) {
+      // nothing is transferred: keep configured limits, so any swarm can start
+      return new Budget(maxIncoming, maxOutgoing);
+    }
+    final int totalBudget = maxIncoming + maxOutgoing;
+    final int minIncoming = Math.min(myMinConnections, maxIncoming);
+    final int minOutgoing = Math.min(myMinConnections, maxOutgoing);
+    final double scale = demand > totalBudget ? (double) totalBudget / demand : 1;
+    int incoming = Math.max(minIncoming, (int) (incomingDemand * scale));
+    int outgoing = Math.max(minOutgoing, (int) (outgoingDemand * scale));
+    // unused budget is given to the direction with higher demand, so hot swarms can grow
+    final int spare = totalBudget - incoming - outgoing;
+    if (spare > 0) {
+      if (incomingDemand >= outgoingDemand) {
+        incoming += spare;
+      } else {
+        outgoing += spare;
+      }
+    } else if (spare < 0) {
+      // min connections of the other direction were taken from the budget
+      if (incoming > outgoing) {
+        incoming = Math.max(minIncoming, incoming + spare);
+      } else {
+        outgoing = Math.max(minOutgoing, outgoing + spare);
+      }
+    }
+    return new Budget(incoming, outgoing);
+  }
+
+  public static class Transfer {
+    private final long myUploaded;
+    private final long myDownloaded;
+
+    public Transfer(long uploaded, long downloaded) {
+      myUploaded = uploaded;
+      myDownloaded = downloaded;
+    }
+  }
+
+  public static class Budget {
+    private final int myIncoming;
+    private final int myOutgoing;
+
+    Budget(int incoming, int outgoing) {
+      myIncoming = incoming;
+      myOutgoing = outgoing;
+    }
+
+    public int getIncoming() {
+      return myIncoming;
+    }
+
+    public int getOutgoing() {
+      return myOutgoing;
+    }
+
+    @Override
+    public String toString() {
+      return "incoming: " + myIncoming + ", outgoing: " + myOutgoing;
+    }
+  }
+}
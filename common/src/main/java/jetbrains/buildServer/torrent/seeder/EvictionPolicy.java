@@ -0,0 +1,34 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides which registered torrent is removed from {@link TorrentFilesDB} when the limit of seeded torrents is exceeded.
+ * Torrents are identified by path of source file as it is stored in the database.
+ * <p>
+ * Methods are invoked under lock of the database, so implementations don't need to be thread safe.
+ */
+public interface EvictionPolicy {
+
+  /**
+   * torrent is registered or registered again
+   */
+  void onAdded(@NotNull String key);
+
+  /**
+   * torrent is requested by peers
+   */
+  void onAccessed(@NotNull String key);
+
+  void onRemoved(@NotNull String key);
+
+  /**
+   * @param excluded key which must not be evicted, e.g. just registered torrent
+   * @return key of torrent which should be evicted first or null if there are no candidates
+   */
+  @Nullable
+  String selectVictim(@Nullable String excluded);
+}
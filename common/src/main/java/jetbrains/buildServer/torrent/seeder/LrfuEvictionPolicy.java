@@ -0,0 +1,100 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evicts torrent with the lowest popularity score, which combines frequency and recency of requests (LRFU).
+ * <p>
+ * Each registration or request adds 1 to the score of torrent and the score halves every half-life period,
+ * so artifact downloaded by many builds during the last hours outlives artifact which was just registered once,
+ * while popularity of artifacts which are not downloaded anymore fades away. Ties are broken by the last access time.
+ * <p>
+ * Scores are kept in memory only and aren't saved with torrents database: after restart torrents loaded from
+ * the database get score 1 in order of their records, so popularity is accumulated again from requests.
+ */
+public class LrfuEvictionPolicy implements EvictionPolicy {
+
+  private final long myHalfLifeMs;
+  private final Map<String, Score> myScores = new HashMap<String, Score>();
+
+  public LrfuEvictionPolicy(long halfLifeMs) {
+    myHalfLifeMs = Math.max(1, halfLifeMs);
+  }
+
+  public void onAdded(@NotNull String key) {
+    onAdded(key, System.currentTimeMillis());
+  }
+
+  void onAdded(@NotNull String key, long now) {
+    final Score score = myScores.get(key);
+    if (score == null) {
+      myScores.put(key, new Score(1, now));
+    } else {
+      score.access(now);
+    }
+  }
+
+  public void onAccessed(@NotNull String key) {
+    onAccessed(key, System.currentTimeMillis());
+  }
+
+  void onAccessed(@NotNull String key, long now) {
+    final Score score = myScores.get(key);
+    if (score != null) {
+      score.access(now);
+    }
+  }
+
+  public void onRemoved(@NotNull String key) {
+    myScores.remove(key);
+  }
+
+  @Nullable
+  public String selectVictim(@Nullable String excluded) {
+    return selectVictim(excluded, System.currentTimeMillis());
+  }
+
+  @Nullable
+  String selectVictim(@Nullable String excluded, long now) {
+    String victim = null;
+    double victimScore = 0;
+    long victimLastAccess = 0;
+    for (Map.Entry<String, Score> entry : myScores.entrySet()) {
+      if (entry.getKey().equals(excluded)) continue;
+      final Score score = entry.getValue();
+      final double value = score.valueAt(now);
+      if (victim == null || value < victimScore || value == victimScore && score.myLastAccess < victimLastAccess) {
+        victim = entry.getKey();
+        victimScore = value;
+        victimLastAccess = score.myLastAccess;
+      }
+    }
+    return victim;
+  }
+
+  private class Score {
+    private double myValue;
+    private long myLastAccess;
+
+    Score(double value, long lastAccess) {
+      myValue = value;
+      myLastAccess = lastAccess;
+    }
+
+    double valueAt(long now) {
+      final long elapsed = Math.max(0, now - myLastAccess);
+      return myValue * Math.pow(0.5, (double) elapsed / myHalfLifeMs);
+    }
+
+    void access(long now) {
+      myValue = valueAt(now) + 1;
+      myLastAccess = Math.max(myLastAccess, now);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts torrent which was not registered or requested for the longest time
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+  private final LinkedHashMap<String, Boolean> myKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+  public void onAdded(@NotNull String key) {
+    myKeys.put(key, Boolean.TRUE);
+  }
+
+  public void onAccessed(@NotNull String key) {
+    myKeys.get(key);
+  }
+
+  public void onRemoved(@NotNull String key) {
+    myKeys.remove(key);
+  }
+
+  @Nullable
+  public String selectVictim(@Nullable String excluded) {
+    for (String key : myKeys.keySet()) {
+      if (!key.equals(excluded)) return key;
+    }
+    return null;
+  }
+}
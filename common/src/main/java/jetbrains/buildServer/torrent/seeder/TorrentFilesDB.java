@@ -4,31 +4,45 @@ package jetbrains.buildServer.torrent.seeder;
 
 import com.intellij.openapi.diagnostic.Logger;
 import jetbrains.buildServer.util.FileUtil;
-import jetbrains.buildServer.util.RecentEntriesCache;
 import jetbrains.buildServer.util.StringUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
 
 public class TorrentFilesDB {
   private final static Logger LOG = Logger.getInstance(TorrentsSeeder.class.getName());
 
   private final static String SEPARATOR = " || ";
   public static final String ENCODING = "UTF-8";
-  private final AtomicReference<Map<FileInfo, FileInfo>> myFile2TorrentMap = new AtomicReference<Map<FileInfo, FileInfo>>();
+  private final Map<FileInfo, FileInfo> myFile2TorrentMap = new HashMap<FileInfo, FileInfo>();
+  @NotNull
+  private final EvictionPolicy myEvictionPolicy;
+  // sizes of source files by path, used to limit total size of seeded files
+  private final Map<String, Long> myFileSizes = new HashMap<String, Long>();
+  private long mySeededBytes;
+  private int myMaxTorrents;
+  private long myMaxSeededBytes; // no limit by default
   private final File myTorrentsDbFile;
   private final PathConverter myPathConverter;
   private final CacheListener myCacheListener;
   private volatile boolean myIsDBChanged = false;
 
   public TorrentFilesDB(@NotNull File torrentsDbPath, int maxTorrents, @Nullable PathConverter pathConverter, @Nullable CacheListener cacheListener) {
+    this(torrentsDbPath, maxTorrents, pathConverter, cacheListener, new LruEvictionPolicy());
+  }
+
+  public TorrentFilesDB(@NotNull File torrentsDbPath,
+                        int maxTorrents,
+                        @Nullable PathConverter pathConverter,
+                        @Nullable CacheListener cacheListener,
+                        @NotNull EvictionPolicy evictionPolicy) {
     myTorrentsDbFile = torrentsDbPath;
     myPathConverter = pathConverter == null ? new SimplePathConverter() : pathConverter;
     myCacheListener = cacheListener;
-    myFile2TorrentMap.set(createCache(maxTorrents));
+    myEvictionPolicy = evictionPolicy;
+    myMaxTorrents = maxTorrents;
     try {
       loadDb();
     } catch (IOException e) {
@@ -37,25 +51,60 @@ public class TorrentFilesDB {
   }
 
   public void setMaxTorrents(int maxTorrents) {
+    final List<Map.Entry<File, File>> removed;
     synchronized (myFile2TorrentMap) {
-      Map<FileInfo, FileInfo> curCache = myFile2TorrentMap.get();
-      Map<FileInfo, FileInfo> newCache = createCache(maxTorrents);
-      for (FileInfo srcFile: getSortedKeys()) {
-        final FileInfo torrentFile = curCache.get(srcFile);
-        if (torrentFile == null) continue;
-        newCache.put(srcFile, torrentFile);
-      }
+      myMaxTorrents = maxTorrents;
+      removed = evictExceeding(null);
+    }
+    notifyOnRemove(removed);
+  }
+
+  /**
+   * @param maxSeededBytes limit of total size of source files, torrents are evicted until it is respected, 0 means no limit
+   */
+  public void setMaxSeededBytes(long maxSeededBytes) {
+    final List<Map.Entry<File, File>> removed;
+    synchronized (myFile2TorrentMap) {
+      myMaxSeededBytes = maxSeededBytes;
+      removed = evictExceeding(null);
+    }
+    notifyOnRemove(removed);
+  }
 
-      myFile2TorrentMap.set(newCache);
+  /**
+   * @return total size of registered source files, as it was at the moment of registration
+   */
+  public long getSeededBytes() {
+    synchronized (myFile2TorrentMap) {
+      return mySeededBytes;
     }
   }
 
   public void addFileAndTorrent(@NotNull File srcFile, @NotNull File torrentFile) {
     String srcPath = myPathConverter.convertToPath(srcFile);
     String torrentPath = myPathConverter.convertToPath(torrentFile);
+    final long size = srcFile.length();
+    final List<Map.Entry<File, File>> removed;
     synchronized (myFile2TorrentMap) {
       myIsDBChanged = true;
-      myFile2TorrentMap.get().put(new FileInfo(srcPath), new FileInfo(torrentPath));
+      myFile2TorrentMap.put(new FileInfo(srcPath), new FileInfo(torrentPath));
+      final Long oldSize = myFileSizes.put(srcPath, size);
+      mySeededBytes += size - (oldSize == null ? 0 : oldSize);
+      myEvictionPolicy.onAdded(srcPath);
+      removed = evictExceeding(srcPath);
+    }
+    notifyOnRemove(removed);
+  }
+
+  /**
+   * reports that torrent of the source file is requested by peers, so eviction policy can keep popular torrents
+   */
+  public void recordAccess(@NotNull File srcFile) {
+    final String srcPath = myPathConverter.convertToPath(srcFile);
+    synchronized (myFile2TorrentMap) {
+      if (myFile2TorrentMap.containsKey(new FileInfo(srcPath))) {
+        myEvictionPolicy.onAccessed(srcPath);
+      }
     }
   }
 
@@ -67,8 +116,7 @@ public class TorrentFilesDB {
 
     Map<FileInfo, FileInfo> cacheCopy;
     synchronized (myFile2TorrentMap) {
-      final Map<FileInfo, FileInfo> cache = myFile2TorrentMap.get();
-      cacheCopy = new HashMap<FileInfo, FileInfo>(cache);
+      cacheCopy = new HashMap<FileInfo, FileInfo>(myFile2TorrentMap);
     }
 
     for (Map.Entry<FileInfo, FileInfo> entry : cacheCopy.entrySet()) {
@@ -84,11 +132,12 @@ public class TorrentFilesDB {
     }
 
     synchronized (myFile2TorrentMap) {
-      final Map<FileInfo, FileInfo> cache = myFile2TorrentMap.get();
       if (!toRemove.isEmpty()) {
         myIsDBChanged = true;
       }
-      cache.keySet().removeAll(toRemove.keySet());
+      for (FileInfo srcFile : toRemove.keySet()) {
+        removeEntry(srcFile.myPath);
+      }
     }
 
 
@@ -104,7 +153,7 @@ public class TorrentFilesDB {
     Map<File, File> res = new HashMap<File, File>();
 
     synchronized (myFile2TorrentMap) {
-      for (Map.Entry<FileInfo, FileInfo> entry : myFile2TorrentMap.get().entrySet()) {
+      for (Map.Entry<FileInfo, FileInfo> entry : myFile2TorrentMap.entrySet()) {
         File src = entry.getKey().getFile();
         File torrent = entry.getValue().getFile();
 
@@ -134,7 +183,7 @@ public class TorrentFilesDB {
 
       synchronized (myFile2TorrentMap) {
         for (FileInfo srcFile : sorted) {
-          final FileInfo torrentFile = myFile2TorrentMap.get().get(srcFile);
+          final FileInfo torrentFile = myFile2TorrentMap.get(srcFile);
           if (torrentFile == null) continue;
 
           String srcPath = srcFile.myPath;
@@ -156,7 +205,7 @@ public class TorrentFilesDB {
   private List<FileInfo> getSortedKeys() {
     List<FileInfo> sorted;
     synchronized (myFile2TorrentMap) {
-      sorted = new ArrayList<FileInfo>(myFile2TorrentMap.get().keySet());
+      sorted = new ArrayList<FileInfo>(myFile2TorrentMap.keySet());
     }
     // cache lastModifiedTime on first read to avoid IllegalArgumentException: Comparison method violates its general contract (TW-44581)
     final Map<FileInfo, Long> lastModifiedCache = new HashMap<FileInfo, Long>();
@@ -209,7 +258,7 @@ public class TorrentFilesDB {
     String path = myPathConverter.convertToPath(srcFile);
     FileInfo removedTorrent;
     synchronized (myFile2TorrentMap) {
-      removedTorrent = myFile2TorrentMap.get().remove(new FileInfo(path));
+      removedTorrent = removeEntry(path);
       if (removedTorrent != null) {
         myIsDBChanged = true;
       }
@@ -268,17 +317,50 @@ public class TorrentFilesDB {
     void onRemove(@NotNull Map.Entry<File, File> removedEntry);
   }
 
+  /**
+   * removes entry of the source file together with its size and state of eviction policy, must be invoked under the lock
+   *
+   * @return torrent file of removed entry or null if source file was not registered
+   */
+  @Nullable
+  private FileInfo removeEntry(@NotNull String srcPath) {
+    final FileInfo torrentFile = myFile2TorrentMap.remove(new FileInfo(srcPath));
+    myEvictionPolicy.onRemoved(srcPath);
+    final Long size = myFileSizes.remove(srcPath);
+    if (size != null) {
+      mySeededBytes -= size;
+    }
+    return torrentFile;
+  }
+
+  private boolean isLimitExceeded() {
+    return myFile2TorrentMap.size() > myMaxTorrents || (myMaxSeededBytes > 0 && mySeededBytes > myMaxSeededBytes);
+  }
+
+  /**
+   * removes torrents chosen by eviction policy while any of the limits is exceeded, must be invoked under the lock
+   *
+   * @param protectedPath path of just registered source file which must be kept even if it alone exceeds the size limit
+   * @return removed entries, listener must be notified about them outside the lock
+   */
   @NotNull
-  private Map<FileInfo, FileInfo> createCache(final int maxTorrents) {
-    return new LinkedHashMap<FileInfo, FileInfo>(maxTorrents, 0.8f, true) {
-      @Override
-      protected boolean removeEldestEntry(final Map.Entry<FileInfo, FileInfo> eldest) {
-        boolean remove = size() > maxTorrents;
-        if (!remove) return false;
-        notifyOnRemove(new SimpleEntry<File, File>(eldest.getKey().getFile(), eldest.getValue().getFile()));
-        return true;
-      }
-    };
+  private List<Map.Entry<File, File>> evictExceeding(@Nullable String protectedPath) {
+    final List<Map.Entry<File, File>> removed = new ArrayList<Map.Entry<File, File>>();
+    while (isLimitExceeded()) {
+      final String victim = myEvictionPolicy.selectVictim(protectedPath);
+      if (victim == null) break;
+      final FileInfo torrentFile = removeEntry(victim);
+      if (torrentFile == null) continue;
+      myIsDBChanged = true;
+      removed.add(new AbstractMap.SimpleEntry<File, File>(myPathConverter.convertToFile(victim), torrentFile.getFile()));
+    }
+    return removed;
+  }
+
+  private void notifyOnRemove(@NotNull List<Map.Entry<File, File>> removed) {
+    for (Map.Entry<File, File> entry : removed) {
+      notifyOnRemove(entry);
+    }
   }
 
   private void notifyOnRemove(@NotNull Map.Entry<File, File> removed) {
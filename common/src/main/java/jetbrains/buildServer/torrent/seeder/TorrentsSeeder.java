@@ -4,16 +4,16 @@ package jetbrains.buildServer.torrent.seeder;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
-import com.turn.ttorrent.client.LoadedTorrent;
 import com.turn.ttorrent.client.SharedTorrent;
 import com.turn.ttorrent.client.announce.TrackerClientFactory;
 import com.turn.ttorrent.network.SelectorFactory;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.torrent.TorrentConfiguration;
+import jetbrains.buildServer.torrent.settings.SeedSettings;
 import jetbrains.buildServer.torrent.torrent.TeamcityTorrentClient;
-import jetbrains.buildServer.util.NamedThreadFactory;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.util.ThreadUtil;
-import jetbrains.buildServer.util.executors.TeamCityThreadPoolExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -21,7 +21,6 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -33,27 +32,75 @@ public class TorrentsSeeder {
   public static final int CHECK_TORRENTS_INTERVAL = TeamCityProperties.getInteger("teamcity.torrents.checkTorrentsIntervalSec", 5 * 60);
   public static final int CLOSING_STORAGE_INTERVAL = TeamCityProperties.getInteger("teamcity.torrents.closingStorageIntervalSec", 5 * 60);
   private static final int FLUSH_DB_INTERVAL = TeamCityProperties.getInteger("teamcity.torrents.flushDBIntervalSec", 3 * 60);
+  private static final boolean CONNECTIONS_BUDGET_ENABLED = TeamCityProperties.getBoolean("teamcity.torrent.connections.dynamicBudget.enabled");
+  private static final int CONNECTIONS_BUDGET_INTERVAL = TeamCityProperties.getInteger("teamcity.torrent.connections.dynamicBudget.intervalSec", 10);
+  private static final int CONNECTIONS_PER_SWARM = TeamCityProperties.getInteger("teamcity.torrent.connections.dynamicBudget.perSwarm", 5);
+  private static final int MIN_CONNECTIONS = TeamCityProperties.getInteger("teamcity.torrent.connections.dynamicBudget.min", 10);
+  private static final String EVICTION_POLICY = TeamCityProperties.getProperty("teamcity.torrent.seeder.eviction.policy", "lru");
+  private static final long EVICTION_HALF_LIFE_SEC = TeamCityProperties.getLong("teamcity.torrent.seeder.eviction.halfLifeSec", 6 * 60 * 60);
+  private static final int DEMAND_UPDATE_INTERVAL = TeamCityProperties.getInteger("teamcity.torrent.seeder.eviction.demandIntervalSec", 60);
+  // total size of seeded files, e.g. "50gb", empty value means no limit
+  private static final int ADJUST_POOLS_INTERVAL = TeamCityProperties.getInteger("teamcity.torrents.adjustPoolsIntervalSec", 1);
+  private static final int EXECUTOR_QUEUE_CAPACITY = TeamCityProperties.getInteger("teamcity.torrent.executor.queueCapacity", 2000);
+  private static final long BACK_PRESSURE_TIMEOUT_MS = TeamCityProperties.getLong("teamcity.torrent.executor.backPressureTimeoutMs", 10 * 1000);
+  // validation is cpu bound, so there is no sense to have more threads than cpu cores
+  private static final int VALIDATOR_MAX_POOL_SIZE = TeamCityProperties.getInteger("teamcity.torrent.validation.maxPoolSize",
+          Runtime.getRuntime().availableProcessors());
 
   public static final String PLUGIN_EXECUTOR_NAME = "Torrent plugin worker";
   public static final String PIECE_VALIDATOR_EXECUTOR_NAME = "Torrent plugin pieces validator";
 
+  private static final MetricsRegistry.Histogram DB_FLUSH_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_files_db_flush_seconds", "Duration of torrent files database flush", MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Histogram DB_CLEANUP_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_files_db_cleanup_seconds", "Duration of broken files cleanup in torrent files database", MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Histogram WORKER_QUEUE_WAIT_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_worker_queue_wait_seconds", "Time spent by tasks in bittorrent client worker queue", MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Histogram VALIDATOR_QUEUE_WAIT_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_validator_queue_wait_seconds", "Time spent by pieces in validation queue", MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Counter WORKER_REJECTED_TASKS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_worker_rejected_tasks_total", "Tasks rejected because bittorrent client worker queue was full");
+  private static final MetricsRegistry.Counter VALIDATOR_REJECTED_TASKS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_validator_rejected_tasks_total", "Pieces rejected because validation queue was full");
+  private static final MetricsRegistry.Counter PEERS_UPLOADED_BYTES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_peers_uploaded_bytes_total", "Bytes uploaded to peers by seeded and downloaded torrents");
+  private static final MetricsRegistry.Counter PEERS_DOWNLOADED_BYTES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_peers_downloaded_bytes_total", "Bytes downloaded from peers by seeded and downloaded torrents");
+
   @NotNull
   private final TeamcityTorrentClient myClient;
   @NotNull
-  private final TeamCityThreadPoolExecutor myWorkerExecutor;
+  private final AdaptiveThreadPoolExecutor myWorkerExecutor;
   @NotNull
-  private final TeamCityThreadPoolExecutor myValidatorExecutor;
+  private final AdaptiveThreadPoolExecutor myValidatorExecutor;
   private final TorrentFilesDB myTorrentFilesDB;
   private final ScheduledExecutorService myExecutor;
   private volatile boolean myRemoveExpiredTorrentFiles;
   private volatile boolean myWorking = false;
   private volatile int myMaxTorrentsToSeed; // no limit by default
+  private volatile long myMaxSeededBytes; // no limit by default
   @Nullable
   private volatile ScheduledFuture<?> myBrokenFilesCheckerFuture;
   @Nullable
   private volatile ScheduledFuture<?> myClosingStorageFuture;
   @Nullable
   private volatile ScheduledFuture<?> myDBFlushFuture;
+  @Nullable
+  private volatile ScheduledFuture<?> myAdjustPoolsFuture;
+  @Nullable
+  private volatile ScheduledFuture<?> myConnectionsBudgetFuture;
+  @Nullable
+  private volatile ScheduledFuture<?> myDemandUpdateFuture;
+  // source files of seeded torrents by info hash, used to report demand of torrents to the database
+  private final Map<String, File> mySrcFilesByHash = new ConcurrentHashMap<String, File>();
+  // info hashes of registered torrents which are not seeded because enough other peers seed them
+  private final Set<String> myDemoted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Map<String, Long> myLastUploaded = new HashMap<String, Long>();
+  private final Map<String, Long> myLastDownloaded = new HashMap<String, Long>();
+  @NotNull
+  private final ConnectionBudgetPolicy myConnectionBudgetPolicy = new ConnectionBudgetPolicy(CONNECTIONS_PER_SWARM, MIN_CONNECTIONS);
+  private volatile int myMaxIncomingConnections = TorrentConfiguration.DEFAULT_MAX_CONNECTIONS;
+  private volatile int myMaxOutgoingConnections = TorrentConfiguration.DEFAULT_MAX_CONNECTIONS;
 
   public TorrentsSeeder(@NotNull File torrentStorage,
                         int maxTorrentsToSeed,
@@ -64,26 +111,106 @@ public class TorrentsSeeder {
     myMaxTorrentsToSeed = maxTorrentsToSeed;
     myTorrentFilesDB = new TorrentFilesDB(new File(torrentStorage, "torrents.db"), maxTorrentsToSeed, pathConverter, new TorrentFilesDB.CacheListener() {
       public void onRemove(@NotNull Map.Entry<File, File> removedEntry) {
+        final Iterator<Map.Entry<String, File>> srcFiles = mySrcFilesByHash.entrySet().iterator();
+        while (srcFiles.hasNext()) {
+          final Map.Entry<String, File> srcFile = srcFiles.next();
+          if (srcFile.getValue().equals(removedEntry.getKey())) {
+            srcFiles.remove();
+            myDemoted.remove(srcFile.getKey());
+          }
+        }
         myClient.stopSeeding(removedEntry.getValue());
         if (myRemoveExpiredTorrentFiles) {
           FileUtil.delete(removedEntry.getValue());
         }
       }
-    });
+    }, createEvictionPolicy());
     int workerPoolSize = torrentConfiguration.getWorkerPoolSize();
-    myWorkerExecutor = new TeamCityThreadPoolExecutor(workerPoolSize, workerPoolSize,
-            60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>(2000),
-            new NamedThreadFactory(PLUGIN_EXECUTOR_NAME));
-    myWorkerExecutor.allowCoreThreadTimeOut(true);
+    myWorkerExecutor = new AdaptiveThreadPoolExecutor(PLUGIN_EXECUTOR_NAME,
+            workerPoolSize, workerPoolSize,
+            EXECUTOR_QUEUE_CAPACITY, BACK_PRESSURE_TIMEOUT_MS,
+            WORKER_QUEUE_WAIT_TIME, WORKER_REJECTED_TASKS);
     int pieceHashingPoolSize = torrentConfiguration.getPieceHashingPoolSize();
-    myValidatorExecutor = new TeamCityThreadPoolExecutor(pieceHashingPoolSize, pieceHashingPoolSize,
-            60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>(2000),
-            new NamedThreadFactory(PIECE_VALIDATOR_EXECUTOR_NAME));
-    myValidatorExecutor.allowCoreThreadTimeOut(true);
+    myValidatorExecutor = new AdaptiveThreadPoolExecutor(PIECE_VALIDATOR_EXECUTOR_NAME,
+            pieceHashingPoolSize, Math.max(pieceHashingPoolSize, VALIDATOR_MAX_POOL_SIZE),
+            EXECUTOR_QUEUE_CAPACITY, BACK_PRESSURE_TIMEOUT_MS,
+            VALIDATOR_QUEUE_WAIT_TIME, VALIDATOR_REJECTED_TASKS);
     myClient = new TeamcityTorrentClient(myWorkerExecutor, myValidatorExecutor, trackerClientFactory);
     myExecutor = executor;
+    if (CONNECTIONS_BUDGET_ENABLED) {
+      myClient.addDownloadListener(new TeamcityTorrentClient.DownloadListener() {
+        public void downloadStarted(@NotNull String hexInfoHash) {
+          myConnectionBudgetPolicy.downloadStarted(hexInfoHash);
+          scheduleConnectionsBudgetUpdate();
+        }
+
+        public void downloadFinished(@NotNull String hexInfoHash) {
+          myConnectionBudgetPolicy.downloadFinished(hexInfoHash);
+        }
+      });
+    }
+    // set after the client is created, because database notifies the listener about torrents evicted by the limit
+    setMaxSeededBytes(readMaxSeededBytes());
+    registerMetrics();
+  }
+
+  private void registerMetrics() {
+    final MetricsRegistry registry = MetricsRegistry.getInstance();
+    registry.gauge("teamcity_torrent_worker_pool_active_threads", "Active threads of bittorrent client worker pool", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myWorkerExecutor.getActiveCount();
+      }
+    });
+    registry.gauge("teamcity_torrent_worker_pool_max_threads", "Maximum threads of bittorrent client worker pool", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myWorkerExecutor.getMaximumPoolSize();
+      }
+    });
+    registry.gauge("teamcity_torrent_worker_queue_size", "Tasks waiting for bittorrent client worker pool", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myWorkerExecutor.getQueue().size();
+      }
+    });
+    registry.gauge("teamcity_torrent_validator_active_threads", "Active threads of pieces validator pool", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myValidatorExecutor.getActiveCount();
+      }
+    });
+    registry.gauge("teamcity_torrent_validator_pool_threads", "Current size of pieces validator pool", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myValidatorExecutor.getMaximumPoolSize();
+      }
+    });
+    registry.gauge("teamcity_torrent_validator_queue_size", "Pieces waiting for validation", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myValidatorExecutor.getQueue().size();
+      }
+    });
+    registry.gauge("teamcity_torrent_open_storages", "Seeded torrents with open files", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myClient.getStoragePool().getOpenStoragesCount();
+      }
+    });
+    registry.gauge("teamcity_torrent_demoted_torrents", "Registered torrents which are not seeded because other peers seed them", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myDemoted.size();
+      }
+    });
+    registry.gauge("teamcity_torrent_seeded_torrents", "Number of seeded torrents", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myClient.getNumberOfSeededTorrents();
+      }
+    });
+    registry.gauge("teamcity_torrent_seeded_files_bytes", "Total size of files registered for seeding", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myTorrentFilesDB.getSeededBytes();
+      }
+    });
+    registry.gauge("teamcity_torrent_seeded_files_max_bytes", "Limit of total size of files registered for seeding, 0 means no limit", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return myMaxSeededBytes;
+      }
+    });
   }
 
   /**
@@ -172,42 +299,227 @@ public class TorrentsSeeder {
     } catch (RejectedExecutionException e) {
       LOG.warnAndDebugDetails("Failed to schedule db flush task", e);
     }
+    try {
+      myAdjustPoolsFuture = myExecutor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            adjustPools();
+          } catch (Throwable e) {
+            LOG.warnAndDebugDetails("Unhandled exception in adjust pools task", e);
+          }
+        }
+      }, ADJUST_POOLS_INTERVAL, ADJUST_POOLS_INTERVAL, TimeUnit.SECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.warnAndDebugDetails("Failed to schedule adjust pools task", e);
+    }
+    try {
+      myDemandUpdateFuture = myExecutor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            updateTorrentsDemand();
+          } catch (Throwable e) {
+            LOG.warnAndDebugDetails("Unhandled exception in update torrents demand task", e);
+          }
+        }
+      }, DEMAND_UPDATE_INTERVAL, DEMAND_UPDATE_INTERVAL, TimeUnit.SECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.warnAndDebugDetails("Failed to schedule update torrents demand task", e);
+    }
+    if (CONNECTIONS_BUDGET_ENABLED) {
+      try {
+        myConnectionsBudgetFuture = myExecutor.scheduleWithFixedDelay(new Runnable() {
+          public void run() {
+            try {
+              updateConnectionsBudget();
+            } catch (Throwable e) {
+              LOG.warnAndDebugDetails("Unhandled exception in connections budget task", e);
+            }
+          }
+        }, CONNECTIONS_BUDGET_INTERVAL, CONNECTIONS_BUDGET_INTERVAL, TimeUnit.SECONDS);
+      } catch (RejectedExecutionException e) {
+        LOG.warnAndDebugDetails("Failed to schedule connections budget task", e);
+      }
+    }
   }
 
-  private void closePiecesStorage() {
-    List<LoadedTorrent> loadedTorrents = myClient.getLoadedTorrents();
-    for (LoadedTorrent loadedTorrent : loadedTorrents) {
-      try {
-        loadedTorrent.getPieceStorage().close();
-      } catch (IOException e) {
-        LOG.warnAndDebugDetails("Unable to close storage for torrent " + loadedTorrent, e);
+  /**
+   * @return eviction policy of seeded torrents according to settings, "lru" or "lrfu" (popularity based)
+   */
+  @NotNull
+  private static EvictionPolicy createEvictionPolicy() {
+    if ("lrfu".equalsIgnoreCase(EVICTION_POLICY)) {
+      return new LrfuEvictionPolicy(TimeUnit.SECONDS.toMillis(EVICTION_HALF_LIFE_SEC));
+    }
+    return new LruEvictionPolicy();
+  }
+
+  /**
+   * reads max total size of seeded files from {@link SeedSettings#MAX_SEEDED_SIZE} property
+   *
+   * @return max total size of seeded files, 0 means no limit
+   */
+  public static long readMaxSeededBytes() {
+    final String maxSeededSize = TeamCityProperties.getProperty(SeedSettings.MAX_SEEDED_SIZE, "");
+    if (StringUtil.isEmptyOrSpaces(maxSeededSize)) return 0;
+    try {
+      return Math.max(0, StringUtil.parseFileSize(maxSeededSize.trim()));
+    } catch (NumberFormatException e) {
+      LOG.warnAndDebugDetails("Incorrect value " + maxSeededSize + " of max seeded size, size is not limited", e);
+      return 0;
+    }
+  }
+
+  /**
+   * reports torrent as requested by peers, e.g. when tracker sees its leechers
+   */
+  public void recordDemand(@NotNull String hexInfoHash) {
+    final File srcFile = mySrcFilesByHash.get(hexInfoHash);
+    if (srcFile != null) {
+      myTorrentFilesDB.recordAccess(srcFile);
+    }
+  }
+
+  /**
+   * stops seeding of specified torrents and seeds again torrents which are not demoted anymore.
+   * Demoted torrents stay registered, so they are not evicted because of demotion and are seeded again without
+   * re-registration. Demoted torrents which were seeded again, e.g. on registration, are stopped again.
+   *
+   * @param hexInfoHashes info hashes of torrents which should not be seeded
+   */
+  public synchronized void setDemoted(@NotNull Collection<String> hexInfoHashes) {
+    final Set<String> demoted = new HashSet<String>(hexInfoHashes);
+    final Set<String> seeded = new HashSet<String>();
+    for (SharedTorrent torrent : myClient.getSharedTorrents()) {
+      seeded.add(torrent.getHexInfoHash());
+    }
+    final Map<File, File> torrentFiles = myTorrentFilesDB.getFileAndTorrentMap();
+    for (String hash : demoted) {
+      final File srcFile = mySrcFilesByHash.get(hash);
+      final File torrentFile = srcFile == null ? null : torrentFiles.get(srcFile);
+      // torrent which is not registered can't be seeded again later
+      if (torrentFile == null) continue;
+      myDemoted.add(hash);
+      if (seeded.contains(hash)) {
+        LOG.debug("Stop seeding demoted torrent " + torrentFile.getAbsolutePath());
+        myClient.stopSeeding(torrentFile);
       }
     }
+    for (String hash : new ArrayList<String>(myDemoted)) {
+      if (demoted.contains(hash)) continue;
+      myDemoted.remove(hash);
+      final File srcFile = mySrcFilesByHash.get(hash);
+      final File torrentFile = srcFile == null ? null : torrentFiles.get(srcFile);
+      if (torrentFile != null && !seeded.contains(hash)) {
+        seedTorrent(srcFile, torrentFile);
+      }
+    }
+  }
+
+  /**
+   * @return info hashes of registered torrents which are not seeded because other peers seed them
+   */
+  @NotNull
+  public Set<String> getDemoted() {
+    return new HashSet<String>(myDemoted);
+  }
+
+  /**
+   * reports torrents which uploaded data since previous update as requested and adds transferred since previous
+   * update bytes to transfer counters. Bytes transferred by a torrent after the last update before its unloading
+   * are not counted.
+   */
+  void updateTorrentsDemand() {
+    final Set<String> loaded = new HashSet<String>();
+    for (SharedTorrent torrent : myClient.getSharedTorrents()) {
+      final String hash = torrent.getHexInfoHash();
+      loaded.add(hash);
+      final long uploadedDelta = updateTransferred(myLastUploaded, hash, torrent.getUploaded());
+      if (uploadedDelta > 0) {
+        PEERS_UPLOADED_BYTES.add(uploadedDelta);
+        recordDemand(hash);
+      }
+      PEERS_DOWNLOADED_BYTES.add(updateTransferred(myLastDownloaded, hash, torrent.getDownloaded()));
+    }
+    myLastUploaded.keySet().retainAll(loaded);
+    myLastDownloaded.keySet().retainAll(loaded);
+  }
+
+  private static long updateTransferred(@NotNull Map<String, Long> lastTransferred, @NotNull String hash, long transferred) {
+    final Long previous = lastTransferred.put(hash, transferred);
+    return Math.max(0, transferred - (previous == null ? 0 : previous));
+  }
+
+  /**
+   * started download gets outgoing connections without waiting for the next periodic update
+   */
+  private void scheduleConnectionsBudgetUpdate() {
+    if (!myWorking) return;
+    try {
+      myExecutor.execute(new Runnable() {
+        public void run() {
+          try {
+            updateConnectionsBudget();
+          } catch (Throwable e) {
+            LOG.warnAndDebugDetails("Unhandled exception in connections budget task", e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.warnAndDebugDetails("Failed to schedule connections budget task", e);
+    }
+  }
+
+  /**
+   * splits configured incoming and outgoing connections together between directions according to active swarms
+   */
+  void updateConnectionsBudget() {
+    // periodic and download triggered updates must not apply budgets out of order
+    synchronized (myConnectionBudgetPolicy) {
+      final Map<String, ConnectionBudgetPolicy.Transfer> transfers = new HashMap<String, ConnectionBudgetPolicy.Transfer>();
+      for (SharedTorrent torrent : myClient.getSharedTorrents()) {
+        transfers.put(torrent.getHexInfoHash(), new ConnectionBudgetPolicy.Transfer(torrent.getUploaded(), torrent.getDownloaded()));
+      }
+      final ConnectionBudgetPolicy.Budget budget = myConnectionBudgetPolicy.update(myMaxIncomingConnections, myMaxOutgoingConnections, transfers);
+      LOG.debug("Connections budget: " + budget);
+      myClient.setMaxIncomingConnectionsCount(budget.getIncoming());
+      myClient.setMaxOutgoingConnectionsCount(budget.getOutgoing());
+    }
+  }
+
+  void adjustPools() {
+    myWorkerExecutor.adjustPoolSize();
+    myValidatorExecutor.adjustPoolSize();
+  }
+
+  /**
+   * closes files of seeded torrents which were not requested by peers during closing interval,
+   * files of recently used torrents are kept open by the storage pool
+   */
+  private void closePiecesStorage() {
+    myClient.getStoragePool().closeIdle(TimeUnit.SECONDS.toMillis(CLOSING_STORAGE_INTERVAL));
   }
 
   void checkForBrokenFiles() {
+    final long start = System.nanoTime();
     myTorrentFilesDB.cleanupBrokenFiles();
+    DB_CLEANUP_TIME.observeNanos(System.nanoTime() - start);
   }
 
   private void flushTorrentsDB() {
+    final long start = System.nanoTime();
     try {
       myTorrentFilesDB.flush();
+      DB_FLUSH_TIME.observeNanos(System.nanoTime() - start);
     } catch (IOException e) {
       LOG.warnAndDebugDetails("Failed to flush torrents database on disk", e);
     }
   }
 
   private void seedTorrent(@NotNull File srcFile, @NotNull File torrentFile) {
-    try {
-      if (isSeeding(torrentFile)) {
-        myClient.stopSeeding(torrentFile);
-      }
-      LOG.debug("Start seeding file: " + srcFile.getAbsolutePath());
-      myClient.seedTorrent(torrentFile, srcFile);
-    } catch (NoSuchAlgorithmException e) {
-      LOG.warnAndDebugDetails("Failed to start seeding torrent: " + torrentFile.getAbsolutePath(), e);
-    } catch (IOException e) {
-      LOG.warnAndDebugDetails("Failed to start seeding torrent: " + torrentFile.getAbsolutePath(), e);
+    LOG.debug("Start seeding file: " + srcFile.getAbsolutePath());
+    final String hash = myClient.seedTorrent(torrentFile, srcFile);
+    if (hash != null) {
+      mySrcFilesByHash.put(hash, srcFile);
     }
   }
 
@@ -233,6 +545,9 @@ public class TorrentsSeeder {
     cancelFutureIfExist(myBrokenFilesCheckerFuture);
     cancelFutureIfExist(myDBFlushFuture);
     cancelFutureIfExist(myClosingStorageFuture);
+    cancelFutureIfExist(myAdjustPoolsFuture);
+    cancelFutureIfExist(myConnectionsBudgetFuture);
+    cancelFutureIfExist(myDemandUpdateFuture);
     ThreadUtil.shutdownGracefully(myWorkerExecutor, "bittorrent client worker executor");
     ThreadUtil.shutdownGracefully(myValidatorExecutor, "bittorrent pieces validator executor");
   }
@@ -257,11 +572,18 @@ public class TorrentsSeeder {
     myClient.setCleanupTimeout(cleanupTimeoutSec);
   }
 
+  /**
+   * if dynamic connections budget is enabled, incoming and outgoing limits together form the budget
+   * which is redistributed between directions periodically and when a download starts, so busy direction
+   * can get connections of idle one
+   */
   public void setMaxIncomingConnectionsCount(int maxIncomingConnectionsCount) {
+    myMaxIncomingConnections = maxIncomingConnectionsCount;
     myClient.setMaxIncomingConnectionsCount(maxIncomingConnectionsCount);
   }
 
   public void setMaxOutgoingConnectionsCount(int maxOutgoingConnectionsCount) {
+    myMaxOutgoingConnections = maxOutgoingConnectionsCount;
     myClient.setMaxOutgoingConnectionsCount(maxOutgoingConnectionsCount);
   }
 
@@ -279,6 +601,28 @@ public class TorrentsSeeder {
     return myMaxTorrentsToSeed;
   }
 
+  /**
+   * limits total size of seeded files in addition to the number of torrents,
+   * torrents chosen by eviction policy are removed until both limits are respected
+   *
+   * @param maxSeededBytes max total size of seeded files, 0 means no limit
+   */
+  public void setMaxSeededBytes(long maxSeededBytes) {
+    myMaxSeededBytes = maxSeededBytes;
+    myTorrentFilesDB.setMaxSeededBytes(maxSeededBytes);
+  }
+
+  public long getMaxSeededBytes() {
+    return myMaxSeededBytes;
+  }
+
+  /**
+   * @return total size of files registered for seeding
+   */
+  public long getSeededBytes() {
+    return myTorrentFilesDB.getSeededBytes();
+  }
+
   @NotNull
   public Collection<SharedTorrent> getSharedTorrents() {
     return myClient.getSharedTorrents();
@@ -10,6 +10,8 @@ public interface SeedSettings {
   String MAX_NUMBER_OF_SEEDED_TORRENTS = "teamcity.torrent.seeder.maxSeedingFiles";
   int DEFAULT_MAX_NUMBER_OF_SEEDED_TORRENTS = 2000;
 
+  String MAX_SEEDED_SIZE = "teamcity.torrent.seeder.maxSeededSize";
+
   /**
    * Indicates if peers must seed artifacts
    */
@@ -0,0 +1,272 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.PieceStorageFactory;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import com.turn.ttorrent.common.TorrentMetadata;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Bounds number of piece storages with open files.
+ * <p>
+ * Storages created by {@link #pooled(PieceStorageFactory)} factory are registered in the pool on each read or write,
+ * most recently used storages are kept open. When there are more open storages than the limit, least recently used storages
+ * which are not in use right now are closed, they are reopened by the storage on next access.
+ * So descriptors are bounded and files of actively seeded torrents are not reopened.
+ * <p>
+ * Evicted storage is closed outside of the pool lock, so it could be used and registered again before it's closed.
+ * Storage is closed under its own lock only if it's not used and not registered in the pool at this moment.
+ */
+public class PieceStoragePool {
+
+  private final static Logger LOG = Logger.getInstance(PieceStoragePool.class.getName());
+
+  public static final String MAX_OPEN_STORAGES = "teamcity.torrent.seeder.maxOpenFiles";
+  public static final int DEFAULT_MAX_OPEN_STORAGES = 256;
+
+  private static final MetricsRegistry.Counter EVICTED_STORAGES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_evicted_storages_total", "Seeded torrents which files were closed by storage pool");
+
+  private volatile int myMaxOpenStorages;
+  // access ordered, eldest entry is least recently used storage
+  private final LinkedHashMap<PooledPieceStorage, Entry> myOpenStorages = new LinkedHashMap<PooledPieceStorage, Entry>(16, 0.75f, true);
+  private long myEvictedCount;
+
+  public PieceStoragePool(int maxOpenStorages) {
+    myMaxOpenStorages = maxOpenStorages;
+  }
+
+  @NotNull
+  public static PieceStoragePool fromProperties() {
+    return new PieceStoragePool(TeamCityProperties.getInteger(MAX_OPEN_STORAGES, DEFAULT_MAX_OPEN_STORAGES));
+  }
+
+  /**
+   * @return factory which wraps storages created by specified factory with storages managed by this pool
+   */
+  @NotNull
+  public PieceStorageFactory pooled(@NotNull final PieceStorageFactory factory) {
+    return new PieceStorageFactory() {
+      public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage) throws IOException {
+        final PooledPieceStorage storage = new PooledPieceStorage(factory.createStorage(metadata, byteStorage));
+        // delegate factory could open files while creating storage
+        acquire(storage);
+        release(storage);
+        return storage;
+      }
+    };
+  }
+
+  public void setMaxOpenStorages(int maxOpenStorages) {
+    myMaxOpenStorages = maxOpenStorages;
+    final List<PooledPieceStorage> toClose;
+    synchronized (myOpenStorages) {
+      toClose = evict(0);
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * closes storages which were not used for specified time
+   */
+  public void closeIdle(long idleTimeMs) {
+    final long now = System.currentTimeMillis();
+    final List<PooledPieceStorage> toClose;
+    synchronized (myOpenStorages) {
+      toClose = evict(now - idleTimeMs);
+    }
+    closeAll(toClose);
+  }
+
+  public int getOpenStoragesCount() {
+    synchronized (myOpenStorages) {
+      return myOpenStorages.size();
+    }
+  }
+
+  public long getEvictedCount() {
+    synchronized (myOpenStorages) {
+      return myEvictedCount;
+    }
+  }
+
+  private void acquire(@NotNull PooledPieceStorage storage) {
+    final List<PooledPieceStorage> toClose;
+    synchronized (myOpenStorages) {
+      Entry entry = myOpenStorages.get(storage);
+      if (entry == null) {
+        entry = new Entry();
+        myOpenStorages.put(storage, entry);
+      }
+      entry.myReferences++;
+      entry.myLastAccess = System.currentTimeMillis();
+      toClose = evict(0);
+    }
+    closeAll(toClose);
+  }
+
+  private void release(@NotNull PooledPieceStorage storage) {
+    final List<PooledPieceStorage> toClose;
+    synchronized (myOpenStorages) {
+      final Entry entry = myOpenStorages.get(storage);
+      if (entry != null) {
+        entry.myReferences--;
+      }
+      // pool could exceed the limit while all storages were in use
+      toClose = evict(0);
+    }
+    closeAll(toClose);
+  }
+
+  private void remove(@NotNull PooledPieceStorage storage) {
+    synchronized (myOpenStorages) {
+      myOpenStorages.remove(storage);
+    }
+  }
+
+  private boolean isPooled(@NotNull PooledPieceStorage storage) {
+    synchronized (myOpenStorages) {
+      return myOpenStorages.containsKey(storage);
+    }
+  }
+
+  /**
+   * removes from the pool unused storages over the limit and unused storages accessed before specified time.
+   * Removed storages must be closed by caller after releasing the pool lock
+   */
+  @NotNull
+  private List<PooledPieceStorage> evict(long accessedBefore) {
+    final List<PooledPieceStorage> result = new ArrayList<PooledPieceStorage>();
+    int overLimit = myOpenStorages.size() - myMaxOpenStorages;
+    final Iterator<Map.Entry<PooledPieceStorage, Entry>> iterator = myOpenStorages.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<PooledPieceStorage, Entry> next = iterator.next();
+      final Entry entry = next.getValue();
+      if (overLimit <= 0 && entry.myLastAccess >= accessedBefore) break;
+      if (entry.myReferences > 0) continue;
+      iterator.remove();
+      overLimit--;
+      myEvictedCount++;
+      EVICTED_STORAGES.inc();
+      result.add(next.getKey());
+    }
+    return result;
+  }
+
+  private static void closeAll(@NotNull List<PooledPieceStorage> storages) {
+    for (PooledPieceStorage storage : storages) {
+      storage.closeEvicted();
+    }
+  }
+
+  private static class Entry {
+    private int myReferences;
+    private long myLastAccess;
+  }
+
+  private class PooledPieceStorage implements PieceStorage {
+
+    @NotNull private final PieceStorage myDelegate;
+    // guards delegate from being closed by eviction while it is used
+    private final Object myLock = new Object();
+    private int myUsages;
+    private boolean myCloseRequested;
+
+    PooledPieceStorage(@NotNull PieceStorage delegate) {
+      myDelegate = delegate;
+    }
+
+    public void savePiece(int pieceIndex, byte[] pieceData) throws IOException {
+      start();
+      try {
+        myDelegate.savePiece(pieceIndex, pieceData);
+      } finally {
+        finish();
+      }
+    }
+
+    public byte[] readPiecePart(int pieceIndex, int offset, int length) throws IOException {
+      start();
+      try {
+        return myDelegate.readPiecePart(pieceIndex, offset, length);
+      } finally {
+        finish();
+      }
+    }
+
+    public BitSet getAvailablePieces() {
+      return myDelegate.getAvailablePieces();
+    }
+
+    public boolean isFinished() {
+      return myDelegate.isFinished();
+    }
+
+    public void closeFully() throws IOException {
+      remove(this);
+      myDelegate.closeFully();
+    }
+
+    public void close() throws IOException {
+      remove(this);
+      myDelegate.close();
+    }
+
+    private void start() {
+      synchronized (myLock) {
+        myUsages++;
+        myCloseRequested = false;
+      }
+      acquire(this);
+    }
+
+    private void finish() {
+      release(this);
+      synchronized (myLock) {
+        myUsages--;
+        if (myUsages == 0 && myCloseRequested) {
+          myCloseRequested = false;
+          closeIfEvicted();
+        }
+      }
+    }
+
+    /**
+     * closes storage evicted from pool; if storage is used right now it will be closed after usage
+     */
+    void closeEvicted() {
+      synchronized (myLock) {
+        if (myUsages > 0) {
+          myCloseRequested = true;
+          return;
+        }
+        closeIfEvicted();
+      }
+    }
+
+    /**
+     * must be called under storage lock, storage which was used and registered in the pool again after eviction
+     * is kept open, it will be closed on the next eviction
+     */
+    private void closeIfEvicted() {
+      if (isPooled(this)) return;
+      doClose();
+    }
+
+    private void doClose() {
+      try {
+        myDelegate.close();
+      } catch (IOException e) {
+        LOG.warnAndDebugDetails("Unable to close piece storage", e);
+      }
+    }
+  }
+}
@@ -8,13 +8,14 @@ import com.turn.ttorrent.client.announce.TrackerClientFactory;
 import com.turn.ttorrent.client.peer.SharingPeer;
 import com.turn.ttorrent.client.storage.EmptyPieceStorageFactory;
 import com.turn.ttorrent.client.storage.FileCollectionStorage;
-import com.turn.ttorrent.client.storage.FullyPieceStorageFactory;
 import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
 import com.turn.ttorrent.common.TorrentHash;
 import com.turn.ttorrent.common.TorrentMetadata;
 import com.turn.ttorrent.common.TorrentParser;
 import com.turn.ttorrent.network.SelectorFactory;
 import jetbrains.buildServer.artifacts.FileProgress;
+import jetbrains.buildServer.torrent.util.TorrentDownloadReport;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -23,11 +24,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -39,9 +40,14 @@ public class TeamcityTorrentClient {
 
   @NotNull
   private final CommunicationManager myCommunicationManager;
+  @NotNull
+  private final PieceStoragePool myStoragePool;
+  @NotNull
+  private final List<DownloadListener> myDownloadListeners = new CopyOnWriteArrayList<DownloadListener>();
 
   public TeamcityTorrentClient(ExecutorService es, ExecutorService validatorES, TrackerClientFactory trackerClientFactory) {
     myCommunicationManager = new CommunicationManager(es, validatorES, trackerClientFactory);
+    myStoragePool = PieceStoragePool.fromProperties();
   }
 
   public void start(@NotNull InetAddress[] inetAddresses,
@@ -55,20 +61,34 @@ public class TeamcityTorrentClient {
     myCommunicationManager.stop();
   }
 
-  public boolean seedTorrent(@NotNull File torrentFile, @NotNull File srcFile) throws IOException, NoSuchAlgorithmException {
+  /**
+   * starts seeding of the file, torrent which is already seeded is restarted
+   *
+   * @return info hash of the seeded torrent or null if seeding wasn't started
+   */
+  @Nullable
+  public String seedTorrent(@NotNull File torrentFile, @NotNull File srcFile) {
     try {
-      myCommunicationManager.addTorrent(torrentFile.getAbsolutePath(), srcFile.getParent(), FullyPieceStorageFactory.INSTANCE);
-      return true;
+      final TorrentMetadataProvider metadataProvider = new FileMetadataProvider(torrentFile.getAbsolutePath());
+      final TorrentMetadata metadata = metadataProvider.getTorrentMetadata();
+      if (isSeeding(metadata)) {
+        myCommunicationManager.removeTorrent(metadata.getHexInfoHash());
+      }
+      final FileCollectionStorage fileCollectionStorage = FileCollectionStorage.create(metadata, srcFile.getParentFile());
+      myCommunicationManager.addTorrent(metadataProvider,
+              myStoragePool.pooled(VerifyingPieceStorageFactory.fromProperties()).createStorage(metadata, fileCollectionStorage),
+              Collections.<TorrentListener>emptyList());
+      return metadata.getHexInfoHash();
     } catch (FileNotFoundException e) {
       LOG.debug("File " + srcFile.getName() + " is not found, ", e);
-      return false;
+      return null;
     } catch (IllegalArgumentException e) {
       //valid case since the library throws this exception when file was removed with parent directory
       LOG.debug("File " + srcFile.getName() + " is not found, ", e);
-      return false;
+      return null;
     } catch (Exception e) {
       LOG.warn("Failed to seed file: " + srcFile.getName(), e);
-      return false;
+      return null;
     }
   }
 
@@ -105,6 +125,14 @@ public class TeamcityTorrentClient {
     myCommunicationManager.removeTorrent(torrentHash.getHexInfoHash());
   }
 
+  /**
+   * @return pool which bounds number of open files of seeded torrents
+   */
+  @NotNull
+  public PieceStoragePool getStoragePool() {
+    return myStoragePool;
+  }
+
   public List<LoadedTorrent> getLoadedTorrents() {
     return myCommunicationManager.getTorrentsStorage().getLoadedTorrents();
   }
@@ -163,6 +191,22 @@ public class TeamcityTorrentClient {
                                             final int minSeedersCount,
                                             final int maxTimeoutForConnect,
                                             final AtomicReference<Exception> occuredException) {
+    return downloadAndShareOrFailAsync(torrentFile, fileNames, hexInfoHash, destFile, destDir, fileDownloadProgress,
+            downloadTimeoutMs, minSeedersCount, maxTimeoutForConnect, occuredException,
+            new TorrentDownloadReport(Collections.<String>emptyList()));
+  }
+
+  public Thread downloadAndShareOrFailAsync(@NotNull final File torrentFile,
+                                            @NotNull final List<String> fileNames,
+                                            @NotNull final String hexInfoHash,
+                                            @NotNull final File destFile,
+                                            @NotNull final File destDir,
+                                            @NotNull final FileProgress fileDownloadProgress,
+                                            final int downloadTimeoutMs,
+                                            final int minSeedersCount,
+                                            final int maxTimeoutForConnect,
+                                            final AtomicReference<Exception> occuredException,
+                                            @NotNull final TorrentDownloadReport report) {
     final Thread thread = new Thread(new Runnable() {
       public void run() {
         try {
@@ -174,7 +218,8 @@ public class TeamcityTorrentClient {
                   fileDownloadProgress,
                   downloadTimeoutMs,
                   minSeedersCount,
-                  maxTimeoutForConnect);
+                  maxTimeoutForConnect,
+                  report);
         } catch (Exception e) {
           occuredException.set(e);
         }
@@ -210,6 +255,20 @@ public class TeamcityTorrentClient {
                                      final int downloadTimeoutMs,
                                      final int minSeedersCount,
                                      final int maxTimeoutForConnect) throws Exception {
+    downloadAndShareOrFail(torrentFile, fileNames, hexInfoHash, destFile, destDir, fileDownloadProgress,
+            downloadTimeoutMs, minSeedersCount, maxTimeoutForConnect, new TorrentDownloadReport(Collections.<String>emptyList()));
+  }
+
+  public void downloadAndShareOrFail(@NotNull final File torrentFile,
+                                     @NotNull final List<String> fileNames,
+                                     @NotNull final String hexInfoHash,
+                                     @NotNull final File destFile,
+                                     @NotNull final File destDir,
+                                     @NotNull final FileProgress fileDownloadProgress,
+                                     final int downloadTimeoutMs,
+                                     final int minSeedersCount,
+                                     final int maxTimeoutForConnect,
+                                     @NotNull final TorrentDownloadReport report) throws Exception {
     checkThatTorrentContainsFile(fileNames, destFile);
 
     destDir.mkdirs();
@@ -223,14 +282,16 @@ public class TeamcityTorrentClient {
     TorrentMetadataProvider metadataProvider = new FileMetadataProvider(torrentFile.getAbsolutePath());
     TorrentMetadata metadata = metadataProvider.getTorrentMetadata();
     FileCollectionStorage fileCollectionStorage = FileCollectionStorage.create(metadata, destDir);
-    PieceStorage pieceStorage = EmptyPieceStorageFactory.INSTANCE.createStorage(metadata, fileCollectionStorage);
+    TorrentByteStorage byteStorage = WriteBehindByteStorage.fromProperties(fileCollectionStorage);
+    PieceStorage pieceStorage = EmptyPieceStorageFactory.INSTANCE.createStorage(metadata, byteStorage);
 
     TorrentDownloader torrentDownloader = new TorrentDownloader(
             metadata,
             fileDownloadProgress,
             minSeedersCount,
             maxTimeoutForConnect,
-            downloadTimeoutMs
+            downloadTimeoutMs,
+            report
     );
 
     myCommunicationManager.addTorrent(
@@ -238,6 +299,9 @@ public class TeamcityTorrentClient {
             pieceStorage,
             Collections.<TorrentListener>singletonList(torrentDownloader)
     );
+    for (DownloadListener listener : myDownloadListeners) {
+      listener.downloadStarted(metadata.getHexInfoHash());
+    }
     Exception exception = null;
     try {
       torrentDownloader.awaitDownload();
@@ -248,6 +312,9 @@ public class TeamcityTorrentClient {
       myCommunicationManager.removeTorrent(metadata.getHexInfoHash());
       pieceStorage.close();
     } finally {
+      for (DownloadListener listener : myDownloadListeners) {
+        listener.downloadFinished(metadata.getHexInfoHash());
+      }
       boolean downloadFailed = exception != null;
       if (downloadFailed) {
         fileCollectionStorage.delete();
@@ -259,4 +326,17 @@ public class TeamcityTorrentClient {
   public Collection<SharedTorrent> getSharedTorrents(){
     return myCommunicationManager.getTorrents();
   }
+
+  public void addDownloadListener(@NotNull DownloadListener listener) {
+    myDownloadListeners.add(listener);
+  }
+
+  /**
+   * notified in downloading thread, so it must not block
+   */
+  public interface DownloadListener {
+    void downloadStarted(@NotNull String hexInfoHash);
+
+    void downloadFinished(@NotNull String hexInfoHash);
+  }
 }
\ No newline at end of file
@@ -8,8 +8,14 @@ import com.turn.ttorrent.client.PieceInformation;
 import com.turn.ttorrent.client.TorrentListenerWrapper;
 import com.turn.ttorrent.common.TorrentMetadata;
 import jetbrains.buildServer.artifacts.FileProgress;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.torrent.util.TorrentDownloadReport;
 import org.jetbrains.annotations.NotNull;
 
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -19,6 +25,12 @@ public class TorrentDownloader extends TorrentListenerWrapper {
 
   private final static Logger LOG = Logger.getInstance(TorrentDownloader.class.getName());
 
+  private static final MetricsRegistry.Histogram PIECE_DOWNLOAD_TIME = MetricsRegistry.getInstance().histogram(
+          "teamcity_torrent_piece_download_seconds", "Time from requesting a piece from a peer to receiving it",
+          MetricsRegistry.LATENCY_BUCKETS_SEC);
+  private static final MetricsRegistry.Counter DOWNLOADED_BYTES = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_downloaded_bytes_total", "Bytes of valid pieces downloaded from peers");
+
   /**
    * {@link TorrentMetadata} instance related with torrent
    */
@@ -62,11 +74,32 @@ public class TorrentDownloader extends TorrentListenerWrapper {
   @NotNull
   private final AtomicReference<Throwable> myFailedExceptionHolder;
 
+  /**
+   * Time when the next piece was requested from a connected peer. Listener doesn't report requests, but the client
+   * requests the next piece from a peer when it is connected and when previous piece from the peer is received,
+   * so this time is taken on these events.
+   */
+  @NotNull
+  private final ConcurrentMap<InetSocketAddress, Long> myPieceRequestTimesNanos;
+
+  @NotNull
+  private final TorrentDownloadReport myReport;
+
   public TorrentDownloader(@NotNull final TorrentMetadata metadata,
                            @NotNull final FileProgress fileDownloadProgress,
                            int minPeersCount,
                            int timeoutForFindingPeers,
                            int idleTimeout) {
+    this(metadata, fileDownloadProgress, minPeersCount, timeoutForFindingPeers, idleTimeout,
+            new TorrentDownloadReport(Collections.<String>emptyList()));
+  }
+
+  public TorrentDownloader(@NotNull final TorrentMetadata metadata,
+                           @NotNull final FileProgress fileDownloadProgress,
+                           int minPeersCount,
+                           int timeoutForFindingPeers,
+                           int idleTimeout,
+                           @NotNull final TorrentDownloadReport report) {
     myTorrentMetadata = metadata;
     myFileDownloadProgress = fileDownloadProgress;
     myMinPeersCount = minPeersCount;
@@ -77,6 +110,8 @@ public class TorrentDownloader extends TorrentListenerWrapper {
     mySemaphore = new Semaphore(0);
     myFailedExceptionHolder = new AtomicReference<Throwable>();
     myReceivedPiecesCount = new AtomicInteger();
+    myPieceRequestTimesNanos = new ConcurrentHashMap<InetSocketAddress, Long>();
+    myReport = report;
   }
 
   public void awaitDownload() throws InterruptedException, DownloadException {
@@ -121,17 +156,26 @@ public class TorrentDownloader extends TorrentListenerWrapper {
   @Override
   public void pieceReceived(PieceInformation pieceInformation, PeerInformation peerInformation) {
     myReceivedPiecesCount.incrementAndGet();
+    myReport.pieceReceived();
+    final long now = System.nanoTime();
+    final Long requested = myPieceRequestTimesNanos.replace(peerInformation.getAddress(), now);
+    if (requested != null) {
+      PIECE_DOWNLOAD_TIME.observeNanos(now - requested);
+    }
   }
 
   @Override
   public void peerConnected(PeerInformation peerInformation) {
     myConnectedPeersCount.incrementAndGet();
+    myReport.peerConnected();
+    myPieceRequestTimesNanos.put(peerInformation.getAddress(), System.nanoTime());
     LOG.debug("Connected new peer " + peerInformation);
   }
 
   @Override
   public void peerDisconnected(PeerInformation peerInformation) {
     myConnectedPeersCount.decrementAndGet();
+    myPieceRequestTimesNanos.remove(peerInformation.getAddress());
     LOG.debug("Peer " + peerInformation + " is disconnected");
   }
 
@@ -139,15 +183,20 @@ public class TorrentDownloader extends TorrentListenerWrapper {
   public void pieceDownloaded(PieceInformation pieceInformation, PeerInformation peerInformation) {
     myDownloadedPiecesCount.incrementAndGet();
     myFileDownloadProgress.transferred(pieceInformation.getSize());
+    DOWNLOADED_BYTES.add(pieceInformation.getSize());
+    final InetSocketAddress address = peerInformation.getAddress();
+    myReport.pieceDownloaded(address.getHostString(), address.getPort(), pieceInformation.getSize());
   }
 
   @Override
   public void downloadComplete() {
+    myReport.finished();
     mySemaphore.release();
   }
 
   @Override
   public void downloadFailed(Throwable cause) {
+    myReport.finished();
     myFailedExceptionHolder.set(cause);
   }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import com.turn.ttorrent.common.TorrentCreator;
 import com.turn.ttorrent.common.TorrentMetadata;
 import com.turn.ttorrent.common.TorrentParser;
 import com.turn.ttorrent.common.TorrentSerializer;
+import com.turn.ttorrent.common.creation.MetadataBuilder;
 import jetbrains.buildServer.agent.BuildProgressLogger;
 import jetbrains.buildServer.messages.BuildMessage1;
 import jetbrains.buildServer.messages.DefaultMessagesInfo;
@@ -18,7 +19,9 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
@@ -109,6 +112,57 @@ public class TorrentUtil {
     return null;
   }
 
+  /**
+   * Creates torrent metadata for the specified <code>srcFile</code>. If UDP announce URI is specified,
+   * it is the first tier of announce list and http announce URI is the fallback tier.
+   */
+  @NotNull
+  public static TorrentMetadata createTorrent(@NotNull File srcFile,
+                                              @NotNull URI announceURI,
+                                              @Nullable URI udpAnnounceURI,
+                                              @NotNull String createdBy) throws IOException, InterruptedException {
+    if (udpAnnounceURI == null) {
+      return TorrentCreator.create(srcFile, announceURI, createdBy);
+    }
+    final List<List<URI>> announceList = new ArrayList<List<URI>>();
+    announceList.add(Collections.singletonList(udpAnnounceURI));
+    announceList.add(Collections.singletonList(announceURI));
+    return TorrentCreator.create(srcFile, null, announceURI, announceList, createdBy);
+  }
+
+  /**
+   * Creates single file torrent metadata, file content is read from the specified stream, so caller controls
+   * how the file is read. If UDP announce URI is specified, it is the first tier of announce list
+   * and http announce URI is the fallback tier.
+   */
+  @NotNull
+  public static TorrentMetadata createTorrent(@NotNull InputStream content,
+                                              @NotNull String fileName,
+                                              @NotNull URI announceURI,
+                                              @Nullable URI udpAnnounceURI,
+                                              @NotNull String createdBy) throws IOException {
+    final MetadataBuilder builder = new MetadataBuilder()
+            .setTracker(announceURI.toString())
+            .setCreatedBy(createdBy)
+            .addDataSource(content, fileName, false);
+    if (udpAnnounceURI != null) {
+      final List<List<String>> announceList = new ArrayList<List<String>>();
+      announceList.add(Collections.singletonList(udpAnnounceURI.toString()));
+      announceList.add(Collections.singletonList(announceURI.toString()));
+      builder.setTrackers(announceList);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return UDP announce URI of the configuration or null if UDP tracker endpoint isn't available
+   */
+  @Nullable
+  public static URI getUdpAnnounceURI(@NotNull final TorrentConfiguration configuration) {
+    final String udpAnnounceUrl = configuration.getUdpAnnounceUrl();
+    return udpAnnounceUrl == null || udpAnnounceUrl.isEmpty() ? null : URI.create(udpAnnounceUrl);
+  }
+
   public static boolean shouldCreateTorrentFor(final long fileSize, @NotNull final TorrentConfiguration configuration){
     return (fileSize >= configuration.getFileSizeThresholdBytes()) && configuration.getAnnounceUrl() != null;
   }
@@ -0,0 +1,166 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.client.storage.FullyPieceStorageFactory;
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.PieceStorageFactory;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import com.turn.ttorrent.common.TorrentFile;
+import com.turn.ttorrent.common.TorrentMetadata;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Piece storage factory for seeding of files which were created (and hashed) by somebody else.
+ * <p>
+ * At registration only first, last and several random pieces are checked, so file with wrong size
+ * or content is rejected without reading it completely. Other pieces are verified lazily when they are
+ * requested by peers for the first time, corrupted piece is never sent to peers and is removed from available pieces.
+ */
+public class VerifyingPieceStorageFactory implements PieceStorageFactory {
+
+  private final static Logger LOG = Logger.getInstance(VerifyingPieceStorageFactory.class.getName());
+
+  public static final String VERIFY_PIECES_ENABLED = "teamcity.torrent.seeder.verifyPieces.enabled";
+  public static final String SAMPLED_PIECES_COUNT = "teamcity.torrent.seeder.verifyPieces.sampleCount";
+  public static final int DEFAULT_SAMPLED_PIECES_COUNT = 2;
+
+  private static final int SHA1_LENGTH = 20;
+
+  private final int mySampledPiecesCount;
+  private final Random myRandom = new Random();
+
+  public VerifyingPieceStorageFactory(int sampledPiecesCount) {
+    mySampledPiecesCount = sampledPiecesCount;
+  }
+
+  /**
+   * @return factory for seeding of existing files according to settings
+   */
+  @NotNull
+  public static PieceStorageFactory fromProperties() {
+    if (!TeamCityProperties.getBooleanOrTrue(VERIFY_PIECES_ENABLED)) {
+      return FullyPieceStorageFactory.INSTANCE;
+    }
+    return new VerifyingPieceStorageFactory(TeamCityProperties.getInteger(SAMPLED_PIECES_COUNT, DEFAULT_SAMPLED_PIECES_COUNT));
+  }
+
+  public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage) throws IOException {
+    final VerifyingPieceStorage storage = new VerifyingPieceStorage(metadata, FullyPieceStorageFactory.INSTANCE.createStorage(metadata, byteStorage));
+    final int piecesCount = metadata.getPiecesCount();
+    if (piecesCount == 0) return storage;
+
+    try {
+      storage.verify(0);
+      storage.verify(piecesCount - 1);
+      for (int i = 0; i < mySampledPiecesCount && piecesCount > 2; i++) {
+        storage.verify(1 + myRandom.nextInt(piecesCount - 2));
+      }
+    } catch (IOException e) {
+      storage.close();
+      throw e;
+    }
+    return storage;
+  }
+
+  static class VerifyingPieceStorage implements PieceStorage {
+
+    @NotNull private final TorrentMetadata myMetadata;
+    @NotNull private final PieceStorage myDelegate;
+    @NotNull private final BitSet myVerifiedPieces;
+    @NotNull private final BitSet myCorruptedPieces;
+    private final long myTotalSize;
+
+    VerifyingPieceStorage(@NotNull TorrentMetadata metadata, @NotNull PieceStorage delegate) {
+      myMetadata = metadata;
+      myDelegate = delegate;
+      myVerifiedPieces = new BitSet(metadata.getPiecesCount());
+      myCorruptedPieces = new BitSet(metadata.getPiecesCount());
+      long totalSize = 0;
+      for (TorrentFile file : metadata.getFiles()) {
+        totalSize += file.size;
+      }
+      myTotalSize = totalSize;
+    }
+
+    public void savePiece(int pieceIndex, byte[] pieceData) throws IOException {
+      myDelegate.savePiece(pieceIndex, pieceData);
+    }
+
+    public byte[] readPiecePart(int pieceIndex, int offset, int length) throws IOException {
+      verify(pieceIndex);
+      return myDelegate.readPiecePart(pieceIndex, offset, length);
+    }
+
+    public BitSet getAvailablePieces() {
+      final BitSet result = myDelegate.getAvailablePieces();
+      synchronized (this) {
+        result.andNot(myCorruptedPieces);
+      }
+      return result;
+    }
+
+    public boolean isFinished() {
+      return myDelegate.isFinished();
+    }
+
+    public void closeFully() throws IOException {
+      myDelegate.closeFully();
+    }
+
+    public void close() throws IOException {
+      myDelegate.close();
+    }
+
+    /**
+     * checks hash of the piece if it wasn't checked before
+     *
+     * @throws IOException if piece data doesn't match hash from torrent metadata
+     */
+    void verify(int pieceIndex) throws IOException {
+      synchronized (this) {
+        if (myVerifiedPieces.get(pieceIndex)) return;
+        if (myCorruptedPieces.get(pieceIndex)) throw corrupted(pieceIndex);
+      }
+
+      final long pieceLength = myMetadata.getPieceLength();
+      final int length = (int) Math.min(pieceLength, myTotalSize - pieceIndex * pieceLength);
+      final byte[] data = myDelegate.readPiecePart(pieceIndex, 0, length);
+      final byte[] expected = Arrays.copyOfRange(myMetadata.getPiecesHashes(), pieceIndex * SHA1_LENGTH, (pieceIndex + 1) * SHA1_LENGTH);
+      final boolean valid = data.length == length && Arrays.equals(sha1(data), expected);
+
+      synchronized (this) {
+        if (valid) {
+          myVerifiedPieces.set(pieceIndex);
+          return;
+        }
+        myCorruptedPieces.set(pieceIndex);
+      }
+      LOG.warn("Piece " + pieceIndex + " of torrent " + myMetadata.getHexInfoHash() + " doesn't match its hash, it won't be seeded");
+      throw corrupted(pieceIndex);
+    }
+
+    @NotNull
+    private IOException corrupted(int pieceIndex) {
+      return new IOException("Piece " + pieceIndex + " of torrent " + myMetadata.getHexInfoHash() + " is corrupted");
+    }
+  }
+
+  @NotNull
+  private static byte[] sha1(@NotNull byte[] data) throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-1").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+}
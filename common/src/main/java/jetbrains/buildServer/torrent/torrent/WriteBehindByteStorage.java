@@ -0,0 +1,144 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Byte storage of downloaded torrent which buffers written pieces and writes them to disk in offset order.
+ * <p>
+ * Pieces are downloaded in rarest first order, so direct writes land at scattered offsets of the file.
+ * Buffered pieces are written when buffer size exceeds the budget and before storage is finished or closed,
+ * so disk receives runs of sequential writes. Read writes only buffered pieces which overlap the read range.
+ * Written buffers are not copied: the storage keeps references to them until they are flushed, so callers must not
+ * reuse a buffer after writing it, which holds for pieces saved by piece storage.
+ */
+public class WriteBehindByteStorage implements TorrentByteStorage {
+
+  public static final String WRITE_BEHIND_BUFFER_SIZE = "teamcity.torrent.download.writeBehindMb";
+  public static final int DEFAULT_WRITE_BEHIND_BUFFER_SIZE = 4;
+
+  @NotNull
+  private final TorrentByteStorage myDelegate;
+  private final long myBudget;
+  private final TreeMap<Long, ByteBuffer> myPending = new TreeMap<Long, ByteBuffer>();
+  private long myPendingBytes;
+
+  /**
+   * @param budget max size of buffered data in bytes, data is written immediately if budget is 0
+   */
+  public WriteBehindByteStorage(@NotNull TorrentByteStorage delegate, long budget) {
+    myDelegate = delegate;
+    myBudget = budget;
+  }
+
+  /**
+   * @return storage according to settings, or delegate if buffering is disabled
+   */
+  @NotNull
+  public static TorrentByteStorage fromProperties(@NotNull TorrentByteStorage delegate) {
+    final long budget = TeamCityProperties.getInteger(WRITE_BEHIND_BUFFER_SIZE, DEFAULT_WRITE_BEHIND_BUFFER_SIZE) * 1024L * 1024L;
+    if (budget <= 0) return delegate;
+    return new WriteBehindByteStorage(delegate, budget);
+  }
+
+  public void open(boolean seeder) throws IOException {
+    myDelegate.open(seeder);
+  }
+
+  public synchronized int read(ByteBuffer buffer, long position) throws IOException {
+    flush(position, position + buffer.remaining());
+    return myDelegate.read(buffer, position);
+  }
+
+  public synchronized int write(ByteBuffer block, long position) throws IOException {
+    final int length = block.remaining();
+    if (myBudget <= 0 || length > myBudget) {
+      return myDelegate.write(block, position);
+    }
+    if (myPendingBytes + length > myBudget) {
+      flush();
+    }
+    final ByteBuffer data = block.slice();
+    block.position(block.limit());
+    final ByteBuffer replaced = myPending.put(position, data);
+    myPendingBytes += length - (replaced == null ? 0 : replaced.remaining());
+    return length;
+  }
+
+  public synchronized void finish() throws IOException {
+    flush();
+    myDelegate.finish();
+  }
+
+  public boolean isFinished() {
+    return myDelegate.isFinished();
+  }
+
+  public boolean isClosed() {
+    return myDelegate.isClosed();
+  }
+
+  public synchronized void delete() throws IOException {
+    myPending.clear();
+    myPendingBytes = 0;
+    myDelegate.delete();
+  }
+
+  public synchronized void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      myDelegate.close();
+    }
+  }
+
+  synchronized long getPendingBytes() {
+    return myPendingBytes;
+  }
+
+  /**
+   * writes buffered pieces in offset order
+   */
+  private void flush() throws IOException {
+    while (!myPending.isEmpty()) {
+      writePending(myPending.firstEntry());
+    }
+  }
+
+  /**
+   * writes in offset order buffered pieces which overlap range from <code>start</code> inclusive to <code>end</code> exclusive
+   */
+  private void flush(long start, long end) throws IOException {
+    // written pieces don't overlap each other, so only the piece starting before the range can overlap it from the left
+    final Long from = myPending.floorKey(start);
+    final List<Map.Entry<Long, ByteBuffer>> overlapping = new ArrayList<Map.Entry<Long, ByteBuffer>>(
+            myPending.subMap(from == null ? start : from, true, end, false).entrySet());
+    for (Map.Entry<Long, ByteBuffer> entry : overlapping) {
+      if (entry.getKey() + entry.getValue().remaining() <= start) continue;
+      writePending(entry);
+    }
+  }
+
+  private void writePending(@NotNull Map.Entry<Long, ByteBuffer> entry) throws IOException {
+    // pending buffer keeps its position, so its size is known if writing fails
+    final ByteBuffer buffer = entry.getValue().duplicate();
+    long position = entry.getKey();
+    while (buffer.hasRemaining()) {
+      final int written = myDelegate.write(buffer, position);
+      if (written <= 0) throw new IOException("Unable to write data at position " + position);
+      position += written;
+    }
+    myPending.remove(entry.getKey());
+    myPendingBytes -= entry.getValue().remaining();
+  }
+}
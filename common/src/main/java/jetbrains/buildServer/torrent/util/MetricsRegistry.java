@@ -0,0 +1,221 @@
+
+
+package jetbrains.buildServer.torrent.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of plugin metrics (counters, gauges and histograms) which can be written in Prometheus text format.
+ * <p>
+ * Hot paths only update atomic values, gauges are computed when metrics are written.
+ * Components register their metrics in {@link #getInstance() shared registry}, metric with the same name
+ * is returned on repeated registration, gauge is replaced.
+ */
+public class MetricsRegistry {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  public static final double[] LATENCY_BUCKETS_SEC = {0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+  private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+  private final Map<String, Metric> myMetrics = new LinkedHashMap<String, Metric>();
+
+  @NotNull
+  public static MetricsRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  @NotNull
+  public Counter counter(@NotNull String name, @NotNull String help) {
+    synchronized (myMetrics) {
+      final Metric metric = myMetrics.get(name);
+      if (metric instanceof Counter) return (Counter) metric;
+      final Counter counter = new Counter(name, help);
+      myMetrics.put(name, counter);
+      return counter;
+    }
+  }
+
+  @NotNull
+  public Histogram histogram(@NotNull String name, @NotNull String help, @NotNull double[] buckets) {
+    synchronized (myMetrics) {
+      final Metric metric = myMetrics.get(name);
+      if (metric instanceof Histogram) return (Histogram) metric;
+      final Histogram histogram = new Histogram(name, help, buckets);
+      myMetrics.put(name, histogram);
+      return histogram;
+    }
+  }
+
+  public void gauge(@NotNull String name, @NotNull String help, @NotNull GaugeValue value) {
+    synchronized (myMetrics) {
+      myMetrics.put(name, new Gauge(name, help, value));
+    }
+  }
+
+  public void remove(@NotNull String name) {
+    synchronized (myMetrics) {
+      myMetrics.remove(name);
+    }
+  }
+
+  /**
+   * writes all metrics in Prometheus text exposition format
+   */
+  public void write(@NotNull Appendable out) throws IOException {
+    final List<Metric> metrics;
+    synchronized (myMetrics) {
+      metrics = new ArrayList<Metric>(myMetrics.values());
+    }
+    for (Metric metric : metrics) {
+      out.append("# HELP ").append(metric.myName).append(' ').append(metric.myHelp).append('\n');
+      out.append("# TYPE ").append(metric.myName).append(' ').append(metric.getType()).append('\n');
+      metric.writeSamples(out);
+    }
+  }
+
+  @NotNull
+  public String asText() {
+    final StringBuilder result = new StringBuilder();
+    try {
+      write(result);
+    } catch (IOException e) {
+      // StringBuilder doesn't throw
+    }
+    return result.toString();
+  }
+
+  public interface GaugeValue {
+    double getValue();
+  }
+
+  private static abstract class Metric {
+    @NotNull protected final String myName;
+    @NotNull private final String myHelp;
+
+    Metric(@NotNull String name, @NotNull String help) {
+      myName = name;
+      myHelp = help;
+    }
+
+    @NotNull
+    abstract String getType();
+
+    abstract void writeSamples(@NotNull Appendable out) throws IOException;
+  }
+
+  public static class Counter extends Metric {
+    private final AtomicLong myValue = new AtomicLong();
+
+    Counter(@NotNull String name, @NotNull String help) {
+      super(name, help);
+    }
+
+    public void inc() {
+      myValue.incrementAndGet();
+    }
+
+    public void add(long delta) {
+      myValue.addAndGet(delta);
+    }
+
+    public long get() {
+      return myValue.get();
+    }
+
+    @NotNull
+    String getType() {
+      return "counter";
+    }
+
+    void writeSamples(@NotNull Appendable out) throws IOException {
+      out.append(myName).append(' ').append(String.valueOf(myValue.get())).append('\n');
+    }
+  }
+
+  private static class Gauge extends Metric {
+    @NotNull private final GaugeValue myValue;
+
+    Gauge(@NotNull String name, @NotNull String help, @NotNull GaugeValue value) {
+      super(name, help);
+      myValue = value;
+    }
+
+    @NotNull
+    String getType() {
+      return "gauge";
+    }
+
+    void writeSamples(@NotNull Appendable out) throws IOException {
+      out.append(myName).append(' ').append(format(myValue.getValue())).append('\n');
+    }
+  }
+
+  public static class Histogram extends Metric {
+    @NotNull private final double[] myBuckets;
+    @NotNull private final AtomicLongArray myCounts;
+    private final AtomicLong myCount = new AtomicLong();
+    private final AtomicLong mySumNanos = new AtomicLong();
+
+    Histogram(@NotNull String name, @NotNull String help, @NotNull double[] buckets) {
+      super(name, help);
+      myBuckets = buckets.clone();
+      myCounts = new AtomicLongArray(buckets.length);
+    }
+
+    /**
+     * @param durationNanos observed duration, values are exposed in seconds
+     */
+    public void observeNanos(long durationNanos) {
+      final double seconds = durationNanos / 1e9;
+      for (int i = 0; i < myBuckets.length; i++) {
+        if (seconds <= myBuckets[i]) {
+          myCounts.incrementAndGet(i);
+          break;
+        }
+      }
+      myCount.incrementAndGet();
+      mySumNanos.addAndGet(durationNanos);
+    }
+
+    public long getCount() {
+      return myCount.get();
+    }
+
+    @NotNull
+    String getType() {
+      return "histogram";
+    }
+
+    void writeSamples(@NotNull Appendable out) throws IOException {
+      long cumulative = 0;
+      for (int i = 0; i < myBuckets.length; i++) {
+        cumulative += myCounts.get(i);
+        out.append(myName).append("_bucket{le=\"").append(format(myBuckets[i])).append("\"} ")
+                .append(String.valueOf(cumulative)).append('\n');
+      }
+      // counters are updated independently, so total must be not less than the last bucket
+      final long count = Math.max(cumulative, myCount.get());
+      out.append(myName).append("_bucket{le=\"+Inf\"} ").append(String.valueOf(count)).append('\n');
+      out.append(myName).append("_sum ").append(format(mySumNanos.get() / 1e9)).append('\n');
+      out.append(myName).append("_count ").append(String.valueOf(count)).append('\n');
+    }
+  }
+
+  @NotNull
+  private static String format(double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      return String.valueOf((long) value);
+    }
+    return Double.toString(value);
+  }
+}
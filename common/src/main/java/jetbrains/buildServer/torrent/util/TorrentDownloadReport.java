@@ -0,0 +1,140 @@
+
+
+package jetbrains.buildServer.torrent.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfer breakdown of one torrent download: timings, bytes received from each peer and from server, piece failures
+ */
+public class TorrentDownloadReport {
+
+  @NotNull
+  private final Set<String> myServerAddresses;
+  private final long myStartTime;
+  private final AtomicLong myFirstPeerTime;
+  private final AtomicLong myFirstPieceTime;
+  private final AtomicLong myFinishTime;
+  private final AtomicInteger myReceivedPiecesCount;
+  private final AtomicInteger myDownloadedPiecesCount;
+  private final AtomicLong myServerBytes;
+  private final Map<String, Long> myBytesByPeer;
+
+  /**
+   * @param serverAddresses ip addresses of TeamCity server, bytes received from them are counted as server share
+   */
+  public TorrentDownloadReport(@NotNull Collection<String> serverAddresses) {
+    myServerAddresses = new HashSet<String>(serverAddresses);
+    myStartTime = System.currentTimeMillis();
+    myFirstPeerTime = new AtomicLong();
+    myFirstPieceTime = new AtomicLong();
+    myFinishTime = new AtomicLong();
+    myReceivedPiecesCount = new AtomicInteger();
+    myDownloadedPiecesCount = new AtomicInteger();
+    myServerBytes = new AtomicLong();
+    myBytesByPeer = new LinkedHashMap<String, Long>();
+  }
+
+  public void peerConnected() {
+    myFirstPeerTime.compareAndSet(0, System.currentTimeMillis());
+  }
+
+  public void pieceReceived() {
+    myReceivedPiecesCount.incrementAndGet();
+  }
+
+  public void pieceDownloaded(@NotNull String peerIp, int peerPort, long bytes) {
+    myFirstPieceTime.compareAndSet(0, System.currentTimeMillis());
+    myDownloadedPiecesCount.incrementAndGet();
+    if (myServerAddresses.contains(peerIp)) {
+      myServerBytes.addAndGet(bytes);
+    }
+    final String peer = peerIp + ":" + peerPort;
+    synchronized (myBytesByPeer) {
+      final Long current = myBytesByPeer.get(peer);
+      myBytesByPeer.put(peer, current == null ? bytes : current + bytes);
+    }
+  }
+
+  public void finished() {
+    myFinishTime.compareAndSet(0, System.currentTimeMillis());
+  }
+
+  /**
+   * @return time from start to first connected peer in ms or -1 if no peers were connected
+   */
+  public long getTimeToFirstPeerMs() {
+    return sinceStart(myFirstPeerTime.get());
+  }
+
+  /**
+   * @return time from start to first valid piece in ms or -1 if no pieces were downloaded
+   */
+  public long getTimeToFirstPieceMs() {
+    return sinceStart(myFirstPieceTime.get());
+  }
+
+  public long getTotalTimeMs() {
+    return sinceStart(myFinishTime.get());
+  }
+
+  /**
+   * pieces which failed hash check are requested again, so this is also count of re-requested pieces
+   */
+  public int getHashFailuresCount() {
+    return Math.max(0, myReceivedPiecesCount.get() - myDownloadedPiecesCount.get());
+  }
+
+  public int getDownloadedPiecesCount() {
+    return myDownloadedPiecesCount.get();
+  }
+
+  public long getServerBytes() {
+    return myServerBytes.get();
+  }
+
+  public long getTotalBytes() {
+    long result = 0;
+    for (Long bytes : getBytesByPeer().values()) {
+      result += bytes;
+    }
+    return result;
+  }
+
+  public long getAgentsBytes() {
+    return getTotalBytes() - getServerBytes();
+  }
+
+  @NotNull
+  public Map<String, Long> getBytesByPeer() {
+    synchronized (myBytesByPeer) {
+      return new LinkedHashMap<String, Long>(myBytesByPeer);
+    }
+  }
+
+  /**
+   * @return human readable lines of the report
+   */
+  @NotNull
+  public List<String> getSummary() {
+    final List<String> result = new ArrayList<String>();
+    result.add(String.format("Total time: %d ms, first peer after %d ms, first piece after %d ms",
+            getTotalTimeMs(), getTimeToFirstPeerMs(), getTimeToFirstPieceMs()));
+    final long total = getTotalBytes();
+    result.add(String.format("Downloaded %d bytes in %d pieces: %d bytes (%d%%) from server, %d bytes from agents",
+            total, getDownloadedPiecesCount(), getServerBytes(), total == 0 ? 0 : getServerBytes() * 100 / total, getAgentsBytes()));
+    result.add(String.format("Pieces failed hash check and re-requested: %d", getHashFailuresCount()));
+    for (Map.Entry<String, Long> entry : getBytesByPeer().entrySet()) {
+      result.add(String.format("Peer %s: %d bytes", entry.getKey(), entry.getValue()));
+    }
+    return result;
+  }
+
+  private long sinceStart(long time) {
+    return time == 0 ? -1 : time - myStartTime;
+  }
+}
@@ -9,21 +9,61 @@ public class TorrentsDownloadStatistic {
 
   public final static String SUCCESS_DOWNLOAD_KEY = "torrent.statistic.successCount";
   public final static String FAIL_DOWNLOAD_KEY = "torrent.statistic.failCount";
+  public final static String DOWNLOADED_BYTES_KEY = "torrent.statistic.downloadedBytes";
+  public final static String SERVER_BYTES_KEY = "torrent.statistic.serverBytes";
+  public final static String HASH_FAILURES_KEY = "torrent.statistic.hashFailures";
+  public final static String AVG_TIME_TO_FIRST_PEER_KEY = "torrent.statistic.avgTimeToFirstPeerMs";
+  public final static String AVG_TIME_TO_FIRST_PIECE_KEY = "torrent.statistic.avgTimeToFirstPieceMs";
 
 
   private final AtomicInteger mySuccessfulDownloadCount;
   private final AtomicInteger myFailedDownloadCount;
+  private final AtomicLong myDownloadedBytes;
+  private final AtomicLong myServerBytes;
+  private final AtomicLong myHashFailuresCount;
+  private final AtomicLong myTimeToFirstPeerTotalMs;
+  private final AtomicInteger myTimeToFirstPeerCount;
+  private final AtomicLong myTimeToFirstPieceTotalMs;
+  private final AtomicInteger myTimeToFirstPieceCount;
 
 
   public TorrentsDownloadStatistic() {
     this.mySuccessfulDownloadCount = new AtomicInteger(0);
     this.myFailedDownloadCount = new AtomicInteger(0);
+    this.myDownloadedBytes = new AtomicLong(0);
+    this.myServerBytes = new AtomicLong(0);
+    this.myHashFailuresCount = new AtomicLong(0);
+    this.myTimeToFirstPeerTotalMs = new AtomicLong(0);
+    this.myTimeToFirstPeerCount = new AtomicInteger(0);
+    this.myTimeToFirstPieceTotalMs = new AtomicLong(0);
+    this.myTimeToFirstPieceCount = new AtomicInteger(0);
   }
 
 
   public void reset() {
     mySuccessfulDownloadCount.set(0);
     myFailedDownloadCount.set(0);
+    myDownloadedBytes.set(0);
+    myServerBytes.set(0);
+    myHashFailuresCount.set(0);
+    myTimeToFirstPeerTotalMs.set(0);
+    myTimeToFirstPeerCount.set(0);
+    myTimeToFirstPieceTotalMs.set(0);
+    myTimeToFirstPieceCount.set(0);
+  }
+
+  public void reportCollected(TorrentDownloadReport report) {
+    myDownloadedBytes.addAndGet(report.getTotalBytes());
+    myServerBytes.addAndGet(report.getServerBytes());
+    myHashFailuresCount.addAndGet(report.getHashFailuresCount());
+    if (report.getTimeToFirstPeerMs() >= 0) {
+      myTimeToFirstPeerTotalMs.addAndGet(report.getTimeToFirstPeerMs());
+      myTimeToFirstPeerCount.incrementAndGet();
+    }
+    if (report.getTimeToFirstPieceMs() >= 0) {
+      myTimeToFirstPieceTotalMs.addAndGet(report.getTimeToFirstPieceMs());
+      myTimeToFirstPieceCount.incrementAndGet();
+    }
   }
 
   public void fileDownloaded() {
@@ -42,4 +82,26 @@ public class TorrentsDownloadStatistic {
     return myFailedDownloadCount.get();
   }
 
+  public long getDownloadedBytes() {
+    return myDownloadedBytes.get();
+  }
+
+  public long getServerBytes() {
+    return myServerBytes.get();
+  }
+
+  public long getHashFailuresCount() {
+    return myHashFailuresCount.get();
+  }
+
+  public long getAverageTimeToFirstPeerMs() {
+    final int count = myTimeToFirstPeerCount.get();
+    return count == 0 ? 0 : myTimeToFirstPeerTotalMs.get() / count;
+  }
+
+  public long getAverageTimeToFirstPieceMs() {
+    final int count = myTimeToFirstPieceCount.get();
+    return count == 0 ? 0 : myTimeToFirstPieceTotalMs.get() / count;
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+
+
+package jetbrains.buildServer.torrent.announce;
+
+import com.turn.ttorrent.common.AnnounceableInformation;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class AdaptiveAnnouncePolicyTest {
+
+  public void idleSeedBacksOffExponentially() {
+    AdaptiveAnnouncePolicy policy = new AdaptiveAnnouncePolicy(true, 100, 350);
+    final TestInfo seed = new TestInfo("01", 0, 0);
+    final List<TestInfo> torrents = Collections.singletonList(seed);
+
+    assertEquals(policy.selectForAnnounce(torrents, 0).size(), 1);
+    policy.announced(torrents, 0);
+    assertEquals(policy.selectForAnnounce(torrents, 50).size(), 1, "interval must start from the second idle round");
+    policy.announced(torrents, 50);
+
+    assertTrue(policy.selectForAnnounce(torrents, 149).isEmpty());
+    assertEquals(policy.selectForAnnounce(torrents, 150).size(), 1);
+    policy.announced(torrents, 150);
+
+    assertTrue(policy.selectForAnnounce(torrents, 349).isEmpty());
+    assertEquals(policy.selectForAnnounce(torrents, 350).size(), 1);
+    policy.announced(torrents, 350);
+
+    // bounded by max interval
+    assertTrue(policy.selectForAnnounce(torrents, 699).isEmpty());
+    assertEquals(policy.selectForAnnounce(torrents, 700).size(), 1);
+  }
+
+  public void intervalIsBoundedByTrackerExpireTimeout() {
+    final AtomicInteger expireTimeoutSec = new AtomicInteger(10);
+    AdaptiveAnnouncePolicy policy = new AdaptiveAnnouncePolicy(true, 2000, 60 * 1000, expireTimeoutSec);
+    final List<TestInfo> torrents = Collections.singletonList(new TestInfo("01", 0, 0));
+
+    policy.announced(torrents, 0);
+    policy.announced(torrents, 0);
+    policy.announced(torrents, 2000);
+    policy.announced(torrents, 6000);
+    // interval would be 8 seconds, but it is bounded by half of tracker expire timeout
+    assertTrue(policy.selectForAnnounce(torrents, 10999).isEmpty());
+    assertEquals(policy.selectForAnnounce(torrents, 11000).size(), 1);
+
+    // timeout is decreased on the tracker, already planned announce is moved closer
+    expireTimeoutSec.set(4);
+    assertEquals(policy.selectForAnnounce(torrents, 8000).size(), 1);
+  }
+
+  public void activeTorrentsAreAnnouncedEveryRound() {
+    AdaptiveAnnouncePolicy policy = new AdaptiveAnnouncePolicy(true, 100, 1000);
+    final TestInfo downloading = new TestInfo("01", 100, 0);
+    final TestInfo seed = new TestInfo("02", 0, 0);
+    final List<TestInfo> torrents = Arrays.asList(downloading, seed);
+
+    policy.announced(torrents, 0);
+    policy.announced(torrents, 1);
+    assertEquals(policy.selectForAnnounce(torrents, 2), Collections.singletonList(downloading));
+
+    seed.myUploaded = 1024;
+    assertEquals(policy.selectForAnnounce(torrents, 3), torrents, "requested seed must be announced");
+  }
+
+  public void disabledPolicyAnnouncesEverything() {
+    AdaptiveAnnouncePolicy policy = new AdaptiveAnnouncePolicy(false, 100, 1000);
+    final List<TestInfo> torrents = Collections.singletonList(new TestInfo("01", 0, 0));
+    policy.announced(torrents, 0);
+    policy.announced(torrents, 1);
+    assertEquals(policy.selectForAnnounce(torrents, 2).size(), 1);
+  }
+
+  private static class TestInfo implements AnnounceableInformation {
+    private final String myHash;
+    private final long myLeft;
+    private long myUploaded;
+
+    private TestInfo(String hash, long left, long uploaded) {
+      myHash = hash;
+      myLeft = left;
+      myUploaded = uploaded;
+    }
+
+    public long getUploaded() {
+      return myUploaded;
+    }
+
+    public long getDownloaded() {
+      return 0;
+    }
+
+    public long getLeft() {
+      return myLeft;
+    }
+
+    public List<List<String>> getAnnounceList() {
+      return Collections.emptyList();
+    }
+
+    public String getAnnounce() {
+      return "";
+    }
+
+    public byte[] getInfoHash() {
+      return new byte[0];
+    }
+
+    public String getHexInfoHash() {
+      return myHash;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+@Test
+public class AdaptiveThreadPoolExecutorTest {
+
+  private AdaptiveThreadPoolExecutor myExecutor;
+  private AdaptiveThreadPoolExecutor myOtherExecutor;
+  private CountDownLatch myRelease;
+
+  @BeforeMethod
+  public void setUp() {
+    myExecutor = null;
+    myOtherExecutor = null;
+    myRelease = new CountDownLatch(1);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    myRelease.countDown();
+    if (myExecutor != null) {
+      myExecutor.shutdownNow();
+    }
+    if (myOtherExecutor != null) {
+      myOtherExecutor.shutdownNow();
+    }
+  }
+
+  public void testGrowsWhileQueueIsDeepAndShrinksWhenIdle() throws Exception {
+    final MetricsRegistry.Histogram waitTime = new MetricsRegistry().histogram("wait", "wait", MetricsRegistry.LATENCY_BUCKETS_SEC);
+    myExecutor = new AdaptiveThreadPoolExecutor("test pool", 1, 3, 100, 1000, waitTime, newRejectedCounter());
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 10; i++) {
+      myExecutor.execute(new BlockingTask(release));
+    }
+
+    myExecutor.adjustPoolSize();
+    assertEquals(myExecutor.getMaximumPoolSize(), 2);
+    myExecutor.adjustPoolSize();
+    myExecutor.adjustPoolSize();
+    assertEquals(myExecutor.getMaximumPoolSize(), 3);
+    assertEquals(myExecutor.getCorePoolSize(), 3);
+
+    release.countDown();
+    myExecutor.shutdown();
+    assertTrue(myExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(waitTime.getCount(), 10);
+  }
+
+  public void testShrinksToMinSize() throws Exception {
+    final MetricsRegistry.Histogram waitTime = new MetricsRegistry().histogram("wait", "wait", MetricsRegistry.LATENCY_BUCKETS_SEC);
+    myExecutor = new AdaptiveThreadPoolExecutor("test pool", 1, 2, 100, 1000, waitTime, newRejectedCounter());
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int i = 0; i < 5; i++) {
+      myExecutor.execute(new BlockingTask(release));
+    }
+    myExecutor.adjustPoolSize();
+    assertEquals(myExecutor.getMaximumPoolSize(), 2);
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((myExecutor.getActiveCount() > 0 || !myExecutor.getQueue().isEmpty()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    myExecutor.adjustPoolSize();
+    myExecutor.adjustPoolSize();
+    assertEquals(myExecutor.getMaximumPoolSize(), 1);
+  }
+
+  public void testNetworkThreadIsNotBlockedWhenQueueIsFull() throws Exception {
+    final MetricsRegistry.Counter rejected = newRejectedCounter();
+    myExecutor = newFullExecutor(10000, rejected);
+    final long start = System.currentTimeMillis();
+    try {
+      myExecutor.execute(new BlockingTask(myRelease));
+      fail("task must be rejected immediately when queue is full");
+    } catch (RejectedExecutionException e) {
+      assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+    assertEquals(rejected.get(), 1);
+  }
+
+  public void testThreadOfTheSamePoolIsNotBlocked() throws Exception {
+    final MetricsRegistry.Counter rejected = newRejectedCounter();
+    myExecutor = new AdaptiveThreadPoolExecutor("test pool", 2, 2, 1, 10000, newWaitTime(), rejected);
+    myExecutor.execute(new BlockingTask(myRelease));
+    final Future<?> submitter = myExecutor.submit(new Runnable() {
+      public void run() {
+        myExecutor.execute(new BlockingTask(myRelease));
+        myExecutor.execute(new BlockingTask(myRelease));
+      }
+    });
+    try {
+      submitter.get(5, TimeUnit.SECONDS);
+      fail("task must be rejected immediately when queue is full");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    assertEquals(rejected.get(), 1);
+  }
+
+  public void testThreadOfOtherPoolWaitsForFreeSpace() throws Exception {
+    final MetricsRegistry.Counter rejected = newRejectedCounter();
+    myExecutor = newFullExecutor(10000, rejected);
+    myOtherExecutor = new AdaptiveThreadPoolExecutor("other pool", 1, 1, 1, 10000, newWaitTime(), newRejectedCounter());
+    final CountDownLatch executed = new CountDownLatch(1);
+    final Future<?> submitter = myOtherExecutor.submit(new Runnable() {
+      public void run() {
+        myExecutor.execute(new Runnable() {
+          public void run() {
+            executed.countDown();
+          }
+        });
+      }
+    });
+    Thread.sleep(200);
+    assertFalse(submitter.isDone());
+
+    myRelease.countDown();
+    submitter.get(5, TimeUnit.SECONDS);
+    assertTrue(executed.await(5, TimeUnit.SECONDS));
+    assertEquals(rejected.get(), 0);
+  }
+
+  public void testThreadOfOtherPoolIsRejectedAfterTimeout() throws Exception {
+    final MetricsRegistry.Counter rejected = newRejectedCounter();
+    myExecutor = newFullExecutor(100, rejected);
+    myOtherExecutor = new AdaptiveThreadPoolExecutor("other pool", 1, 1, 1, 10000, newWaitTime(), newRejectedCounter());
+    final long start = System.currentTimeMillis();
+    final Future<?> submitter = myOtherExecutor.submit(new Runnable() {
+      public void run() {
+        myExecutor.execute(new BlockingTask(myRelease));
+      }
+    });
+    try {
+      submitter.get(5, TimeUnit.SECONDS);
+      fail("task must be rejected when queue is full after timeout");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+      assertTrue(System.currentTimeMillis() - start >= 90);
+    }
+    assertEquals(rejected.get(), 1);
+  }
+
+  public void testWaitingThreadIsRejectedOnShutdown() throws Exception {
+    myExecutor = newFullExecutor(10000, newRejectedCounter());
+    myOtherExecutor = new AdaptiveThreadPoolExecutor("other pool", 1, 1, 1, 10000, newWaitTime(), newRejectedCounter());
+    final Future<?> submitter = myOtherExecutor.submit(new Runnable() {
+      public void run() {
+        myExecutor.execute(new BlockingTask(myRelease));
+      }
+    });
+    Thread.sleep(200);
+    myExecutor.shutdown();
+    try {
+      submitter.get(5, TimeUnit.SECONDS);
+      fail("waiting task must be rejected when pool is shut down");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+  }
+
+  private AdaptiveThreadPoolExecutor newFullExecutor(long backPressureTimeoutMs, MetricsRegistry.Counter rejected) {
+    final AdaptiveThreadPoolExecutor executor = new AdaptiveThreadPoolExecutor("test pool", 1, 1, 1, backPressureTimeoutMs, newWaitTime(), rejected);
+    executor.execute(new BlockingTask(myRelease));
+    executor.execute(new BlockingTask(myRelease));
+    return executor;
+  }
+
+  private static MetricsRegistry.Histogram newWaitTime() {
+    return new MetricsRegistry().histogram("wait", "wait", MetricsRegistry.LATENCY_BUCKETS_SEC);
+  }
+
+  private static MetricsRegistry.Counter newRejectedCounter() {
+    return new MetricsRegistry().counter("rejected", "rejected");
+  }
+
+  private static class BlockingTask implements Runnable {
+    private final CountDownLatch myLatch;
+
+    BlockingTask(CountDownLatch latch) {
+      myLatch = latch;
+    }
+
+    public void run() {
+      try {
+        myLatch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
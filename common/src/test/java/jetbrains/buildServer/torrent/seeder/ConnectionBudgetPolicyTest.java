@@ -0,0 +1,86 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class ConnectionBudgetPolicyTest {
+
+  public void testIdleDirectionsKeepConfiguredLimits() {
+    final ConnectionBudgetPolicy policy = new ConnectionBudgetPolicy(5, 10);
+    final ConnectionBudgetPolicy.Budget budget = policy.update(60, 40, new HashMap<String, ConnectionBudgetPolicy.Transfer>());
+    assertEquals(budget.getIncoming(), 60);
+    assertEquals(budget.getOutgoing(), 40);
+  }
+
+  public void testSeedingNodeGetsIncomingConnections() {
+    final ConnectionBudgetPolicy policy = new ConnectionBudgetPolicy(5, 10);
+    final Map<String, ConnectionBudgetPolicy.Transfer> transfers = new HashMap<String, ConnectionBudgetPolicy.Transfer>();
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(0, 0));
+    transfers.put("b", new ConnectionBudgetPolicy.Transfer(0, 0));
+    policy.update(50, 50, transfers);
+
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(1000, 0));
+    transfers.put("b", new ConnectionBudgetPolicy.Transfer(1000, 0));
+    final ConnectionBudgetPolicy.Budget budget = policy.update(50, 50, transfers);
+    assertEquals(budget.getIncoming(), 90);
+    assertEquals(budget.getOutgoing(), 10);
+
+    // swarms became idle, configured limits are restored
+    final ConnectionBudgetPolicy.Budget idle = policy.update(50, 50, transfers);
+    assertEquals(idle.getIncoming(), 50);
+    assertEquals(idle.getOutgoing(), 50);
+  }
+
+  public void testBusyDirectionGetsConnectionsOfIdleDirection() {
+    final ConnectionBudgetPolicy policy = new ConnectionBudgetPolicy(5, 10);
+    final Map<String, ConnectionBudgetPolicy.Transfer> transfers = new HashMap<String, ConnectionBudgetPolicy.Transfer>();
+    for (int i = 0; i < 30; i++) {
+      transfers.put("up" + i, new ConnectionBudgetPolicy.Transfer(1, 0));
+    }
+    final ConnectionBudgetPolicy.Budget budget = policy.update(20, 100, transfers);
+    assertEquals(budget.getIncoming(), 110);
+    assertEquals(budget.getOutgoing(), 10);
+  }
+
+  public void testDemandIsScaledToBudget() {
+    final ConnectionBudgetPolicy policy = new ConnectionBudgetPolicy(10, 5);
+    final Map<String, ConnectionBudgetPolicy.Transfer> transfers = new HashMap<String, ConnectionBudgetPolicy.Transfer>();
+    for (int i = 0; i < 30; i++) {
+      transfers.put("up" + i, new ConnectionBudgetPolicy.Transfer(1, 0));
+    }
+    for (int i = 0; i < 10; i++) {
+      transfers.put("down" + i, new ConnectionBudgetPolicy.Transfer(0, 1));
+    }
+    final ConnectionBudgetPolicy.Budget budget = policy.update(80, 80, transfers);
+    assertEquals(budget.getIncoming(), 120);
+    assertEquals(budget.getOutgoing(), 40);
+  }
+
+  public void testStartedDownloadGetsOutgoingConnectionsBeforeData() {
+    final ConnectionBudgetPolicy policy = new ConnectionBudgetPolicy(5, 1);
+    final Map<String, ConnectionBudgetPolicy.Transfer> transfers = new HashMap<String, ConnectionBudgetPolicy.Transfer>();
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(1000, 0));
+    assertEquals(policy.update(50, 50, transfers).getOutgoing(), 1);
+
+    policy.downloadStarted("b");
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(2000, 0));
+    assertEquals(policy.update(50, 50, transfers).getOutgoing(), 5);
+
+    // download is loaded, but hasn't received data yet
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(3000, 0));
+    transfers.put("b", new ConnectionBudgetPolicy.Transfer(0, 0));
+    assertEquals(policy.update(50, 50, transfers).getOutgoing(), 5);
+
+    policy.downloadFinished("b");
+    transfers.remove("b");
+    transfers.put("a", new ConnectionBudgetPolicy.Transfer(4000, 0));
+    assertEquals(policy.update(50, 50, transfers).getOutgoing(), 1);
+  }
+}
@@ -0,0 +1,55 @@
+
+
+package jetbrains.buildServer.torrent.seeder;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+@Test
+public class LrfuEvictionPolicyTest {
+
+  private static final long HOUR = 60 * 60 * 1000L;
+
+  public void testFrequentlyRequestedTorrentIsKept() {
+    final LrfuEvictionPolicy policy = new LrfuEvictionPolicy(HOUR);
+    policy.onAdded("popular", 0);
+    policy.onAdded("rare", 0);
+    for (int i = 1; i <= 5; i++) {
+      policy.onAccessed("popular", i * 1000);
+    }
+    policy.onAdded("new", 10 * 1000);
+
+    assertEquals(policy.selectVictim("new", 10 * 1000), "rare");
+    policy.onRemoved("rare");
+    assertEquals(policy.selectVictim(null, 10 * 1000), "new");
+    assertEquals(policy.selectVictim("new", 10 * 1000), "popular");
+  }
+
+  public void testPopularityFades() {
+    final LrfuEvictionPolicy policy = new LrfuEvictionPolicy(HOUR);
+    policy.onAdded("old", 0);
+    for (int i = 1; i <= 3; i++) {
+      policy.onAccessed("old", i);
+    }
+    policy.onAdded("recent", 3 * HOUR);
+
+    // score of old torrent halved 3 times: 4 / 8 < 1
+    assertEquals(policy.selectVictim(null, 3 * HOUR), "old");
+    // right after requests old torrent wins
+    assertEquals(policy.selectVictim(null, 10), "recent");
+  }
+
+  public void testTiesAreBrokenByLastAccess() {
+    final LrfuEvictionPolicy policy = new LrfuEvictionPolicy(Long.MAX_VALUE);
+    policy.onAdded("first", 0);
+    policy.onAdded("second", 1);
+
+    assertEquals(policy.selectVictim(null, 2), "first");
+    assertEquals(policy.selectVictim("first", 2), "second");
+    policy.onRemoved("first");
+    policy.onRemoved("second");
+    assertNull(policy.selectVictim(null, 2));
+  }
+}
@@ -183,6 +183,78 @@ public class TorrentFilesDBTest extends BaseTestCase {
     assertEquals(3, counter[0]);
   }
 
+  public void eviction_policy_keeps_requested_torrents() throws IOException {
+    File dbFile = createTempFile();
+    TorrentFilesDB db = new TorrentFilesDB(dbFile, 3, null, null, new LrfuEvictionPolicy(60 * 60 * 1000L));
+
+    final File popular = createTempFile();
+    final File popularTorrent = createTempFile();
+    db.addFileAndTorrent(popular, popularTorrent);
+    db.addFileAndTorrent(createTempFile(), createTempFile());
+    db.addFileAndTorrent(createTempFile(), createTempFile());
+    db.recordAccess(popular);
+    db.recordAccess(popular);
+
+    for (int i=0; i<5; i++) {
+      final File srcFile = createTempFile();
+      db.addFileAndTorrent(srcFile, createTempFile());
+      // just registered torrent is never evicted
+      assertTrue(db.getFileAndTorrentMap().containsKey(srcFile));
+    }
+
+    assertEquals(3, db.getFileAndTorrentMap().size());
+    assertEquals(popularTorrent, db.getFileAndTorrentMap().get(popular));
+  }
+
+  public void seeded_bytes_limit() throws IOException {
+    File dbFile = createTempFile();
+    TorrentFilesDB db = new TorrentFilesDB(dbFile, 10, null, null);
+    db.setMaxSeededBytes(3000);
+
+    final File first = createTempFile(1000);
+    final File second = createTempFile(1000);
+    db.addFileAndTorrent(first, createTempFile());
+    db.addFileAndTorrent(second, createTempFile());
+    assertEquals(2000, db.getSeededBytes());
+
+    final File third = createTempFile(1500);
+    db.addFileAndTorrent(third, createTempFile());
+
+    // count limit is not reached, but oldest torrent is evicted to respect size limit
+    assertEquals(2, db.getFileAndTorrentMap().size());
+    assertFalse(db.getFileAndTorrentMap().containsKey(first));
+    assertEquals(2500, db.getSeededBytes());
+
+    db.removeSrcFile(second);
+    assertEquals(1500, db.getSeededBytes());
+
+    // file larger than the limit is kept until other torrents are registered
+    final File huge = createTempFile(5000);
+    db.addFileAndTorrent(huge, createTempFile());
+    assertEquals(1, db.getFileAndTorrentMap().size());
+    assertTrue(db.getFileAndTorrentMap().containsKey(huge));
+    assertEquals(5000, db.getSeededBytes());
+
+    db.setMaxSeededBytes(0);
+    db.addFileAndTorrent(third, createTempFile());
+    assertEquals(2, db.getFileAndTorrentMap().size());
+    assertEquals(6500, db.getSeededBytes());
+  }
+
+  public void seeded_bytes_limit_decreased() throws IOException {
+    File dbFile = createTempFile();
+    TorrentFilesDB db = new TorrentFilesDB(dbFile, 10, null, null);
+
+    for (int i=0; i<5; i++) {
+      db.addFileAndTorrent(createTempFile(1000), createTempFile());
+    }
+    assertEquals(5000, db.getSeededBytes());
+
+    db.setMaxSeededBytes(2500);
+    assertEquals(2, db.getFileAndTorrentMap().size());
+    assertEquals(2000, db.getSeededBytes());
+  }
+
   @AfterMethod
   @Override
   protected void tearDown() throws Exception {
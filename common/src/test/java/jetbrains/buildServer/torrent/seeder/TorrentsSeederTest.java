@@ -21,6 +21,7 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Collections;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -86,6 +87,27 @@ public class TorrentsSeederTest extends BaseTestCase {
     assertFalse(myDirectorySeeder.isSeeding(torrentFile));
   }
 
+  public void demoted_torrent_is_seeded_again_when_restored() throws IOException, InterruptedException {
+    final File srcFile = createTempFile(65535);
+    final File torrentFile = createTorrentFromFile(srcFile, srcFile.getParentFile());
+    myDirectorySeeder.registerSrcAndTorrentFile(srcFile, torrentFile, true);
+    final String hash = TorrentUtil.loadTorrent(torrentFile).getHexInfoHash();
+
+    myDirectorySeeder.setDemoted(Collections.singleton(hash));
+    assertFalse(myDirectorySeeder.isSeeding(torrentFile));
+    assertEquals(Collections.singleton(hash), myDirectorySeeder.getDemoted());
+    assertTrue(myDirectorySeeder.getRegisteredTorrentFiles().contains(torrentFile));
+
+    myDirectorySeeder.setDemoted(Collections.<String>emptySet());
+    assertTrue(myDirectorySeeder.isSeeding(torrentFile));
+    assertTrue(myDirectorySeeder.getDemoted().isEmpty());
+  }
+
+  public void unknown_torrent_is_not_demoted() {
+    myDirectorySeeder.setDemoted(Collections.singleton("unknown"));
+    assertTrue(myDirectorySeeder.getDemoted().isEmpty());
+  }
+
   private File createTorrentFromFile(File srcFile, File torrentDir) throws InterruptedException, IOException {
     File torrentFile = new File(torrentDir, srcFile.getName() + ".torrent");
     final TorrentMetadata torrent = TorrentCreator.create(srcFile, myTracker.getAnnounceURI(), "Test");
@@ -0,0 +1,183 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.client.storage.PieceStorageFactory;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import com.turn.ttorrent.common.TorrentMetadata;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class PieceStoragePoolTest {
+
+  public void testLeastRecentlyUsedStorageIsClosed() throws Exception {
+    final PieceStoragePool pool = new PieceStoragePool(2);
+    final FakeStorage first = new FakeStorage();
+    final FakeStorage second = new FakeStorage();
+    final FakeStorage third = new FakeStorage();
+    final PieceStorage pooledFirst = pool.pooled(factoryOf(first)).createStorage(null, null);
+    final PieceStorage pooledSecond = pool.pooled(factoryOf(second)).createStorage(null, null);
+
+    // first becomes most recently used
+    pooledFirst.readPiecePart(0, 0, 10);
+    pool.pooled(factoryOf(third)).createStorage(null, null);
+
+    assertEquals(pool.getOpenStoragesCount(), 2);
+    assertEquals(first.myCloseCount, 0);
+    assertEquals(second.myCloseCount, 1);
+    assertEquals(third.myCloseCount, 0);
+    assertEquals(pool.getEvictedCount(), 1);
+
+    // evicted storage is registered again on next access
+    pooledSecond.readPiecePart(0, 0, 10);
+    assertEquals(pool.getOpenStoragesCount(), 2);
+    assertEquals(first.myCloseCount, 1);
+  }
+
+  public void testStorageInUseIsClosedAfterUsage() throws Exception {
+    final PieceStoragePool pool = new PieceStoragePool(1);
+    final FakeStorage first = new FakeStorage();
+    final FakeStorage second = new FakeStorage();
+    final PieceStorage[] pooledSecond = new PieceStorage[1];
+    first.myOnRead = new Runnable() {
+      public void run() {
+        try {
+          // registration of another storage while first one is used must not close it
+          pooledSecond[0] = pool.pooled(factoryOf(second)).createStorage(null, null);
+          assertEquals(first.myCloseCount, 0);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    final PieceStorage pooledFirst = pool.pooled(factoryOf(first)).createStorage(null, null);
+    pooledFirst.readPiecePart(0, 0, 10);
+
+    assertEquals(first.myCloseCount, 0);
+    assertEquals(second.myCloseCount, 1);
+
+    pool.setMaxOpenStorages(0);
+    assertEquals(first.myCloseCount, 1);
+    assertEquals(pool.getOpenStoragesCount(), 0);
+  }
+
+  public void testIdleStoragesAreClosed() throws Exception {
+    final PieceStoragePool pool = new PieceStoragePool(10);
+    final FakeStorage storage = new FakeStorage();
+    pool.pooled(factoryOf(storage)).createStorage(null, null);
+
+    pool.closeIdle(60 * 1000);
+    assertEquals(storage.myCloseCount, 0);
+
+    Thread.sleep(20);
+    pool.closeIdle(10);
+    assertEquals(storage.myCloseCount, 1);
+    assertEquals(pool.getOpenStoragesCount(), 0);
+  }
+
+  public void testStorageUsedAgainAfterEvictionIsNotClosed() throws Exception {
+    final PieceStoragePool pool = new PieceStoragePool(10);
+    final FakeStorage first = new FakeStorage();
+    final FakeStorage second = new FakeStorage();
+    pool.pooled(factoryOf(first)).createStorage(null, null);
+    final PieceStorage pooledSecond = pool.pooled(factoryOf(second)).createStorage(null, null);
+
+    final CountDownLatch secondIsUsed = new CountDownLatch(1);
+    final CountDownLatch secondClosingRequested = new CountDownLatch(1);
+    final Thread reader = new Thread(new Runnable() {
+      public void run() {
+        try {
+          pooledSecond.readPiecePart(0, 0, 10);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    second.myOnRead = new Runnable() {
+      public void run() {
+        secondIsUsed.countDown();
+        await(secondClosingRequested);
+      }
+    };
+    // both storages are evicted, second one is used again while first one is being closed
+    first.myOnClose = new Runnable() {
+      public void run() {
+        reader.start();
+        await(secondIsUsed);
+      }
+    };
+    Thread.sleep(20);
+    pool.closeIdle(10);
+    secondClosingRequested.countDown();
+    reader.join(10000);
+
+    assertEquals(first.myCloseCount, 1);
+    assertEquals(second.myCloseCount, 0);
+    assertEquals(pool.getOpenStoragesCount(), 1);
+    assertEquals(pool.getEvictedCount(), 2);
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static PieceStorageFactory factoryOf(final PieceStorage storage) {
+    return new PieceStorageFactory() {
+      public PieceStorage createStorage(TorrentMetadata metadata, TorrentByteStorage byteStorage) {
+        return storage;
+      }
+    };
+  }
+
+  private static class FakeStorage implements PieceStorage {
+    private int myCloseCount;
+    private Runnable myOnRead;
+    private Runnable myOnClose;
+
+    public void savePiece(int pieceIndex, byte[] pieceData) {
+    }
+
+    public byte[] readPiecePart(int pieceIndex, int offset, int length) {
+      if (myOnRead != null) {
+        final Runnable onRead = myOnRead;
+        myOnRead = null;
+        onRead.run();
+      }
+      return new byte[length];
+    }
+
+    public BitSet getAvailablePieces() {
+      return new BitSet();
+    }
+
+    public boolean isFinished() {
+      return true;
+    }
+
+    public void closeFully() {
+      myCloseCount++;
+    }
+
+    public void close() {
+      myCloseCount++;
+      if (myOnClose != null) {
+        final Runnable onClose = myOnClose;
+        myOnClose = null;
+        onClose.run();
+      }
+    }
+  }
+}
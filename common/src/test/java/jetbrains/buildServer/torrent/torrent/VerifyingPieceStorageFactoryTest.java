@@ -0,0 +1,102 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.turn.ttorrent.client.storage.FileCollectionStorage;
+import com.turn.ttorrent.client.storage.PieceStorage;
+import com.turn.ttorrent.common.TorrentCreator;
+import com.turn.ttorrent.common.TorrentMetadata;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.Random;
+
+@Test
+public class VerifyingPieceStorageFactoryTest extends BaseTestCase {
+
+  public void testValidFileIsSeeded() throws Exception {
+    final File srcFile = createSrcFile();
+    final TorrentMetadata metadata = createMetadata(srcFile);
+
+    final PieceStorage storage = createStorage(metadata, srcFile);
+    try {
+      assertEquals(metadata.getPiecesCount(), storage.getAvailablePieces().cardinality());
+      assertEquals(100, storage.readPiecePart(1, 0, 100).length);
+    } finally {
+      storage.close();
+    }
+  }
+
+  public void testTruncatedFileIsRejectedAtRegistration() throws Exception {
+    final File srcFile = createSrcFile();
+    final TorrentMetadata metadata = createMetadata(srcFile);
+    final RandomAccessFile file = new RandomAccessFile(srcFile, "rw");
+    try {
+      file.setLength(srcFile.length() - 10);
+    } finally {
+      file.close();
+    }
+
+    try {
+      createStorage(metadata, srcFile);
+      fail("truncated file must not be seeded");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testCorruptedPieceIsNotSent() throws Exception {
+    final File srcFile = createSrcFile();
+    final TorrentMetadata metadata = createMetadata(srcFile);
+    final RandomAccessFile file = new RandomAccessFile(srcFile, "rw");
+    try {
+      file.seek(metadata.getPieceLength() + 5);
+      file.write(file.read() + 1);
+    } finally {
+      file.close();
+    }
+
+    final PieceStorage storage = new VerifyingPieceStorageFactory(0)
+            .createStorage(metadata, FileCollectionStorage.create(metadata, srcFile.getParentFile()));
+    try {
+      try {
+        storage.readPiecePart(1, 0, 100);
+        fail("corrupted piece must not be read");
+      } catch (IOException e) {
+        // expected
+      }
+      assertFalse(storage.getAvailablePieces().get(1));
+      assertEquals(100, storage.readPiecePart(0, 0, 100).length);
+    } finally {
+      storage.close();
+    }
+  }
+
+  private PieceStorage createStorage(TorrentMetadata metadata, File srcFile) throws IOException {
+    return new VerifyingPieceStorageFactory(VerifyingPieceStorageFactory.DEFAULT_SAMPLED_PIECES_COUNT)
+            .createStorage(metadata, FileCollectionStorage.create(metadata, srcFile.getParentFile()));
+  }
+
+  private File createSrcFile() throws IOException {
+    final File srcFile = new File(createTempDir(), "artifact.bin");
+    final byte[] data = new byte[3 * 1024 * 1024 + 123];
+    new Random(42).nextBytes(data);
+    final FileOutputStream out = new FileOutputStream(srcFile);
+    try {
+      out.write(data);
+    } finally {
+      FileUtil.close(out);
+    }
+    return srcFile;
+  }
+
+  private TorrentMetadata createMetadata(File srcFile) throws Exception {
+    return TorrentCreator.create(srcFile, URI.create("http://localhost:6969/announce"), "test");
+  }
+}
@@ -0,0 +1,133 @@
+
+
+package jetbrains.buildServer.torrent.torrent;
+
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+@Test
+public class WriteBehindByteStorageTest {
+
+  public void testPiecesAreWrittenInOffsetOrder() throws Exception {
+    final RecordingStorage delegate = new RecordingStorage(40);
+    final WriteBehindByteStorage storage = new WriteBehindByteStorage(delegate, 30);
+
+    storage.write(piece(2), 20);
+    storage.write(piece(0), 0);
+    assertEquals(delegate.myWrites.size(), 0);
+    assertEquals(storage.getPendingBytes(), 20);
+
+    storage.write(piece(1), 10);
+    storage.write(piece(3), 30);
+    // budget was exceeded by the fourth piece
+    assertEquals(delegate.myWrites, Arrays.asList(0L, 10L, 20L));
+
+    storage.finish();
+    assertEquals(delegate.myWrites, Arrays.asList(0L, 10L, 20L, 30L));
+    assertEquals(delegate.myData[35], 3);
+    assertEquals(storage.getPendingBytes(), 0);
+  }
+
+  public void testPendingDataIsWrittenBeforeRead() throws Exception {
+    final RecordingStorage delegate = new RecordingStorage(20);
+    final WriteBehindByteStorage storage = new WriteBehindByteStorage(delegate, 100);
+    storage.write(piece(7), 10);
+
+    final ByteBuffer buffer = ByteBuffer.allocate(10);
+    storage.read(buffer, 10);
+    assertEquals(buffer.get(0), 7);
+  }
+
+  public void testPendingPiecesAreNotCopied() throws Exception {
+    final RecordingStorage delegate = new RecordingStorage(20);
+    final WriteBehindByteStorage storage = new WriteBehindByteStorage(delegate, 100);
+    final ByteBuffer piece = piece(5);
+
+    assertEquals(storage.write(piece, 10), 10);
+    assertEquals(piece.remaining(), 0);
+
+    storage.finish();
+    assertSame(delegate.myLastWrittenArray, piece.array());
+    assertEquals(delegate.myData[15], 5);
+  }
+
+  public void testOnlyOverlappingPiecesAreWrittenBeforeRead() throws Exception {
+    final RecordingStorage delegate = new RecordingStorage(40);
+    final WriteBehindByteStorage storage = new WriteBehindByteStorage(delegate, 100);
+    storage.write(piece(0), 0);
+    storage.write(piece(1), 10);
+    storage.write(piece(2), 20);
+    storage.write(piece(3), 30);
+
+    final ByteBuffer buffer = ByteBuffer.allocate(10);
+    storage.read(buffer, 15);
+    assertEquals(delegate.myWrites, Arrays.asList(10L, 20L));
+    assertEquals(buffer.get(0), 1);
+    assertEquals(buffer.get(5), 2);
+    assertEquals(storage.getPendingBytes(), 20);
+
+    storage.finish();
+    assertEquals(delegate.myWrites, Arrays.asList(10L, 20L, 0L, 30L));
+  }
+
+  private static ByteBuffer piece(int value) {
+    final byte[] data = new byte[10];
+    Arrays.fill(data, (byte) value);
+    return ByteBuffer.wrap(data);
+  }
+
+  private static class RecordingStorage implements TorrentByteStorage {
+    private final byte[] myData;
+    private final List<Long> myWrites = new ArrayList<Long>();
+    private byte[] myLastWrittenArray;
+    private int myLength;
+
+    RecordingStorage(int size) {
+      myData = new byte[size];
+    }
+
+    public void open(boolean seeder) {
+    }
+
+    public int read(ByteBuffer buffer, long position) {
+      if (position >= myLength) return -1;
+      final int length = Math.min(buffer.remaining(), myLength - (int) position);
+      buffer.put(myData, (int) position, length);
+      return length;
+    }
+
+    public int write(ByteBuffer block, long position) {
+      myWrites.add(position);
+      myLastWrittenArray = block.hasArray() ? block.array() : null;
+      final int length = block.remaining();
+      block.get(myData, (int) position, length);
+      myLength = Math.max(myLength, (int) position + length);
+      return length;
+    }
+
+    public void finish() {
+    }
+
+    public boolean isFinished() {
+      return false;
+    }
+
+    public boolean isClosed() {
+      return false;
+    }
+
+    public void delete() {
+    }
+
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,53 @@
+
+
+package jetbrains.buildServer.torrent.util;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class MetricsRegistryTest {
+
+  public void testPrometheusTextFormat() {
+    final MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("test_bytes_total", "Bytes").add(42);
+    registry.gauge("test_queue_size", "Queue", new MetricsRegistry.GaugeValue() {
+      public double getValue() {
+        return 3;
+      }
+    });
+    final MetricsRegistry.Histogram histogram = registry.histogram("test_seconds", "Latency", new double[]{0.1, 1});
+    histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(50));
+    histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(500));
+    histogram.observeNanos(TimeUnit.SECONDS.toNanos(2));
+
+    assertEquals(registry.asText(),
+            "# HELP test_bytes_total Bytes\n" +
+            "# TYPE test_bytes_total counter\n" +
+            "test_bytes_total 42\n" +
+            "# HELP test_queue_size Queue\n" +
+            "# TYPE test_queue_size gauge\n" +
+            "test_queue_size 3\n" +
+            "# HELP test_seconds Latency\n" +
+            "# TYPE test_seconds histogram\n" +
+            "test_seconds_bucket{le=\"0.1\"} 1\n" +
+            "test_seconds_bucket{le=\"1\"} 2\n" +
+            "test_seconds_bucket{le=\"+Inf\"} 3\n" +
+            "test_seconds_sum 2.55\n" +
+            "test_seconds_count 3\n");
+  }
+
+  public void testSameMetricIsReturnedForSameName() {
+    final MetricsRegistry registry = new MetricsRegistry();
+    final MetricsRegistry.Counter counter = registry.counter("test_total", "Test");
+    counter.inc();
+    assertSame(registry.counter("test_total", "Test"), counter);
+    registry.remove("test_total");
+    assertTrue(registry.asText().isEmpty());
+  }
+}
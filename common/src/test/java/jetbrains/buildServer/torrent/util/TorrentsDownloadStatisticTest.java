@@ -6,7 +6,10 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Collections;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 @Test
 public class TorrentsDownloadStatisticTest {
@@ -35,6 +38,36 @@ public class TorrentsDownloadStatisticTest {
 
   }
 
+  public void testDownloadReport() {
+    final TorrentDownloadReport report = new TorrentDownloadReport(Collections.singletonList("10.0.0.1"));
+    assertEquals(report.getTimeToFirstPeerMs(), -1);
+    assertEquals(report.getTimeToFirstPieceMs(), -1);
+
+    report.peerConnected();
+    report.pieceReceived();
+    report.pieceDownloaded("10.0.0.1", 6881, 100);
+    report.pieceReceived();
+    report.pieceReceived();
+    report.pieceDownloaded("10.0.0.2", 6881, 300);
+    report.finished();
+
+    assertEquals(report.getServerBytes(), 100);
+    assertEquals(report.getAgentsBytes(), 300);
+    assertEquals(report.getTotalBytes(), 400);
+    assertEquals(report.getHashFailuresCount(), 1);
+    assertEquals(report.getBytesByPeer().get("10.0.0.2:6881"), Long.valueOf(300));
+    assertTrue(report.getTimeToFirstPeerMs() >= 0);
+    assertTrue(report.getTotalTimeMs() >= report.getTimeToFirstPieceMs());
+
+    myTorrentsDownloadStatistic.reportCollected(report);
+    myTorrentsDownloadStatistic.reportCollected(new TorrentDownloadReport(Collections.<String>emptyList()));
+
+    assertEquals(myTorrentsDownloadStatistic.getDownloadedBytes(), 400);
+    assertEquals(myTorrentsDownloadStatistic.getServerBytes(), 100);
+    assertEquals(myTorrentsDownloadStatistic.getHashFailuresCount(), 1);
+    assertEquals(myTorrentsDownloadStatistic.getAverageTimeToFirstPeerMs(), report.getTimeToFirstPeerMs());
+  }
+
   @AfterMethod
   public void tearDown() {
     myTorrentsDownloadStatistic.reset();
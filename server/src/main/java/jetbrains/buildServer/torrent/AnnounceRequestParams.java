@@ -0,0 +1,128 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.TorrentUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight parser of http announce request parameters. Used for fast paths of tracker
+ * which don't require complete processing of announce request.
+ */
+public class AnnounceRequestParams {
+
+  private static final String BYTE_ENCODING = "ISO-8859-1";
+
+  @NotNull private final Map<String, String> myParams;
+
+  private AnnounceRequestParams(@NotNull Map<String, String> params) {
+    myParams = params;
+  }
+
+  /**
+   * @param uri announce uri with query string
+   * @return parsed parameters or null if uri doesn't contain required parameters
+   */
+  @Nullable
+  public static AnnounceRequestParams parse(@NotNull String uri) {
+    final int queryStart = uri.indexOf('?');
+    if (queryStart < 0) return null;
+
+    Map<String, String> params = new HashMap<>();
+    for (String pair : uri.substring(queryStart + 1).split("&")) {
+      final int eqIdx = pair.indexOf('=');
+      if (eqIdx <= 0) continue;
+      try {
+        params.put(pair.substring(0, eqIdx), URLDecoder.decode(pair.substring(eqIdx + 1), BYTE_ENCODING));
+      } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+        return null;
+      }
+    }
+    if (!params.containsKey("info_hash") || !params.containsKey("peer_id") || !params.containsKey("port")) {
+      return null;
+    }
+    AnnounceRequestParams result = new AnnounceRequestParams(params);
+    try {
+      result.getPort();
+      result.getLeft();
+      result.getUploaded();
+      result.getDownloaded();
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return result;
+  }
+
+  @NotNull
+  public byte[] getInfoHash() {
+    return getBytes("info_hash");
+  }
+
+  @NotNull
+  public String getHexInfoHash() {
+    return TorrentUtils.byteArrayToHexString(getInfoHash());
+  }
+
+  @NotNull
+  public byte[] getPeerId() {
+    return getBytes("peer_id");
+  }
+
+  @NotNull
+  public String getHexPeerId() {
+    return TorrentUtils.byteArrayToHexString(getPeerId());
+  }
+
+  public int getPort() {
+    return Integer.parseInt(myParams.get("port"));
+  }
+
+  @Nullable
+  public String getIp() {
+    return myParams.get("ip");
+  }
+
+  public long getLeft() {
+    return getLong("left");
+  }
+
+  public long getUploaded() {
+    return getLong("uploaded");
+  }
+
+  public long getDownloaded() {
+    return getLong("downloaded");
+  }
+
+  public boolean isCompact() {
+    return "1".equals(myParams.get("compact"));
+  }
+
+  /**
+   * @return true if request is regular announce without any events (started, stopped, completed)
+   */
+  public boolean isRegularAnnounce() {
+    final String event = myParams.get("event");
+    return event == null || event.isEmpty() || "none".equalsIgnoreCase(event);
+  }
+
+  private long getLong(@NotNull String name) {
+    final String value = myParams.get(name);
+    return value == null ? 0 : Long.parseLong(value);
+  }
+
+  @NotNull
+  private byte[] getBytes(@NotNull String name) {
+    try {
+      return myParams.get(name).getBytes(BYTE_ENCODING);
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -7,13 +7,21 @@ import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
 import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
 import jetbrains.buildServer.torrent.torrent.TorrentUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 /**
- * Artifact processor, that for each artifact try find torrent file and start seeding, if torrent file exist
+ * Artifact processor, that for each artifact try find torrent file and start seeding, if torrent file exist.
+ * <p>
+ * Existence of artifacts and torrent files is checked by one listing per directory,
+ * artifacts of different directories are resolved in parallel.
+ * Artifacts can be streamed to processor in batches during collecting (see {@link #submitBatch(List)}),
+ * in this case {@link #processArtifacts(List)} only waits for streamed batches.
+ * Artifacts without torrent files are passed to {@link ServerTorrentGenerator} if it is specified.
  */
 public class ArtifactProcessorImpl implements ArtifactProcessor {
 
@@ -22,49 +30,171 @@ public class ArtifactProcessorImpl implements ArtifactProcessor {
   @NotNull private final Path myTorrentsDir;
   @NotNull private final Path myArtifactsDirectory;
   @NotNull private final TorrentsSeeder myTorrentsSeeder;
+  // serializes registration of torrents of this build from batches and torrent generator callbacks
+  @NotNull private final Object myRegisterLock = new Object();
   @NotNull private final TorrentConfigurator myConfigurator;
+  @Nullable private final ArtifactsPipelineTimings myTimings;
+  @NotNull private final ForkJoinPool myPool;
+  @Nullable private final ServerTorrentGenerator myTorrentGenerator;
+  @NotNull private final ConcurrentMap<Path, Set<String>> myDirectoryListings = new ConcurrentHashMap<>();
+  @NotNull private final List<Future<?>> myStreamedBatches = new ArrayList<>();
 
   ArtifactProcessorImpl(@NotNull Path torrentsDir,
                         @NotNull Path artifactsDirectory,
                         @NotNull TorrentsSeeder torrentsSeeder,
                         @NotNull TorrentConfigurator configurator) {
+    this(torrentsDir, artifactsDirectory, torrentsSeeder, configurator, null, ForkJoinPool.commonPool());
+  }
+
+  ArtifactProcessorImpl(@NotNull Path torrentsDir,
+                        @NotNull Path artifactsDirectory,
+                        @NotNull TorrentsSeeder torrentsSeeder,
+                        @NotNull TorrentConfigurator configurator,
+                        @Nullable ArtifactsPipelineTimings timings,
+                        @NotNull ForkJoinPool pool) {
+    this(torrentsDir, artifactsDirectory, torrentsSeeder, configurator, timings, pool, null);
+  }
+
+  ArtifactProcessorImpl(@NotNull Path torrentsDir,
+                        @NotNull Path artifactsDirectory,
+                        @NotNull TorrentsSeeder torrentsSeeder,
+                        @NotNull TorrentConfigurator configurator,
+                        @Nullable ArtifactsPipelineTimings timings,
+                        @NotNull ForkJoinPool pool,
+                        @Nullable ServerTorrentGenerator torrentGenerator) {
     myTorrentsDir = torrentsDir;
     myTorrentsSeeder = torrentsSeeder;
     myConfigurator = configurator;
     myArtifactsDirectory = artifactsDirectory;
+    myTimings = timings;
+    myPool = pool;
+    myTorrentGenerator = torrentGenerator;
+  }
+
+  /**
+   * starts asynchronous processing of part of artifacts
+   */
+  public void submitBatch(@NotNull final List<BuildArtifact> batch) {
+    if (!myConfigurator.isSeedingEnabled()) {
+      return;
+    }
+    synchronized (myStreamedBatches) {
+      myStreamedBatches.add(myPool.submit(() -> processBatch(batch)));
+    }
   }
 
   @Override
   public void processArtifacts(@NotNull List<BuildArtifact> artifacts) {
-    artifacts.forEach(artifact -> {
-      if (artifact.isDirectory()) {
-        return;
-      }
+    final List<Future<?>> streamed;
+    synchronized (myStreamedBatches) {
+      streamed = new ArrayList<>(myStreamedBatches);
+    }
+    if (!streamed.isEmpty()) {
+      waitFor(streamed);
+      return;
+    }
 
-      if (!myConfigurator.isSeedingEnabled()) {
-        return;
-      }
+    if (!myConfigurator.isSeedingEnabled()) {
+      return;
+    }
+    waitFor(Collections.singletonList(myPool.submit(() -> processBatch(artifacts))));
+  }
 
-      String artifactRelativePath = artifact.getRelativePath();
-      Path fullPath = myArtifactsDirectory.resolve(artifactRelativePath);
-      if (!Files.exists(fullPath)) {
-        LOG.debug(String.format("File '%s' doesn't exist. Won't create a torrent for it", fullPath.toString()));
-        return;
+  private void processBatch(@NotNull List<BuildArtifact> artifacts) {
+    long start = System.currentTimeMillis();
+    final Map<Path, Path> torrentsBySource = resolveTorrents(artifacts);
+    stageFinished(ArtifactsPipelineTimings.Stage.RESOLVE, start);
+
+    start = System.currentTimeMillis();
+    synchronized (myRegisterLock) {
+      torrentsBySource.forEach((src, torrent) -> myTorrentsSeeder.registerSrcAndTorrentFile(src.toFile(), torrent.toFile(), true));
+    }
+    stageFinished(ArtifactsPipelineTimings.Stage.REGISTER, start);
+  }
+
+  /**
+   * @return existing torrent files for artifacts mapped by full artifact path
+   */
+  @NotNull
+  private Map<Path, Path> resolveTorrents(@NotNull List<BuildArtifact> artifacts) {
+    final Map<String, List<BuildArtifact>> artifactsByDir = artifacts.stream()
+            .filter(artifact -> !artifact.isDirectory())
+            .collect(Collectors.groupingBy(artifact -> getParentPath(artifact.getRelativePath()), LinkedHashMap::new, Collectors.toList()));
+
+    return artifactsByDir.entrySet().parallelStream()
+            .flatMap(entry -> resolveDirectory(entry.getKey(), entry.getValue()).entrySet().stream())
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+  }
+
+  @NotNull
+  private Map<Path, Path> resolveDirectory(@NotNull String relativeDir, @NotNull List<BuildArtifact> artifacts) {
+    final Path artifactsDir = relativeDir.isEmpty() ? myArtifactsDirectory : myArtifactsDirectory.resolve(relativeDir);
+    final Path torrentsDir = relativeDir.isEmpty() ? myTorrentsDir : myTorrentsDir.resolve(relativeDir);
+    final Set<String> existingArtifacts = listDirectory(artifactsDir);
+    final Set<String> existingTorrents = listDirectory(torrentsDir);
+
+    final Map<Path, Path> result = new LinkedHashMap<>();
+    for (BuildArtifact artifact : artifacts) {
+      final String name = getName(artifact.getRelativePath());
+      if (!existingArtifacts.contains(name)) {
+        LOG.debug(String.format("File '%s' doesn't exist. Won't create a torrent for it", artifactsDir.resolve(name)));
+        continue;
       }
-      Path torrent = findTorrent(fullPath, artifactRelativePath);
-      if (!Files.exists(torrent)) {
-        LOG.debug(String.format("torrent file for artifact %s doesn't exist", artifactRelativePath));
-        return;
+      final String torrentName = name + TorrentUtil.TORRENT_FILE_SUFFIX;
+      if (!existingTorrents.contains(torrentName)) {
+        LOG.debug(String.format("torrent file for artifact %s doesn't exist", artifact.getRelativePath()));
+        generateTorrent(artifactsDir.resolve(name), torrentsDir.resolve(torrentName));
+        continue;
       }
-      myTorrentsSeeder.registerSrcAndTorrentFile(fullPath.toFile(), torrent.toFile(), true);
+      result.put(artifactsDir.resolve(name), torrentsDir.resolve(torrentName));
+    }
+    return result;
+  }
+
+  private void generateTorrent(@NotNull Path srcFile, @NotNull Path torrentFile) {
+    if (myTorrentGenerator == null) return;
+    myTorrentGenerator.submit(srcFile.toFile(), torrentFile.toFile(), (src, torrent) -> {
+      synchronized (myRegisterLock) {
+        myTorrentsSeeder.registerSrcAndTorrentFile(src, torrent, true);
+      }
+    });
+  }
+
+  @NotNull
+  private Set<String> listDirectory(@NotNull Path dir) {
+    return myDirectoryListings.computeIfAbsent(dir, d -> {
+      final String[] names = d.toFile().list();
+      return names == null ? Collections.<String>emptySet() : new HashSet<>(Arrays.asList(names));
     });
   }
 
   @NotNull
-  private Path findTorrent(@NotNull final Path artifactFullPath,
-                           @NotNull final String artifactRelativePath) {
-    Path destPath = myTorrentsDir.resolve(artifactRelativePath);
-    final Path parentDir = destPath.getParent();
-    return parentDir.resolve(artifactFullPath.getFileName().toString() + TorrentUtil.TORRENT_FILE_SUFFIX);
+  private static String getParentPath(@NotNull String relativePath) {
+    final int idx = relativePath.lastIndexOf('/');
+    return idx < 0 ? "" : relativePath.substring(0, idx);
+  }
+
+  @NotNull
+  private static String getName(@NotNull String relativePath) {
+    return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+  }
+
+  private void waitFor(@NotNull List<Future<?>> futures) {
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        LOG.warnAndDebugDetails("Failed to process artifacts in " + myArtifactsDirectory, e.getCause());
+      }
+    }
+  }
+
+  private void stageFinished(@NotNull ArtifactsPipelineTimings.Stage stage, long startTime) {
+    if (myTimings != null) {
+      myTimings.stageFinished(stage, System.currentTimeMillis() - startTime);
+    }
   }
-}
\ No newline at end of file
+}
@@ -6,31 +6,62 @@ import jetbrains.buildServer.ArtifactsConstants;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
 import jetbrains.buildServer.serverSide.artifacts.BuildArtifacts;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
- * Artifacts collector, that collect only artifact-files and skip .teamcity system directory
+ * Artifacts collector, that collect only artifact-files and skip .teamcity system directory.
+ * If batch consumer is specified, collected artifacts are also handed off to it in batches during iteration
  */
 public class ArtifactsCollectorImpl implements ArtifactsCollector {
 
+  @Nullable private final Consumer<List<BuildArtifact>> myBatchConsumer;
+  private final int myBatchSize;
+
+  public ArtifactsCollectorImpl() {
+    this(null, TorrentConfiguration.DEFAULT_ARTIFACTS_PIPELINE_BATCH_SIZE);
+  }
+
+  public ArtifactsCollectorImpl(@Nullable Consumer<List<BuildArtifact>> batchConsumer, int batchSize) {
+    myBatchConsumer = batchConsumer;
+    myBatchSize = Math.max(1, batchSize);
+  }
+
   @Override
   @NotNull
   public List<BuildArtifact> collectArtifacts(@NotNull BuildArtifacts buildArtifacts) {
     final List<BuildArtifact> result = new ArrayList<>();
-    buildArtifacts.iterateArtifacts(artifact -> handleArtifact(result, artifact));
+    final List<BuildArtifact> batch = new ArrayList<>();
+    buildArtifacts.iterateArtifacts(artifact -> handleArtifact(result, batch, artifact));
+    flush(batch);
     return result;
   }
 
   @NotNull
-  private BuildArtifacts.BuildArtifactsProcessor.Continuation handleArtifact(List<BuildArtifact> result, BuildArtifact artifact) {
+  private BuildArtifacts.BuildArtifactsProcessor.Continuation handleArtifact(List<BuildArtifact> result,
+                                                                              List<BuildArtifact> batch,
+                                                                              BuildArtifact artifact) {
     if (artifact.getName().equals(ArtifactsConstants.TEAMCITY_ARTIFACTS_DIR)) {
       return BuildArtifacts.BuildArtifactsProcessor.Continuation.SKIP_CHILDREN;
     }
     if (artifact.isFile()) {
       result.add(artifact);
+      if (myBatchConsumer != null) {
+        batch.add(artifact);
+        if (batch.size() >= myBatchSize) {
+          flush(batch);
+        }
+      }
     }
     return BuildArtifacts.BuildArtifactsProcessor.Continuation.CONTINUE;
   }
-}
\ No newline at end of file
+
+  private void flush(@NotNull List<BuildArtifact> batch) {
+    if (myBatchConsumer == null || batch.isEmpty()) return;
+    myBatchConsumer.accept(new ArrayList<>(batch));
+    batch.clear();
+  }
+}
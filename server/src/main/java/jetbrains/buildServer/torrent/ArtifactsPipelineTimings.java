@@ -0,0 +1,42 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of build artifacts processing stages, exported as histograms of shared {@link MetricsRegistry}
+ */
+public class ArtifactsPipelineTimings {
+
+  private static final double[] STAGE_BUCKETS_SEC = {0.01, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900};
+
+  public enum Stage {
+    COLLECT,
+    RESOLVE,
+    REGISTER,
+    REMOVE
+  }
+
+  @NotNull private final Map<Stage, MetricsRegistry.Histogram> myStageTimes = new EnumMap<>(Stage.class);
+
+  public ArtifactsPipelineTimings() {
+    for (Stage stage : Stage.values()) {
+      final String name = stage.name().toLowerCase(Locale.ENGLISH);
+      myStageTimes.put(stage, MetricsRegistry.getInstance().histogram(
+              "teamcity_torrent_artifacts_pipeline_" + name + "_seconds",
+              "Duration of " + name + " stage of build artifacts processing",
+              STAGE_BUCKETS_SEC));
+    }
+  }
+
+  public void stageFinished(@NotNull Stage stage, long durationMs) {
+    myStageTimes.get(stage).observeNanos(TimeUnit.MILLISECONDS.toNanos(durationMs));
+  }
+}
@@ -0,0 +1,167 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.XmlRpcHandlerManager;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.agentPools.AgentPoolManager;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Asks idle agents to download large artifacts of just finished builds via BitTorrent,
+ * so builds depending on these artifacts find several seeders instead of downloading everything from the server.
+ * <p>
+ * At finish of a build a few idle agents which are compatible with its build configuration and belong to pools of its project
+ * are chosen and the build is queued for them, artifacts of personal builds are not prefetched. Agents poll their tasks
+ * via XML-RPC when they are idle and receive torrent files of artifacts, artifacts are downloaded to the agent artifacts cache.
+ * Polling agent is identified by its authorization token, so an agent can't receive tasks of other agents.
+ * Torrent files are resolved on poll, so the build stays queued until its torrents are created.
+ */
+public class ArtifactsPrefetchPlanner {
+  private final static Logger LOG = Logger.getInstance(ArtifactsPrefetchPlanner.class.getName());
+
+  private static final int MAX_TASKS_PER_AGENT = 20;
+
+  @NotNull
+  private final TorrentConfigurator myConfigurator;
+  @NotNull
+  private final ServerTorrentsDirectorySeeder myDirectorySeeder;
+  @NotNull
+  private final BuildAgentManager myAgentManager;
+  @NotNull
+  private final BuildsManager myBuildsManager;
+  @NotNull
+  private final AgentPoolManager myAgentPoolManager;
+  private final ArtifactsPrefetchQueue myQueue = new ArtifactsPrefetchQueue(MAX_TASKS_PER_AGENT);
+  private final Random myRandom = new Random();
+
+  public ArtifactsPrefetchPlanner(@NotNull final TorrentConfigurator configurator,
+                                  @NotNull final ServerTorrentsDirectorySeeder directorySeeder,
+                                  @NotNull final BuildAgentManager agentManager,
+                                  @NotNull final BuildsManager buildsManager,
+                                  @NotNull final AgentPoolManager agentPoolManager,
+                                  @NotNull final EventDispatcher<BuildServerListener> eventDispatcher,
+                                  @NotNull final XmlRpcHandlerManager xmlRpcHandlerManager) {
+    myConfigurator = configurator;
+    myDirectorySeeder = directorySeeder;
+    myAgentManager = agentManager;
+    myBuildsManager = buildsManager;
+    myAgentPoolManager = agentPoolManager;
+    xmlRpcHandlerManager.addHandler(XmlRpcConstants.TORRENT_PREFETCH, this);
+    eventDispatcher.addListener(new BuildServerAdapter() {
+      @Override
+      public void buildFinished(@NotNull SRunningBuild build) {
+        if (!isEnabled()) return;
+        planPrefetch(build);
+      }
+    });
+  }
+
+  /**
+   * Invoked by agents via XML-RPC
+   *
+   * @param agentAuthorizationToken authorization token of the polling agent
+   * @return artifacts which the agent should download, each described by a table with keys defined in {@link XmlRpcConstants}
+   */
+  @NotNull
+  public Vector<Hashtable<String, Object>> getPrefetchTasks(@NotNull String agentAuthorizationToken) {
+    final Vector<Hashtable<String, Object>> result = new Vector<>();
+    if (!isEnabled()) return result;
+    final SBuildAgent agent = findAuthorizedAgent(agentAuthorizationToken);
+    if (agent == null) {
+      LOG.debug("Prefetch tasks are requested by unknown agent");
+      return result;
+    }
+    final String agentName = agent.getName();
+    final long now = System.currentTimeMillis();
+    for (ArtifactsPrefetchQueue.Task task : myQueue.poll(agentName, now, myConfigurator.getPrefetchTaskTtlMs())) {
+      final SBuild build = myBuildsManager.findBuildInstanceById(task.getBuildId());
+      if (build == null) continue;
+      final List<String> torrentPaths = myDirectorySeeder.getTorrentPaths(build);
+      if (torrentPaths.isEmpty()) {
+        // torrents are created asynchronously after build finish, try again on next poll
+        myQueue.add(agentName, task);
+        continue;
+      }
+      for (String torrentPath : torrentPaths) {
+        addArtifact(result, build, torrentPath);
+      }
+    }
+    return result;
+  }
+
+  int getQueuedTasksCount() {
+    return myQueue.size();
+  }
+
+  private boolean isEnabled() {
+    return myConfigurator.isPrefetchEnabled() && myConfigurator.isAgentDownloadingEnabled();
+  }
+
+  @Nullable
+  private SBuildAgent findAuthorizedAgent(@NotNull String authorizationToken) {
+    if (authorizationToken.isEmpty()) return null;
+    final byte[] token = authorizationToken.getBytes(StandardCharsets.UTF_8);
+    for (SBuildAgent agent : myAgentManager.getRegisteredAgents()) {
+      if (!agent.isAuthorized()) continue;
+      if (MessageDigest.isEqual(token, agent.getAuthorizationToken().getBytes(StandardCharsets.UTF_8))) return agent;
+    }
+    return null;
+  }
+
+  private void planPrefetch(@NotNull SRunningBuild build) {
+    // artifacts of personal builds are not used by other builds
+    if (build.isPersonal()) return;
+    final SBuildType buildType = build.getBuildType();
+    if (buildType == null) return;
+    final Set<Integer> projectPools = myAgentPoolManager.getAgentPoolsWithProject(buildType.getProjectId());
+    final List<String> idleAgents = new ArrayList<>();
+    for (SBuildAgent agent : buildType.getCompatibleAgents()) {
+      if (!agent.isRegistered() || !agent.isEnabled() || !agent.isAuthorized() || agent.getRunningBuild() != null) continue;
+      // dependent builds can't run on the agent outside of project pools
+      if (!projectPools.contains(agent.getAgentPoolId())) continue;
+      // agent of the build already has the artifacts
+      if (agent.getName().equals(build.getAgentName())) continue;
+      idleAgents.add(agent.getName());
+    }
+    Collections.shuffle(idleAgents, myRandom);
+    final List<String> chosen = idleAgents.subList(0, Math.min(myConfigurator.getPrefetchFanOut(), idleAgents.size()));
+    if (chosen.isEmpty()) return;
+    final ArtifactsPrefetchQueue.Task task = new ArtifactsPrefetchQueue.Task(build.getBuildId(), System.currentTimeMillis());
+    for (String agentName : chosen) {
+      myQueue.add(agentName, task);
+    }
+    LOG.debug("Artifacts of build " + build + " will be prefetched by agents " + chosen);
+  }
+
+  private void addArtifact(@NotNull Vector<Hashtable<String, Object>> result, @NotNull SBuild build, @NotNull String torrentPath) {
+    if (!torrentPath.endsWith(TorrentUtil.TORRENT_FILE_SUFFIX)) return;
+    final String artifactPath = torrentPath.substring(0, torrentPath.length() - TorrentUtil.TORRENT_FILE_SUFFIX.length());
+    final File artifact = new File(build.getArtifactsDirectory(), artifactPath);
+    if (artifact.length() < myConfigurator.getPrefetchMinFileSizeBytes()) return;
+    final byte[] torrentData;
+    try {
+      torrentData = Files.readAllBytes(myDirectorySeeder.getTorrentFile(build, torrentPath).toPath());
+    } catch (IOException e) {
+      LOG.debug("Unable to read torrent file " + torrentPath + " of build " + build, e);
+      return;
+    }
+    final Hashtable<String, Object> item = new Hashtable<>();
+    item.put(XmlRpcConstants.PREFETCH_BUILD_TYPE_ID, build.getBuildTypeExternalId());
+    item.put(XmlRpcConstants.PREFETCH_BUILD_ID, String.valueOf(build.getBuildId()));
+    item.put(XmlRpcConstants.PREFETCH_ARTIFACT_PATH, artifactPath);
+    item.put(XmlRpcConstants.PREFETCH_TORRENT, torrentData);
+    result.add(item);
+  }
+}
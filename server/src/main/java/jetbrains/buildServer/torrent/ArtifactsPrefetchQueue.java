@@ -0,0 +1,91 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Builds whose artifacts should be downloaded by agents before any build depends on them, grouped by agent name.
+ * <p>
+ * Each agent keeps at most {@code maxTasksPerAgent} latest builds, tasks older than ttl are dropped,
+ * because artifacts of old builds are either already fetched by dependent builds or not needed anymore.
+ */
+public class ArtifactsPrefetchQueue {
+
+  private final int myMaxTasksPerAgent;
+  private final Map<String, LinkedList<Task>> myTasks = new HashMap<>();
+
+  public ArtifactsPrefetchQueue(int maxTasksPerAgent) {
+    myMaxTasksPerAgent = maxTasksPerAgent;
+  }
+
+  public synchronized void add(@NotNull String agentName, @NotNull Task task) {
+    final LinkedList<Task> tasks = myTasks.computeIfAbsent(agentName, name -> new LinkedList<>());
+    if (tasks.contains(task)) return;
+    tasks.addLast(task);
+    while (tasks.size() > myMaxTasksPerAgent) {
+      tasks.removeFirst();
+    }
+  }
+
+  /**
+   * removes and returns not expired tasks of the agent, oldest first
+   */
+  @NotNull
+  public synchronized List<Task> poll(@NotNull String agentName, long now, long ttlMs) {
+    final LinkedList<Task> tasks = myTasks.remove(agentName);
+    if (tasks == null) return Collections.emptyList();
+    final List<Task> result = new ArrayList<>();
+    for (Task task : tasks) {
+      if (now - task.getCreatedTime() <= ttlMs) {
+        result.add(task);
+      }
+    }
+    return result;
+  }
+
+  public synchronized int size() {
+    int result = 0;
+    for (LinkedList<Task> tasks : myTasks.values()) {
+      result += tasks.size();
+    }
+    return result;
+  }
+
+  public static class Task {
+    private final long myBuildId;
+    private final long myCreatedTime;
+
+    public Task(long buildId, long createdTime) {
+      myBuildId = buildId;
+      myCreatedTime = createdTime;
+    }
+
+    public long getBuildId() {
+      return myBuildId;
+    }
+
+    public long getCreatedTime() {
+      return myCreatedTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return myBuildId == ((Task) o).myBuildId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(myBuildId);
+    }
+
+    @Override
+    public String toString() {
+      return "build id: " + myBuildId;
+    }
+  }
+}
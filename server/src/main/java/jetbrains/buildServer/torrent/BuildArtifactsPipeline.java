@@ -0,0 +1,181 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes artifacts of finished builds outside of server event dispatching.
+ * <p>
+ * Builds are queued to the bounded queue. Submitting thread is never blocked and never processes the build itself:
+ * if the queue is full, the build is deferred and pipeline threads take deferred builds after queued ones.
+ * Deferred builds are bounded by the same capacity: if they are full too, the build is dropped with a warning,
+ * so the pipeline never holds artifacts of more builds than twice the capacity.
+ * On shutdown queued and deferred builds are drained during shutdown timeout.
+ */
+public class BuildArtifactsPipeline {
+
+  private final static Logger LOG = Logger.getInstance(BuildArtifactsPipeline.class.getName());
+
+  private static final MetricsRegistry.Counter DEFERRED_BUILDS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_artifacts_pipeline_deferred_builds_total", "Builds deferred because artifacts pipeline queue was full");
+  private static final MetricsRegistry.Counter DROPPED_BUILDS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_artifacts_pipeline_dropped_builds_total", "Builds not processed because artifacts pipeline and deferred queues were full");
+
+  @NotNull private final ThreadPoolExecutor myExecutor;
+  @NotNull private final ForkJoinPool myResolvePool;
+  @NotNull private final ArtifactsPipelineTimings myTimings = new ArtifactsPipelineTimings();
+  @NotNull private final Queue<BuildTask> myDeferredBuilds;
+  @NotNull private final AtomicLong myProcessedBuilds = new AtomicLong();
+  @NotNull private final AtomicLong myDeferredBuildsCount = new AtomicLong();
+  @NotNull private final AtomicLong myDroppedBuildsCount = new AtomicLong();
+  private final long myShutdownTimeoutMs;
+
+  public BuildArtifactsPipeline(int threadsCount, int queueCapacity, long shutdownTimeoutMs) {
+    this(threadsCount, queueCapacity, shutdownTimeoutMs, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  public BuildArtifactsPipeline(int threadsCount, int queueCapacity, long shutdownTimeoutMs, int resolveParallelism) {
+    myShutdownTimeoutMs = shutdownTimeoutMs;
+    myDeferredBuilds = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+    myResolvePool = new ForkJoinPool(Math.max(1, resolveParallelism));
+    final AtomicInteger threadNumber = new AtomicInteger();
+    myExecutor = new ThreadPoolExecutor(threadsCount, threadsCount, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            r -> {
+              Thread thread = new Thread(r, "Torrent artifacts pipeline " + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            (r, executor) -> {
+              if (executor.isShutdown()) {
+                LOG.warn("Artifacts pipeline is stopped, build is not processed");
+                return;
+              }
+              // rejected drain task is not needed: the queue is full, so queued builds take deferred ones
+              if (!(r instanceof BuildTask)) return;
+              final BuildTask task = (BuildTask) r;
+              if (!myDeferredBuilds.offer(task)) {
+                myDroppedBuildsCount.incrementAndGet();
+                DROPPED_BUILDS.inc();
+                LOG.warn("Artifacts pipeline queue is full, artifacts of " + task.myDescription + " are not processed");
+                return;
+              }
+              myDeferredBuildsCount.incrementAndGet();
+              DEFERRED_BUILDS.inc();
+              // queued builds could be finished before the build was deferred, in this case nobody takes it
+              if (executor.getQueue().isEmpty()) {
+                executor.execute(this::runDeferredBuilds);
+              }
+            });
+    myExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * submits processing of build artifacts
+   *
+   * @param description description of build used in logs
+   * @param task        processing task
+   */
+  public void submit(@NotNull final String description, @NotNull final Runnable task) {
+    myExecutor.execute(new BuildTask(description, task));
+  }
+
+  private void runDeferredBuilds() {
+    BuildTask deferred;
+    while ((deferred = pollDeferred()) != null) {
+      deferred.process();
+    }
+  }
+
+  @Nullable
+  private BuildTask pollDeferred() {
+    // deferred builds are taken only when there are no queued ones, so builds are processed in submit order
+    if (!myExecutor.getQueue().isEmpty() && !myExecutor.isShutdown()) return null;
+    return myDeferredBuilds.poll();
+  }
+
+  /**
+   * @return pool for parallel resolving of artifacts torrents
+   */
+  @NotNull
+  public ForkJoinPool getResolvePool() {
+    return myResolvePool;
+  }
+
+  @NotNull
+  public ArtifactsPipelineTimings getTimings() {
+    return myTimings;
+  }
+
+  /**
+   * @return count of queued and deferred builds
+   */
+  public int getQueueSize() {
+    return myExecutor.getQueue().size() + myDeferredBuilds.size();
+  }
+
+  public long getProcessedBuildsCount() {
+    return myProcessedBuilds.get();
+  }
+
+  public long getDeferredBuildsCount() {
+    return myDeferredBuildsCount.get();
+  }
+
+  public long getDroppedBuildsCount() {
+    return myDroppedBuildsCount.get();
+  }
+
+  /**
+   * stops accepting new builds and waits until queued and deferred builds are processed during shutdown timeout
+   */
+  public void shutdown() {
+    myExecutor.shutdown();
+    try {
+      if (!myExecutor.awaitTermination(myShutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+        LOG.warn("Artifacts pipeline wasn't drained in " + myShutdownTimeoutMs + "ms, artifacts of " +
+                getQueueSize() + " builds are not processed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    myExecutor.shutdownNow();
+    myResolvePool.shutdownNow();
+  }
+
+  private final class BuildTask implements Runnable {
+    @NotNull private final String myDescription;
+    @NotNull private final Runnable myTask;
+
+    private BuildTask(@NotNull String description, @NotNull Runnable task) {
+      myDescription = description;
+      myTask = task;
+    }
+
+    public void run() {
+      process();
+      runDeferredBuilds();
+    }
+
+    private void process() {
+      final long start = System.currentTimeMillis();
+      try {
+        myTask.run();
+      } catch (Throwable e) {
+        LOG.warnAndDebugDetails("Failed to process artifacts of " + myDescription, e);
+      } finally {
+        myProcessedBuilds.incrementAndGet();
+        LOG.debug("Artifacts of " + myDescription + " processed in " + (System.currentTimeMillis() - start) + "ms");
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+
+
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Per-build list of torrent files, so build pages don't need to scan torrents directory on each request.
+ * <p>
+ * Index is written to artifacts directory when build artifacts are processed and is updated when
+ * torrent file is created on server later. Recently used indexes of finished builds are cached in memory,
+ * number of cached builds is limited. Torrents of running builds are scanned on each request
+ * because agents still publish them. Updates of one build index are serialized by striped per-build locks.
+ */
+public class BuildTorrentsIndex {
+
+  private final static Logger LOG = Logger.getInstance(BuildTorrentsIndex.class.getName());
+
+  public static final String INDEX_FILE_PATH = ".teamcity/torrents.index";
+
+  private static final String TORRENTS_DIR_MARKER = "/" + TorrentsSeeder.TORRENTS_DIT_PATH + "/";
+  private static final int LOCKS_COUNT = 64;
+
+  @NotNull private final LinkedHashMap<String, List<String>> myCache;
+  @NotNull private final Object[] myBuildLocks = new Object[LOCKS_COUNT];
+
+  public BuildTorrentsIndex(final int maxCachedBuilds) {
+    myCache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+        return size() > maxCachedBuilds;
+      }
+    };
+    for (int i = 0; i < myBuildLocks.length; i++) {
+      myBuildLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * @param buildFinished whether the build is finished. Torrents of running build are scanned and never cached
+   * @return paths of torrent files relative to torrents directory of the build, separated by '/'
+   */
+  @NotNull
+  public List<String> getTorrentPaths(@NotNull File artifactsDirectory, boolean buildFinished) {
+    if (!buildFinished) {
+      return scanTorrentsDir(artifactsDirectory);
+    }
+    final String key = getKey(artifactsDirectory);
+    synchronized (myCache) {
+      final List<String> cached = myCache.get(key);
+      if (cached != null) return cached;
+    }
+
+    synchronized (getBuildLock(key)) {
+      synchronized (myCache) {
+        final List<String> cached = myCache.get(key);
+        if (cached != null) return cached;
+      }
+      List<String> paths = readIndex(artifactsDirectory);
+      if (paths == null) {
+        paths = scanTorrentsDir(artifactsDirectory);
+      }
+      synchronized (myCache) {
+        myCache.put(key, paths);
+      }
+      return paths;
+    }
+  }
+
+  /**
+   * scans torrents directory of the build and writes index file
+   */
+  public void rebuild(@NotNull File artifactsDirectory) {
+    final String key = getKey(artifactsDirectory);
+    synchronized (getBuildLock(key)) {
+      final List<String> paths = scanTorrentsDir(artifactsDirectory);
+      writeIndex(artifactsDirectory, paths);
+      synchronized (myCache) {
+        myCache.put(key, paths);
+      }
+    }
+  }
+
+  /**
+   * adds torrent file created after index was written
+   */
+  public void torrentCreated(@NotNull File torrentFile) {
+    final String torrentPath = torrentFile.getAbsolutePath().replace('\\', '/');
+    final int idx = torrentPath.indexOf(TORRENTS_DIR_MARKER);
+    if (idx < 0) return;
+    final File artifactsDirectory = new File(torrentPath.substring(0, idx));
+    final String relativePath = torrentPath.substring(idx + TORRENTS_DIR_MARKER.length());
+
+    final String key = getKey(artifactsDirectory);
+    synchronized (getBuildLock(key)) {
+      final List<String> paths = new ArrayList<>(getTorrentPaths(artifactsDirectory, true));
+      if (paths.contains(relativePath)) return;
+      paths.add(relativePath);
+      final List<String> result = Collections.unmodifiableList(paths);
+      writeIndex(artifactsDirectory, result);
+      synchronized (myCache) {
+        myCache.put(key, result);
+      }
+    }
+  }
+
+  /**
+   * removes cached index of the build, index file is read again on next request
+   */
+  public void invalidate(@NotNull File artifactsDirectory) {
+    final String key = getKey(artifactsDirectory);
+    synchronized (getBuildLock(key)) {
+      synchronized (myCache) {
+        myCache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * removes cached index and index file of the build, e.g. after artifacts cleanup.
+   * Torrents directory is scanned on next request
+   */
+  public void remove(@NotNull File artifactsDirectory) {
+    final String key = getKey(artifactsDirectory);
+    synchronized (getBuildLock(key)) {
+      synchronized (myCache) {
+        myCache.remove(key);
+      }
+      try {
+        Files.deleteIfExists(artifactsDirectory.toPath().resolve(INDEX_FILE_PATH));
+      } catch (IOException e) {
+        LOG.warnAndDebugDetails("Failed to remove torrents index of " + artifactsDirectory, e);
+      }
+    }
+  }
+
+  public int getCachedBuildsCount() {
+    synchronized (myCache) {
+      return myCache.size();
+    }
+  }
+
+  @Nullable
+  private List<String> readIndex(@NotNull File artifactsDirectory) {
+    final Path indexFile = artifactsDirectory.toPath().resolve(INDEX_FILE_PATH);
+    if (!Files.isRegularFile(indexFile)) return null;
+    try {
+      return Collections.unmodifiableList(Files.readAllLines(indexFile, StandardCharsets.UTF_8).stream()
+              .filter(line -> !line.isEmpty())
+              .collect(Collectors.toList()));
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to read torrents index " + indexFile, e);
+      return null;
+    }
+  }
+
+  private void writeIndex(@NotNull File artifactsDirectory, @NotNull List<String> paths) {
+    final Path indexFile = artifactsDirectory.toPath().resolve(INDEX_FILE_PATH);
+    final Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(indexFile.getParent());
+      Files.write(tmpFile, paths, StandardCharsets.UTF_8);
+      Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to write torrents index " + indexFile, e);
+    }
+  }
+
+  @NotNull
+  private static List<String> scanTorrentsDir(@NotNull File artifactsDirectory) {
+    final Path torrentsDir = artifactsDirectory.toPath().resolve(TorrentsSeeder.TORRENTS_DIT_PATH);
+    if (!Files.isDirectory(torrentsDir)) return Collections.emptyList();
+    try (Stream<Path> files = Files.walk(torrentsDir)) {
+      return Collections.unmodifiableList(files
+              .filter(path -> path.getFileName().toString().endsWith(TorrentUtil.TORRENT_FILE_SUFFIX) && Files.isRegularFile(path))
+              .map(path -> torrentsDir.relativize(path).toString().replace('\\', '/'))
+              .sorted()
+              .collect(Collectors.toList()));
+    } catch (IOException | UncheckedIOException e) {
+      LOG.warnAndDebugDetails("Failed to scan torrents directory " + torrentsDir, e);
+      return Collections.emptyList();
+    }
+  }
+
+  @NotNull
+  private Object getBuildLock(@NotNull String key) {
+    return myBuildLocks[(key.hashCode() & Integer.MAX_VALUE) % myBuildLocks.length];
+  }
+
+  @NotNull
+  private static String getKey(@NotNull File artifactsDirectory) {
+    return artifactsDirectory.getAbsolutePath().replace('\\', '/');
+  }
+}
@@ -0,0 +1,213 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.Peer;
+import com.turn.ttorrent.common.PeerUID;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.common.protocol.http.HTTPAnnounceResponseMessage;
+import com.turn.ttorrent.tracker.AddressChecker;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import com.turn.ttorrent.tracker.TrackerRequestProcessor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracker request processor which caches peer lists of torrents for regular announces (announces without event).
+ * Regular announces of already known peers are served from the cached peer list of the torrent during short ttl:
+ * the peer is only refreshed in repository and the response is encoded from the cached list without the requester,
+ * so all peers of a swarm announcing during ttl share one cached entry.
+ * Any announce with event (started, completed, stopped) over http or udp invalidates cached peer list of the torrent.
+ * <p>
+ * Announce times of peers are recorded to {@link PeerAnnounceTimes}.
+ */
+public class CachingTrackerRequestProcessor extends TrackerRequestProcessor {
+
+  private final static Logger LOG = Logger.getInstance(CachingTrackerRequestProcessor.class.getName());
+
+  private static final int MAX_PEERS_IN_RESPONSE = 30;
+
+  @NotNull private final TorrentsRepository myTorrentsRepository;
+  @NotNull private final AddressChecker myAddressChecker;
+  @NotNull private final PeerAnnounceTimes myAnnounceTimes;
+  // cached peer lists by info hash
+  @NotNull private final ConcurrentMap<String, CachedPeers> myPeers = new ConcurrentHashMap<>();
+  private volatile long myCacheTtlMs = TimeUnit.SECONDS.toMillis(TorrentConfiguration.DEFAULT_TRACKER_ANNOUNCE_CACHE_TTL);
+
+  public CachingTrackerRequestProcessor(@NotNull TorrentsRepository torrentsRepository,
+                                        @NotNull AddressChecker addressChecker) {
+    this(torrentsRepository, addressChecker, new PeerAnnounceTimes());
+  }
+
+  public CachingTrackerRequestProcessor(@NotNull TorrentsRepository torrentsRepository,
+                                        @NotNull AddressChecker addressChecker,
+                                        @NotNull PeerAnnounceTimes announceTimes) {
+    super(torrentsRepository, addressChecker);
+    myTorrentsRepository = torrentsRepository;
+    myAddressChecker = addressChecker;
+    myAnnounceTimes = announceTimes;
+  }
+
+  public void setCacheTtlSec(int ttlSec) {
+    myCacheTtlMs = TimeUnit.SECONDS.toMillis(Math.max(0, ttlSec));
+    if (ttlSec <= 0) {
+      myPeers.clear();
+    }
+  }
+
+  @Override
+  public void process(final String uri, final String hostAddress, final RequestHandler requestHandler) throws UnsupportedEncodingException {
+    final AnnounceRequestParams params = AnnounceRequestParams.parse(uri);
+    if (params == null) {
+      super.process(uri, hostAddress, requestHandler);
+      return;
+    }
+
+    final String hexInfoHash = params.getHexInfoHash();
+    final String ip = resolveIp(params.getIp(), hostAddress);
+    myAnnounceTimes.announced(hexInfoHash, ip, params.getPort());
+    if (myCacheTtlMs <= 0) {
+      super.process(uri, hostAddress, requestHandler);
+      return;
+    }
+
+    if (!params.isRegularAnnounce()) {
+      invalidate(hexInfoHash);
+      super.process(uri, hostAddress, requestHandler);
+      return;
+    }
+
+    // cached peers are encoded in compact form only
+    if (params.isCompact()) {
+      final CachedPeers cached = myPeers.get(hexInfoHash);
+      if (cached != null && !cached.isExpired(myCacheTtlMs) && refreshKnownPeer(hexInfoHash, ip, params)) {
+        final ByteBuffer response = cached.encodeResponse(ip, params.getPort());
+        if (response != null) {
+          requestHandler.serveResponse(200, "OK", response);
+          return;
+        }
+      }
+    }
+
+    super.process(uri, hostAddress, requestHandler);
+    if (params.isCompact()) {
+      cachePeers(hexInfoHash);
+    }
+  }
+
+  /**
+   * removes cached peer list of specified torrent
+   */
+  public void invalidate(@NotNull String hexInfoHash) {
+    myPeers.remove(hexInfoHash);
+  }
+
+  /**
+   * removes expired cached peer lists
+   */
+  public void cleanupCache() {
+    final long ttl = myCacheTtlMs;
+    myPeers.values().removeIf(peers -> peers.isExpired(ttl));
+  }
+
+  private void cachePeers(@NotNull String hexInfoHash) {
+    final TrackedTorrent torrent = myTorrentsRepository.getTorrent(hexInfoHash);
+    if (torrent == null) return;
+    final CachedPeers cached = myPeers.get(hexInfoHash);
+    if (cached != null && !cached.isExpired(myCacheTtlMs)) return;
+    myPeers.put(hexInfoHash, new CachedPeers(hexInfoHash, getAnnounceInterval(), torrent.seeders(), torrent.leechers(),
+            new ArrayList<>(torrent.getPeers().values())));
+  }
+
+  private boolean refreshKnownPeer(@NotNull String hexInfoHash, @NotNull String ip, @NotNull AnnounceRequestParams params) {
+    final TrackedTorrent torrent = myTorrentsRepository.getTorrent(hexInfoHash);
+    if (torrent == null) return false;
+    final PeerUID peerUID = new PeerUID(new InetSocketAddress(ip, params.getPort()), hexInfoHash);
+    if (!torrent.getPeers().containsKey(peerUID)) return false;
+    try {
+      torrent.update(AnnounceRequestMessage.RequestEvent.NONE,
+              ByteBuffer.wrap(params.getPeerId()),
+              params.getHexPeerId(),
+              ip,
+              params.getPort(),
+              params.getUploaded(),
+              params.getDownloaded(),
+              params.getLeft());
+      return true;
+    } catch (UnsupportedEncodingException e) {
+      LOG.warnAndDebugDetails("Failed to refresh peer " + peerUID + " from cached announce", e);
+      return false;
+    }
+  }
+
+  @NotNull
+  private String resolveIp(@Nullable String requestedIp, @NotNull String hostAddress) {
+    if (requestedIp == null) return hostAddress;
+    try {
+      if (myAddressChecker.isBadAddress(InetAddress.getByName(requestedIp).getHostAddress())) {
+        return hostAddress;
+      }
+      return requestedIp;
+    } catch (UnknownHostException e) {
+      return hostAddress;
+    }
+  }
+
+  private static final class CachedPeers {
+    private final String myHexInfoHash;
+    private final int myInterval;
+    private final int mySeeders;
+    private final int myLeechers;
+    private final List<Peer> myPeers;
+    private final long myCreated;
+
+    private CachedPeers(String hexInfoHash, int interval, int seeders, int leechers, List<Peer> peers) {
+      myHexInfoHash = hexInfoHash;
+      myInterval = interval;
+      mySeeders = seeders;
+      myLeechers = leechers;
+      myPeers = peers;
+      myCreated = System.currentTimeMillis();
+    }
+
+    private boolean isExpired(long ttlMs) {
+      return System.currentTimeMillis() - myCreated >= ttlMs;
+    }
+
+    /**
+     * @return encoded response with random cached peers except the requester or null if it can't be encoded
+     */
+    @Nullable
+    private ByteBuffer encodeResponse(@NotNull String ip, int port) {
+      final List<Peer> candidates = new ArrayList<>(myPeers);
+      Collections.shuffle(candidates);
+      final List<Peer> peers = new ArrayList<>();
+      for (Peer peer : candidates) {
+        if (peers.size() >= MAX_PEERS_IN_RESPONSE) break;
+        if (peer.getPort() == port && ip.equals(peer.getIp())) continue;
+        peers.add(peer);
+      }
+      try {
+        return HTTPAnnounceResponseMessage.craft(myInterval, mySeeders, myLeechers, peers, myHexInfoHash).getData();
+      } catch (IOException e) {
+        LOG.warnAndDebugDetails("Failed to encode cached announce response of torrent " + myHexInfoHash, e);
+        return null;
+      }
+    }
+  }
+}
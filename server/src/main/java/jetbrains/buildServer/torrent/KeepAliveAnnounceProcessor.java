@@ -0,0 +1,109 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.PeerUID;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.AddressChecker;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import jetbrains.buildServer.torrent.announce.KeepAliveAnnounce;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processes keep-alive announces (see {@link KeepAliveAnnounce}): refreshes already known peers of the torrents
+ * and returns info hashes of torrents which must be announced by peer in regular way.
+ * <p>
+ * Peer addresses from the body are checked in the same way as ip parameter of regular announce:
+ * address rejected by {@link AddressChecker} is replaced with address of the request sender.
+ * Refreshed peers are recorded to {@link PeerAnnounceTimes}.
+ */
+public class KeepAliveAnnounceProcessor {
+
+  private final static Logger LOG = Logger.getInstance(KeepAliveAnnounceProcessor.class.getName());
+
+  @NotNull private final TorrentsRepository myTorrentsRepository;
+  @NotNull private final AddressChecker myAddressChecker;
+  @NotNull private final PeerAnnounceTimes myAnnounceTimes;
+
+  public KeepAliveAnnounceProcessor(@NotNull TorrentsRepository torrentsRepository, @NotNull AddressChecker addressChecker) {
+    this(torrentsRepository, addressChecker, new PeerAnnounceTimes());
+  }
+
+  public KeepAliveAnnounceProcessor(@NotNull TorrentsRepository torrentsRepository,
+                                    @NotNull AddressChecker addressChecker,
+                                    @NotNull PeerAnnounceTimes announceTimes) {
+    myTorrentsRepository = torrentsRepository;
+    myAddressChecker = addressChecker;
+    myAnnounceTimes = announceTimes;
+  }
+
+  /**
+   * @param body body of keep-alive request
+   * @param hostAddress address of the request sender, used instead of peer addresses rejected by address checker
+   * @return info hashes unknown for tracker
+   */
+  @NotNull
+  public List<String> process(@NotNull String body, @NotNull String hostAddress) {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    List<String> hashes = new ArrayList<>();
+    for (String line : body.split("\n")) {
+      if (line.startsWith(KeepAliveAnnounce.PEER_PREFIX)) {
+        final String[] ipAndPort = line.substring(KeepAliveAnnounce.PEER_PREFIX.length()).trim().split(" ");
+        if (ipAndPort.length != 2) continue;
+        try {
+          final String ip = myAddressChecker.isBadAddress(ipAndPort[0]) ? hostAddress : ipAndPort[0];
+          final InetSocketAddress address = new InetSocketAddress(ip, Integer.parseInt(ipAndPort[1]));
+          if (!addresses.contains(address)) {
+            addresses.add(address);
+          }
+        } catch (IllegalArgumentException e) {
+          LOG.debug("Invalid peer address in keep-alive announce: " + line);
+        }
+      } else if (line.startsWith(KeepAliveAnnounce.TORRENT_PREFIX)) {
+        hashes.add(line.substring(KeepAliveAnnounce.TORRENT_PREFIX.length()).trim());
+      }
+    }
+
+    List<String> unknownHashes = new ArrayList<>();
+    for (String hash : hashes) {
+      if (!refresh(hash, addresses)) {
+        unknownHashes.add(hash);
+      }
+    }
+    return unknownHashes;
+  }
+
+  private boolean refresh(@NotNull String hexInfoHash, @NotNull List<InetSocketAddress> addresses) {
+    final TrackedTorrent torrent = myTorrentsRepository.getTorrent(hexInfoHash);
+    if (torrent == null) return false;
+
+    boolean refreshed = false;
+    for (InetSocketAddress address : addresses) {
+      final TrackedPeer peer = torrent.getPeers().get(new PeerUID(address, hexInfoHash));
+      if (peer == null) continue;
+      try {
+        torrent.update(AnnounceRequestMessage.RequestEvent.NONE,
+                peer.getPeerId(),
+                peer.getHexPeerId(),
+                peer.getIp(),
+                peer.getPort(),
+                peer.getUploaded(),
+                peer.getDownloaded(),
+                peer.getLeft());
+        myAnnounceTimes.announced(hexInfoHash, peer.getIp(), peer.getPort());
+        refreshed = true;
+      } catch (UnsupportedEncodingException e) {
+        LOG.warnAndDebugDetails("Failed to refresh peer " + peer + " by keep-alive announce", e);
+      }
+    }
+    return refreshed;
+  }
+}
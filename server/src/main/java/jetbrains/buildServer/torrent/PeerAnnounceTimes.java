@@ -0,0 +1,128 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.PeerUID;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last announce times of tracked peers.
+ * <p>
+ * Tracked peer doesn't expose time of its last announce, so announce processors of the plugin record it here.
+ * Times are persisted in tracker snapshot and used to expire restored peers at the same moment
+ * as they would expire without tracker restart: restoring peer in repository refreshes it with new expiry.
+ */
+public class PeerAnnounceTimes {
+
+  private final static Logger LOG = Logger.getInstance(PeerAnnounceTimes.class.getName());
+
+  @NotNull private final ConcurrentMap<String, AnnounceTime> myTimes = new ConcurrentHashMap<>();
+
+  public void announced(@NotNull String hexInfoHash, @NotNull String ip, int port) {
+    myTimes.put(key(hexInfoHash, ip, port), new AnnounceTime(hexInfoHash, ip, port, System.currentTimeMillis(), false));
+  }
+
+  /**
+   * records announce time of the peer restored from snapshot
+   */
+  public void restored(@NotNull String hexInfoHash, @NotNull String ip, int port, long announceTime) {
+    myTimes.put(key(hexInfoHash, ip, port), new AnnounceTime(hexInfoHash, ip, port, announceTime, true));
+  }
+
+  /**
+   * @return time of the last announce of the peer or null if the peer was added to repository bypassing plugin processors
+   */
+  @Nullable
+  public Long getLastAnnounce(@NotNull String hexInfoHash, @NotNull String ip, int port) {
+    final AnnounceTime time = myTimes.get(key(hexInfoHash, ip, port));
+    return time == null ? null : time.myTime;
+  }
+
+  /**
+   * @return true if the peer announced to the running tracker, peer restored from snapshot is kept until its original
+   * expiration time, but it's not known to be alive until it announces again
+   */
+  public boolean hasAnnounced(@NotNull String hexInfoHash, @NotNull String ip, int port) {
+    final AnnounceTime time = myTimes.get(key(hexInfoHash, ip, port));
+    return time != null && !time.myRestored;
+  }
+
+  public void clear() {
+    myTimes.clear();
+  }
+
+  /**
+   * removes from repository peers which didn't announce during expire timeout
+   *
+   * @return count of removed peers
+   */
+  public int expirePeers(@NotNull TorrentsRepository repository, int expireTimeoutSec) {
+    final long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(expireTimeoutSec);
+    int removed = 0;
+    for (Map.Entry<String, AnnounceTime> entry : myTimes.entrySet()) {
+      final AnnounceTime time = entry.getValue();
+      if (time.myTime >= deadline) continue;
+      // the peer could announce since entry was read, in this case it's not expired
+      if (!myTimes.remove(entry.getKey(), time)) continue;
+      if (removePeer(repository, time)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  private static boolean removePeer(@NotNull TorrentsRepository repository, @NotNull AnnounceTime time) {
+    final TrackedTorrent torrent = repository.getTorrent(time.myHexInfoHash);
+    if (torrent == null) return false;
+    final TrackedPeer peer = torrent.getPeers().get(new PeerUID(new InetSocketAddress(time.myIp, time.myPort), time.myHexInfoHash));
+    if (peer == null) return false;
+    try {
+      torrent.update(AnnounceRequestMessage.RequestEvent.STOPPED,
+              peer.getPeerId(),
+              peer.getHexPeerId(),
+              peer.getIp(),
+              peer.getPort(),
+              peer.getUploaded(),
+              peer.getDownloaded(),
+              peer.getLeft());
+      return true;
+    } catch (UnsupportedEncodingException e) {
+      LOG.warnAndDebugDetails("Failed to remove expired peer " + peer, e);
+      return false;
+    }
+  }
+
+  @NotNull
+  private static String key(@NotNull String hexInfoHash, @NotNull String ip, int port) {
+    return hexInfoHash + ":" + ip + ":" + port;
+  }
+
+  private static final class AnnounceTime {
+    private final String myHexInfoHash;
+    private final String myIp;
+    private final int myPort;
+    private final long myTime;
+    private final boolean myRestored;
+
+    private AnnounceTime(String hexInfoHash, String ip, int port, long time, boolean restored) {
+      myHexInfoHash = hexInfoHash;
+      myIp = ip;
+      myPort = port;
+      myTime = time;
+      myRestored = restored;
+    }
+  }
+}
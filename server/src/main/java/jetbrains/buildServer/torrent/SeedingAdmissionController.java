@@ -0,0 +1,157 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import jetbrains.buildServer.NetworkUtil;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.executors.ExecutorServices;
+import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops server seeding of torrents which are seeded by enough agents according to the embedded tracker,
+ * see {@link SeedingAdmissionPolicy}. Torrents stay registered and are seeded again when agents stop seeding them.
+ * Only agents which announced to the running tracker are counted: peers restored from tracker snapshot are kept
+ * until their original expiration, but they may be gone already.
+ * <p>
+ * Torrents which have leechers according to the tracker are reported to the seeder as requested,
+ * so popularity based eviction of seeded torrents takes into account downloads served only by agents as well.
+ */
+public class SeedingAdmissionController {
+  private final static Logger LOG = Logger.getInstance(SeedingAdmissionController.class.getName());
+
+  @NotNull
+  private final TorrentConfigurator myConfigurator;
+  @NotNull
+  private final TorrentTrackerManager myTrackerManager;
+  @NotNull
+  private final ServerTorrentsDirectorySeeder myDirectorySeeder;
+  @NotNull
+  private final ScheduledExecutorService myExecutorService;
+  private final SeedingAdmissionPolicy myPolicy = new SeedingAdmissionPolicy();
+  @Nullable
+  private volatile ScheduledFuture<?> myUpdateFuture;
+
+  public SeedingAdmissionController(@NotNull final TorrentConfigurator configurator,
+                                    @NotNull final TorrentTrackerManager trackerManager,
+                                    @NotNull final ServerTorrentsDirectorySeeder directorySeeder,
+                                    @NotNull final ExecutorServices executorServices,
+                                    @NotNull final EventDispatcher<BuildServerListener> eventDispatcher) {
+    myConfigurator = configurator;
+    myTrackerManager = trackerManager;
+    myDirectorySeeder = directorySeeder;
+    myExecutorService = executorServices.getNormalExecutorService();
+    eventDispatcher.addListener(new BuildServerAdapter() {
+      @Override
+      public void serverStartup() {
+        final int interval = myConfigurator.getSeedingAdmissionIntervalSec();
+        myUpdateFuture = myExecutorService.scheduleWithFixedDelay(() -> {
+          try {
+            update();
+          } catch (Exception e) {
+            LOG.warnAndDebugDetails("Failed to update demoted torrents", e);
+          }
+        }, interval, interval, TimeUnit.SECONDS);
+      }
+
+      @Override
+      public void serverShutdown() {
+        final ScheduledFuture<?> future = myUpdateFuture;
+        if (future != null) {
+          future.cancel(false);
+        }
+      }
+    });
+  }
+
+  void update() throws IOException {
+    final TorrentsSeeder seeder = myDirectorySeeder.getStartedSeeder();
+    if (seeder == null) return;
+    if (!myTrackerManager.isTrackerRunning()) {
+      seeder.setDemoted(Collections.emptySet());
+      return;
+    }
+
+    final Map<String, TrackedTorrent> trackedTorrents = myTrackerManager.getTorrents();
+    for (Map.Entry<String, TrackedTorrent> entry : trackedTorrents.entrySet()) {
+      if (hasLeechers(entry.getValue())) {
+        myDirectorySeeder.recordTorrentDemand(entry.getKey());
+      }
+    }
+
+    if (!myConfigurator.isSeedingAdmissionEnabled()) {
+      seeder.setDemoted(Collections.emptySet());
+      return;
+    }
+
+    final Set<String> serverAddresses = getServerAddresses();
+    // demoted torrents are not seeded, but they are checked as well to be seeded again when agents leave
+    final Set<String> seeded = seeder.getDemoted();
+    for (SharedTorrent torrent : seeder.getSharedTorrents()) {
+      seeded.add(torrent.getHexInfoHash());
+    }
+    final PeerAnnounceTimes announceTimes = myTrackerManager.getAnnounceTimes();
+    final Map<String, Integer> agentSeeders = new HashMap<>();
+    for (String hash : seeded) {
+      final TrackedTorrent trackedTorrent = trackedTorrents.get(hash);
+      if (trackedTorrent != null) {
+        agentSeeders.put(hash, countAgentSeeders(hash, trackedTorrent, serverAddresses, announceTimes));
+      }
+    }
+
+    final Set<String> demoted = myPolicy.update(seeded, agentSeeders, myConfigurator.getSeedingAdmissionMinAgentSeeders());
+    seeder.setDemoted(demoted);
+    LOG.debug("Seeding is stopped for " + demoted.size() + " of " + seeded.size() + " registered torrents");
+  }
+
+  private static int countAgentSeeders(@NotNull String hexInfoHash,
+                                       @NotNull TrackedTorrent torrent,
+                                       @NotNull Set<String> serverAddresses,
+                                       @NotNull PeerAnnounceTimes announceTimes) {
+    int result = 0;
+    for (TrackedPeer peer : torrent.getPeers().values()) {
+      if (peer.getLeft() != 0 || serverAddresses.contains(peer.getIp())) continue;
+      if (announceTimes.hasAnnounced(hexInfoHash, peer.getIp(), peer.getPort())) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  private static boolean hasLeechers(@NotNull TrackedTorrent torrent) {
+    for (TrackedPeer peer : torrent.getPeers().values()) {
+      if (peer.getLeft() > 0) return true;
+    }
+    return false;
+  }
+
+  /**
+   * peers of server seeder are announced with the same addresses the seeder is started with, they must not be counted as agents
+   */
+  @NotNull
+  private Set<String> getServerAddresses() throws IOException {
+    final String ownAddress = myConfigurator.getOwnTorrentAddress();
+    final InetAddress[] addresses = ownAddress.isEmpty()
+            ? NetworkUtil.getSelfAddresses(null)
+            : InetAddress.getAllByName(ownAddress);
+    final Set<String> result = new HashSet<>();
+    for (InetAddress address : addresses) {
+      result.add(address.getHostAddress());
+    }
+    return result;
+  }
+}
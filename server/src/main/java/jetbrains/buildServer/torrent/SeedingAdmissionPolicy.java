@@ -0,0 +1,45 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which torrents seeded by server are demoted because enough agents seed them.
+ * <p>
+ * Torrent is demoted when number of agent seeders reaches the minimum and is restored when it drops below the minimum by more
+ * than one seeder, so an agent which restarts or stops seeding for a moment does not make the server switch back and forth.
+ */
+public class SeedingAdmissionPolicy {
+
+  private final Set<String> myDemoted = new HashSet<>();
+
+  /**
+   * @param seeded          info hashes of torrents seeded by server
+   * @param agentSeeders    number of agents which have complete data of torrent, by info hash
+   * @param minAgentSeeders number of agent seeders which makes server seeding unnecessary
+   * @return info hashes of demoted torrents
+   */
+  @NotNull
+  public synchronized Set<String> update(@NotNull Collection<String> seeded,
+                                         @NotNull Map<String, Integer> agentSeeders,
+                                         int minAgentSeeders) {
+    final Set<String> demoted = new HashSet<>();
+    for (String hash : seeded) {
+      final Integer count = agentSeeders.get(hash);
+      if (count == null) continue;
+      final int threshold = myDemoted.contains(hash) ? Math.max(1, minAgentSeeders - 1) : minAgentSeeders;
+      if (count >= threshold) {
+        demoted.add(hash);
+      }
+    }
+    myDemoted.clear();
+    myDemoted.addAll(demoted);
+    return demoted;
+  }
+}
@@ -0,0 +1,232 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.TorrentMetadata;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Creates torrent files on server for artifacts which were published without torrents.
+ * <p>
+ * Hashing is performed by bounded pool in background, total read rate of all hashing threads
+ * is limited by I/O budget in bytes per second: each chunk of artifact is read only after it fits into the budget. Torrent file is written next to other build torrents
+ * so the artifact becomes available for downloading by torrent as if agent created it.
+ * Artifacts which don't fit into generation queue are left without torrents, such drops are logged and counted in metrics.
+ */
+public class ServerTorrentGenerator {
+
+  private final static Logger LOG = Logger.getInstance(ServerTorrentGenerator.class.getName());
+
+  /**
+   * suffix of torrent file which is being written, such files must not be removed as unused torrents
+   */
+  static final String TMP_FILE_SUFFIX = ".tmp";
+  /**
+   * max count of bytes admitted by read budget at once
+   */
+  static final int MAX_READ_CHUNK = 64 * 1024;
+  private static final String CREATED_BY = "TeamCity Torrent Plugin";
+  private static final MetricsRegistry.Counter DROPPED_REQUESTS = MetricsRegistry.getInstance().counter(
+          "teamcity_torrent_generator_dropped_requests_total", "Artifacts left without torrent because torrent generation queue was full");
+
+  @NotNull private final TorrentConfigurator myConfigurator;
+  @NotNull private final ThreadPoolExecutor myExecutor;
+  @NotNull private final AtomicLong myGeneratedCount = new AtomicLong();
+  @NotNull private final AtomicLong myHashedBytes = new AtomicLong();
+  @NotNull private final AtomicLong myDroppedCount = new AtomicLong();
+  private final Object myBudgetLock = new Object();
+  private long myNextFreeTimeNanos = 0;
+  @NotNull private final List<BiConsumer<File, File>> myListeners = new CopyOnWriteArrayList<>();
+
+  public ServerTorrentGenerator(@NotNull TorrentConfigurator configurator) {
+    myConfigurator = configurator;
+    final AtomicInteger threadNumber = new AtomicInteger();
+    final int threads = configurator.getTorrentGenerationThreadsCount();
+    myExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(configurator.getTorrentGenerationQueueSize()),
+            r -> {
+              Thread thread = new Thread(r, "Torrent generator " + threadNumber.incrementAndGet());
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            },
+            (r, executor) -> {
+              myDroppedCount.incrementAndGet();
+              DROPPED_REQUESTS.inc();
+              LOG.warn("Torrent generation queue is full, torrent will not be created");
+            });
+    myExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  public boolean isEnabled() {
+    return myConfigurator.isTorrentGenerationEnabled();
+  }
+
+  /**
+   * adds listener which is notified with artifact and torrent files about each created torrent file
+   */
+  public void addListener(@NotNull BiConsumer<File, File> listener) {
+    myListeners.add(listener);
+  }
+
+  /**
+   * schedules creating of torrent file for artifact if generation is enabled and artifact is big enough
+   *
+   * @param srcFile     artifact file
+   * @param torrentFile torrent file to create
+   * @param onCreated   callback invoked with artifact and torrent files after torrent file is created
+   */
+  public void submit(@NotNull final File srcFile, @NotNull final File torrentFile, @NotNull final BiConsumer<File, File> onCreated) {
+    if (!isEnabled()) return;
+    if (!TorrentUtil.shouldCreateTorrentFor(srcFile.length(), myConfigurator)) return;
+    myExecutor.execute(() -> {
+      try {
+        if (generate(srcFile, torrentFile)) {
+          onCreated.accept(srcFile, torrentFile);
+          myListeners.forEach(listener -> listener.accept(srcFile, torrentFile));
+        }
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Failed to create torrent for " + srcFile, e);
+      }
+    });
+  }
+
+  private boolean generate(@NotNull File srcFile, @NotNull File torrentFile) throws Exception {
+    if (torrentFile.exists() || !srcFile.isFile() || !isEnabled()) return false;
+    final String announceUrl = myConfigurator.getAnnounceUrl();
+    if (announceUrl == null) return false;
+
+    FileUtil.createParentDirs(torrentFile);
+    final File tmpFile = new File(torrentFile.getParentFile(), torrentFile.getName() + TMP_FILE_SUFFIX);
+    try {
+      writeTorrent(srcFile, tmpFile, announceUrl, myConfigurator.getUdpAnnounceUrl(), this::acquireBudget);
+      Files.move(tmpFile.toPath(), torrentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      FileUtil.delete(tmpFile);
+    }
+    myGeneratedCount.incrementAndGet();
+    LOG.debug("Torrent file " + torrentFile + " created on server for " + srcFile);
+    return true;
+  }
+
+  /**
+   * creates single file torrent via {@link TorrentUtil}, artifact is read through the stream which admits each read
+   * by read budget, so hashing proceeds at budget rate instead of reading whole file at full speed and then waiting.
+   * If UDP announce url is not empty, it is the first announce tier and http announce url is the fallback tier
+   */
+  void writeTorrent(@NotNull File srcFile,
+                    @NotNull File torrentFile,
+                    @NotNull String announceUrl,
+                    @Nullable String udpAnnounceUrl,
+                    @NotNull ReadBudget budget) throws IOException {
+    final TorrentMetadata metadata;
+    try (InputStream in = new ThrottledInputStream(new FileInputStream(srcFile), budget)) {
+      metadata = TorrentUtil.createTorrent(in, srcFile.getName(), URI.create(announceUrl),
+              udpAnnounceUrl == null || udpAnnounceUrl.isEmpty() ? null : URI.create(udpAnnounceUrl), CREATED_BY);
+    }
+    TorrentUtil.saveTorrentToFile(metadata, torrentFile);
+  }
+
+  /**
+   * waits until reading of specified count of bytes fits into I/O budget
+   */
+  private void acquireBudget(long bytes) throws InterruptedException {
+    final long bytesPerSec = myConfigurator.getTorrentGenerationBytesPerSec();
+    if (bytesPerSec <= 0) return;
+    final long waitNanos;
+    synchronized (myBudgetLock) {
+      final long now = System.nanoTime();
+      final long start = Math.max(now, myNextFreeTimeNanos);
+      myNextFreeTimeNanos = start + TimeUnit.SECONDS.toNanos(1) * bytes / bytesPerSec;
+      waitNanos = start - now;
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  public long getGeneratedCount() {
+    return myGeneratedCount.get();
+  }
+
+  public long getHashedBytes() {
+    return myHashedBytes.get();
+  }
+
+  public long getDroppedCount() {
+    return myDroppedCount.get();
+  }
+
+  public int getQueueSize() {
+    return myExecutor.getQueue().size();
+  }
+
+  public void shutdown() {
+    myExecutor.shutdownNow();
+  }
+
+  /**
+   * admits reading of specified count of bytes, may wait until reading fits into budget
+   */
+  interface ReadBudget {
+    void acquire(long bytes) throws InterruptedException;
+  }
+
+  /**
+   * stream which reads at most {@link #MAX_READ_CHUNK} bytes at once and only after they are admitted by read budget
+   */
+  private class ThrottledInputStream extends FilterInputStream {
+
+    @NotNull private final ReadBudget myBudget;
+
+    private ThrottledInputStream(@NotNull InputStream in, @NotNull ReadBudget budget) {
+      super(in);
+      myBudget = budget;
+    }
+
+    @Override
+    public int read() throws IOException {
+      acquire(1);
+      final int result = super.read();
+      if (result >= 0) {
+        myHashedBytes.incrementAndGet();
+      }
+      return result;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+      final int chunk = Math.min(len, MAX_READ_CHUNK);
+      acquire(chunk);
+      final int count = super.read(b, off, chunk);
+      if (count > 0) {
+        myHashedBytes.addAndGet(count);
+      }
+      return count;
+    }
+
+    private void acquire(int bytes) throws IOException {
+      try {
+        myBudget.acquire(bytes);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Torrent generation is interrupted");
+      }
+    }
+  }
+}
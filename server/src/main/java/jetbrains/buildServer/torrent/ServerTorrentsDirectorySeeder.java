@@ -18,21 +18,19 @@ import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.torrent.seeder.ParentDirConverter;
 import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
 import jetbrains.buildServer.torrent.settings.SeedSettings;
-import jetbrains.buildServer.torrent.torrent.TorrentUtil;
 import jetbrains.buildServer.util.EventDispatcher;
-import jetbrains.buildServer.util.FileUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.FileFilter;
 import java.net.InetAddress;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -52,6 +50,9 @@ public class ServerTorrentsDirectorySeeder {
   private URI myAnnounceURI;
   private int myMaxTorrentsToSeed;
   private final SelectorFactory mySelectorFactory;
+  private final BuildArtifactsPipeline myArtifactsPipeline;
+  private final ServerTorrentGenerator myTorrentGenerator;
+  private final BuildTorrentsIndex myTorrentsIndex;
 
   public ServerTorrentsDirectorySeeder(@NotNull final ServerPaths serverPaths,
                                        @NotNull final ServerSettings serverSettings,
@@ -64,6 +65,13 @@ public class ServerTorrentsDirectorySeeder {
     setMaxNumberOfSeededTorrents(configurator.getMaxNumberOfSeededTorrents());
     myConfigurator = configurator;
     mySelectorFactory = selectorFactory;
+    myArtifactsPipeline = new BuildArtifactsPipeline(configurator.getArtifactsPipelineThreadsCount(),
+            configurator.getArtifactsPipelineQueueSize(),
+            configurator.getArtifactsPipelineShutdownTimeoutMs(),
+            configurator.getArtifactsPipelineResolveParallelism());
+    myTorrentGenerator = new ServerTorrentGenerator(configurator);
+    myTorrentsIndex = new BuildTorrentsIndex(configurator.getTorrentsIndexCacheSize());
+    myTorrentGenerator.addListener((srcFile, torrentFile) -> myTorrentsIndex.torrentCreated(torrentFile));
     eventDispatcher.addListener(new BuildServerAdapter() {
       @Override
       public void serverStartup() {
@@ -94,27 +102,57 @@ public class ServerTorrentsDirectorySeeder {
           return;
         }
 
-        File artifactsDirectory = build.getArtifactsDirectory();
-        final File torrentsDir = getTorrentFilesBaseDir(artifactsDirectory);
-        torrentsDir.mkdirs();
-        Path torrentsPath = torrentsDir.toPath();
-        final UnusedTorrentFilesRemover torrentFilesRemover;
+        final File artifactsDirectory = build.getArtifactsDirectory();
+        // torrents published during the build are listed when artifacts are processed
+        myTorrentsIndex.invalidate(artifactsDirectory);
+        final BuildArtifacts buildArtifacts = build.getArtifacts(BuildArtifactsViewMode.VIEW_INTERNAL_ONLY);
+        final TorrentsSeeder torrentsSeeder = myTorrentsSeeder;
+        final boolean readWriteNode = serverResponsibility.canManageBuilds();
+        myArtifactsPipeline.submit(build.toString(), () -> {
+          final File torrentsDir = getTorrentFilesBaseDir(artifactsDirectory);
+          torrentsDir.mkdirs();
+          Path torrentsPath = torrentsDir.toPath();
+          final UnusedTorrentFilesRemover torrentFilesRemover;
+
+          if (readWriteNode) {
+            torrentFilesRemover = new SortedMergeTorrentFilesRemover(Files::delete, myArtifactsPipeline.getResolvePool());
+          } else {
+            torrentFilesRemover = (artifacts, path)->{};
+          }
 
-        boolean readWriteNode = serverResponsibility.canManageBuilds();
-        if (readWriteNode) {
-          torrentFilesRemover = new UnusedTorrentFilesRemoverImpl(Files::delete, Files::walkFileTree);
+          final ArtifactsPipelineTimings timings = myArtifactsPipeline.getTimings();
+          final ArtifactProcessorImpl artifactProcessor = new ArtifactProcessorImpl(torrentsPath, artifactsDirectory.toPath(),
+                  torrentsSeeder, myConfigurator, timings, myArtifactsPipeline.getResolvePool(),
+                  // torrent files are written to artifacts directory, so only node which manages builds can create them
+                  readWriteNode ? myTorrentGenerator : null);
+          // collected artifacts are streamed to processor, processArtifacts only waits for the streamed batches
+          announceBuildArtifacts(torrentsPath,
+                  buildArtifacts,
+                  new ArtifactsCollectorImpl(artifactProcessor::submitBatch, myConfigurator.getArtifactsPipelineBatchSize()),
+                  artifactProcessor,
+                  torrentFilesRemover,
+                  timings);
+          if (readWriteNode) {
+            myTorrentsIndex.rebuild(artifactsDirectory);
+          } else {
+            myTorrentsIndex.invalidate(artifactsDirectory);
+          }
+        });
+      }
+
+      @Override
+      public void buildArtifactsChanged(@NotNull SBuild build) {
+        // artifacts cleanup can remove torrent files listed in the index
+        if (serverResponsibility.canManageBuilds()) {
+          myTorrentsIndex.remove(build.getArtifactsDirectory());
         } else {
-          torrentFilesRemover = (artifacts, path)->{};
+          myTorrentsIndex.invalidate(build.getArtifactsDirectory());
         }
-
-        announceBuildArtifacts(torrentsPath,
-                build.getArtifacts(BuildArtifactsViewMode.VIEW_INTERNAL_ONLY),
-                new ArtifactsCollectorImpl(),
-                new ArtifactProcessorImpl(torrentsPath, artifactsDirectory.toPath(), myTorrentsSeeder, myConfigurator),
-                torrentFilesRemover);
       }
 
       public void serverShutdown() {
+        myArtifactsPipeline.shutdown();
+        myTorrentGenerator.shutdown();
         if (myTorrentsSeeder != null) {
           myTorrentsSeeder.dispose();
         }
@@ -131,6 +169,9 @@ public class ServerTorrentsDirectorySeeder {
             setMaxNumberOfSeededTorrents((Integer) evt.getNewValue());
             myTorrentsSeeder.setMaxTorrentsToSeed(myMaxTorrentsToSeed);
             break;
+          case SeedSettings.MAX_SEEDED_SIZE:
+            myTorrentsSeeder.setMaxSeededBytes((Long) evt.getNewValue());
+            break;
           case TorrentConfiguration.ANNOUNCE_INTERVAL:
             myTorrentsSeeder.setAnnounceInterval((Integer) evt.getNewValue());
             break;
@@ -182,7 +223,7 @@ public class ServerTorrentsDirectorySeeder {
         addresses = NetworkUtil.getSelfAddresses(null);
       }
 
-      myTorrentsSeeder.start(addresses, myAnnounceURI, TorrentConfiguration.DEFAULT_ANNOUNCE_INTERVAL, mySelectorFactory);
+      myTorrentsSeeder.start(addresses, myAnnounceURI, myConfigurator.getAnnounceIntervalSec(), mySelectorFactory);
     } catch (Exception e) {
       Loggers.SERVER.warn("Failed to start torrent seeder", e);
     }
@@ -195,16 +236,20 @@ public class ServerTorrentsDirectorySeeder {
 
   @NotNull
   public Collection<File> getTorrentFiles(@NotNull SBuild build) {
-    File baseDir = getTorrentFilesBaseDir(build.getArtifactsDirectory());
-    try {
-      return FileUtil.findFiles(new FileFilter() {
-        public boolean accept(File file) {
-          return file.getName().endsWith(TorrentUtil.TORRENT_FILE_SUFFIX);
-        }
-      }, baseDir);
-    } catch (Exception e) {
-      return Collections.emptyList();
+    final File baseDir = getTorrentFilesBaseDir(build.getArtifactsDirectory());
+    final List<File> result = new ArrayList<>();
+    for (String path : getTorrentPaths(build)) {
+      result.add(new File(baseDir, path));
     }
+    return result;
+  }
+
+  /**
+   * @return paths of build torrent files relative to torrents directory, taken from the build torrents index
+   */
+  @NotNull
+  public List<String> getTorrentPaths(@NotNull SBuild build) {
+    return myTorrentsIndex.getTorrentPaths(build.getArtifactsDirectory(), build.isFinished());
   }
 
   @NotNull
@@ -219,14 +264,49 @@ public class ServerTorrentsDirectorySeeder {
     return myTorrentsSeeder.getNumberOfSeededTorrents();
   }
 
+  /**
+   * @return total size of artifacts registered for seeding
+   */
+  public long getSeededBytes() {
+    if (myTorrentsSeeder.isStopped()) {
+      return 0;
+    }
+    return myTorrentsSeeder.getSeededBytes();
+  }
+
   void announceBuildArtifacts(@NotNull final Path torrentsDir,
                               @NotNull final BuildArtifacts buildArtifacts,
                               @NotNull final ArtifactsCollector artifactsCollector,
                               @NotNull final ArtifactProcessor artifactProcessor,
                               @NotNull final UnusedTorrentFilesRemover torrentFilesRemover) {
+    announceBuildArtifacts(torrentsDir, buildArtifacts, artifactsCollector, artifactProcessor, torrentFilesRemover, new ArtifactsPipelineTimings());
+  }
+
+  void announceBuildArtifacts(@NotNull final Path torrentsDir,
+                              @NotNull final BuildArtifacts buildArtifacts,
+                              @NotNull final ArtifactsCollector artifactsCollector,
+                              @NotNull final ArtifactProcessor artifactProcessor,
+                              @NotNull final UnusedTorrentFilesRemover torrentFilesRemover,
+                              @NotNull final ArtifactsPipelineTimings timings) {
+    long start = System.currentTimeMillis();
     List<BuildArtifact> artifactList = artifactsCollector.collectArtifacts(buildArtifacts);
+    timings.stageFinished(ArtifactsPipelineTimings.Stage.COLLECT, System.currentTimeMillis() - start);
+
     artifactProcessor.processArtifacts(artifactList);
+
+    start = System.currentTimeMillis();
     torrentFilesRemover.removeUnusedTorrents(artifactList, torrentsDir);
+    timings.stageFinished(ArtifactsPipelineTimings.Stage.REMOVE, System.currentTimeMillis() - start);
+  }
+
+  @NotNull
+  public BuildArtifactsPipeline getArtifactsPipeline() {
+    return myArtifactsPipeline;
+  }
+
+  @NotNull
+  public ServerTorrentGenerator getTorrentGenerator() {
+    return myTorrentGenerator;
   }
 
   public void setMaxNumberOfSeededTorrents(int maxNumberOfSeededTorrents) {
@@ -241,6 +321,26 @@ public class ServerTorrentsDirectorySeeder {
     return myTorrentsSeeder.getSharedTorrents();
   }
 
+  /**
+   * @return seeder or null if seeder is not started
+   */
+  @Nullable
+  public TorrentsSeeder getStartedSeeder() {
+    final TorrentsSeeder torrentsSeeder = myTorrentsSeeder;
+    if (torrentsSeeder == null || torrentsSeeder.isStopped()) return null;
+    return torrentsSeeder;
+  }
+
+  /**
+   * reports torrent as requested by agents, so it is kept by popularity based eviction policy
+   */
+  public void recordTorrentDemand(@NotNull String hexInfoHash) {
+    final TorrentsSeeder torrentsSeeder = myTorrentsSeeder;
+    if (torrentsSeeder != null) {
+      torrentsSeeder.recordDemand(hexInfoHash);
+    }
+  }
+
   public List<LoadedTorrent> getLoadedTorrents() {
     return myTorrentsSeeder.getClient().getLoadedTorrents();
   }
@@ -3,14 +3,17 @@
 package jetbrains.buildServer.torrent;
 
 import com.turn.ttorrent.client.announce.AnnounceException;
-import com.turn.ttorrent.client.announce.HTTPTrackerClient;
 import com.turn.ttorrent.client.announce.TrackerClient;
 import com.turn.ttorrent.client.announce.TrackerClientFactory;
+import com.turn.ttorrent.client.announce.TrackerClientFactoryImpl;
 import com.turn.ttorrent.common.AnnounceableInformation;
 import com.turn.ttorrent.common.Peer;
 import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
 import jetbrains.buildServer.serverSide.ReadOnlyRestrictor;
 import jetbrains.buildServer.serverSide.ServerResponsibility;
+import jetbrains.buildServer.torrent.announce.AdaptiveAnnouncePolicy;
+import jetbrains.buildServer.torrent.announce.DeltaAnnounceTrackerClient;
+import jetbrains.buildServer.torrent.announce.DeltaAnnounceTrackerClientFactory;
 import org.jetbrains.annotations.NotNull;
 
 import java.net.ConnectException;
@@ -18,29 +21,45 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.net.UnknownServiceException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServerTrackerClientFactory implements TrackerClientFactory {
 
   @NotNull
   private final ServerResponsibility myServerResponsibility;
+  @NotNull
+  private final TrackerClientFactory myDefaultFactory = new TrackerClientFactoryImpl();
+  @NotNull
+  private final AtomicInteger myTrackerExpireTimeoutSec;
 
-  public ServerTrackerClientFactory(@NotNull ServerResponsibility serverResponsibility) {
+  public ServerTrackerClientFactory(@NotNull ServerResponsibility serverResponsibility,
+                                    @NotNull TorrentConfigurator configurator) {
     myServerResponsibility = serverResponsibility;
+    myTrackerExpireTimeoutSec = new AtomicInteger(configurator.getTrackerTorrentExpireTimeoutSec());
+    configurator.addPropertyChangeListener(evt -> {
+      if (TorrentConfiguration.TRACKER_TORRENT_EXPIRE_TIMEOUT.equals(evt.getPropertyName()) && evt.getNewValue() instanceof Integer) {
+        myTrackerExpireTimeoutSec.set((Integer) evt.getNewValue());
+      }
+    });
   }
 
   @Override
   public TrackerClient createTrackerClient(List<Peer> peers, URI tracker) throws UnknownHostException, UnknownServiceException {
+    if (!"http".equals(tracker.getScheme()) && !"https".equals(tracker.getScheme())) {
+      return myDefaultFactory.createTrackerClient(peers, tracker);
+    }
     if (myServerResponsibility.canManageServerConfig()) {
-      return new HTTPTrackerClient(peers, tracker);
+      return new DeltaAnnounceTrackerClient(peers, tracker, DeltaAnnounceTrackerClientFactory.isKeepAliveEnabled(),
+              AdaptiveAnnouncePolicy.fromProperties(myTrackerExpireTimeoutSec));
     } else {
-      return new ReadOnlyHttpClient(peers, tracker);
+      return new ReadOnlyHttpClient(peers, tracker, AdaptiveAnnouncePolicy.fromProperties(myTrackerExpireTimeoutSec));
     }
   }
 
-  private static class ReadOnlyHttpClient extends HTTPTrackerClient {
+  private static class ReadOnlyHttpClient extends DeltaAnnounceTrackerClient {
 
-    ReadOnlyHttpClient(List<Peer> peers, URI tracker) {
-      super(peers, tracker);
+    ReadOnlyHttpClient(List<Peer> peers, URI tracker, AdaptiveAnnouncePolicy announcePolicy) {
+      super(peers, tracker, DeltaAnnounceTrackerClientFactory.isKeepAliveEnabled(), announcePolicy);
     }
 
     @Override
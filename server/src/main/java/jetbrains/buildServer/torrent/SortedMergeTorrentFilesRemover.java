@@ -0,0 +1,213 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Removes torrent files without pair in artifacts list by merging sorted artifact paths against sorted directory walk.
+ * <p>
+ * Artifact paths are sorted by path segments, directories are visited with children sorted by name,
+ * so each directory corresponds to contiguous range of artifact paths found by binary search.
+ * Directories without artifacts are removed completely without comparing files and files are removed in parallel batches.
+ * Memory is proportional to count of artifacts (their paths are kept as sorted arrays of segments)
+ * plus children of directories on the current walk path.
+ * <p>
+ * Symbolic links are neither followed nor removed, temporary files of torrents being generated
+ * (see {@link ServerTorrentGenerator}) are kept.
+ */
+public class SortedMergeTorrentFilesRemover implements UnusedTorrentFilesRemover {
+
+  private final static Logger LOG = Logger.getInstance(SortedMergeTorrentFilesRemover.class.getName());
+
+  private static final int REMOVE_BATCH_SIZE = 256;
+
+  private static final Comparator<String[]> SEGMENTS_COMPARATOR = (a, b) -> {
+    final int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      final int result = a[i].compareTo(b[i]);
+      if (result != 0) return result;
+    }
+    return Integer.compare(a.length, b.length);
+  };
+
+  @NotNull private final FileRemover myFileRemover;
+  @NotNull private final ExecutorService myRemoveExecutor;
+
+  public SortedMergeTorrentFilesRemover(@NotNull FileRemover fileRemover, @NotNull ExecutorService removeExecutor) {
+    myFileRemover = fileRemover;
+    myRemoveExecutor = removeExecutor;
+  }
+
+  @Override
+  public void removeUnusedTorrents(@NotNull List<BuildArtifact> artifacts, @NotNull Path torrentsDir) {
+    final String[][] expected = artifacts.stream()
+            .map(it -> (it.getRelativePath() + TorrentUtil.TORRENT_FILE_SUFFIX).split("/"))
+            .sorted(SEGMENTS_COMPARATOR)
+            .toArray(String[][]::new);
+
+    final RemoveBatches batches = new RemoveBatches();
+    try {
+      if (Files.isDirectory(torrentsDir)) {
+        walk(torrentsDir, new String[0], expected, 0, expected.length, batches);
+      }
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("failed walk torrent files tree for removing useless torrents", e);
+    }
+    batches.flush();
+    batches.await();
+  }
+
+  private void walk(@NotNull Path dir,
+                    @NotNull String[] prefix,
+                    @NotNull String[][] expected,
+                    int from,
+                    int to,
+                    @NotNull RemoveBatches batches) throws IOException {
+    for (Path child : sortedChildren(dir)) {
+      if (isSkipped(child)) continue;
+      final String[] childSegments = Arrays.copyOf(prefix, prefix.length + 1);
+      childSegments[prefix.length] = child.getFileName().toString();
+      final int childFrom = lowerBound(expected, from, to, childSegments);
+      final int childTo = upperBound(expected, childFrom, to, childSegments);
+
+      if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        if (childFrom == childTo) {
+          removeSubtree(child, batches);
+        } else {
+          walk(child, childSegments, expected, childFrom, childTo, batches);
+        }
+      } else {
+        final boolean isExpected = childFrom < childTo && expected[childFrom].length == childSegments.length;
+        if (!isExpected) {
+          batches.add(child);
+        }
+      }
+    }
+  }
+
+  private void removeSubtree(@NotNull Path dir, @NotNull RemoveBatches batches) throws IOException {
+    for (Path child : sortedChildren(dir)) {
+      if (isSkipped(child)) continue;
+      if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+        removeSubtree(child, batches);
+      } else {
+        batches.add(child);
+      }
+    }
+  }
+
+  private static boolean isSkipped(@NotNull Path path) {
+    return Files.isSymbolicLink(path) || path.getFileName().toString().endsWith(ServerTorrentGenerator.TMP_FILE_SUFFIX);
+  }
+
+  @NotNull
+  private static List<Path> sortedChildren(@NotNull Path dir) throws IOException {
+    final List<Path> children = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      stream.forEach(children::add);
+    }
+    children.sort(Comparator.comparing(path -> path.getFileName().toString()));
+    return children;
+  }
+
+  /**
+   * @return index of first path in range which starts with prefix or is greater than prefix
+   */
+  private static int lowerBound(@NotNull String[][] expected, int from, int to, @NotNull String[] prefix) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparePrefix(expected[mid], prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return index of first path in range which is greater than all paths starting with prefix
+   */
+  private static int upperBound(@NotNull String[][] expected, int from, int to, @NotNull String[] prefix) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparePrefix(expected[mid], prefix) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * compares path with prefix, path which starts with prefix is equal to it
+   */
+  private static int comparePrefix(@NotNull String[] path, @NotNull String[] prefix) {
+    final int length = Math.min(path.length, prefix.length);
+    for (int i = 0; i < length; i++) {
+      final int result = path[i].compareTo(prefix[i]);
+      if (result != 0) return result;
+    }
+    return path.length < prefix.length ? -1 : 0;
+  }
+
+  private class RemoveBatches {
+    private final List<Future<?>> myFutures = new ArrayList<>();
+    private List<Path> myCurrent = new ArrayList<>();
+
+    void add(@NotNull Path path) {
+      myCurrent.add(path);
+      if (myCurrent.size() >= REMOVE_BATCH_SIZE) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (myCurrent.isEmpty()) return;
+      final List<Path> batch = myCurrent;
+      myCurrent = new ArrayList<>();
+      myFutures.add(myRemoveExecutor.submit(() -> batch.forEach(path -> {
+        try {
+          myFileRemover.remove(path);
+        } catch (IOException e) {
+          LOG.warnAndDebugDetails("unable to remove unused torrent file " + path, e);
+        }
+      })));
+    }
+
+    void await() {
+      for (Future<?> future : myFutures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } catch (ExecutionException e) {
+          LOG.warnAndDebugDetails("failed to remove unused torrent files", e.getCause());
+        }
+      }
+    }
+  }
+}
@@ -12,6 +12,7 @@ import jetbrains.buildServer.configuration.ChangeProvider;
 import jetbrains.buildServer.log.Loggers;
 import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
 import jetbrains.buildServer.torrent.settings.LeechSettings;
 import jetbrains.buildServer.torrent.settings.SeedSettings;
 import jetbrains.buildServer.torrent.torrent.TorrentUtil;
@@ -42,6 +43,8 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
   private volatile Properties myConfiguration;
   private List<PropertyChangeListener> myChangeListeners = new ArrayList<PropertyChangeListener>();
   private String myAnnounceUrl;
+  private volatile String myUdpAnnounceUrl;
+  private volatile long myMaxSeededBytes = TorrentsSeeder.readMaxSeededBytes();
   private final TorrentConfigurationWatcher myConfigurationWatcher;
 
   public TorrentConfigurator(@NotNull final ServerPaths serverPaths,
@@ -62,7 +65,9 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
       public void changeOccured(String requestor) {
         setTrackerEnabled(TeamCityProperties.getBooleanOrTrue(TRACKER_ENABLED));
         setTrackerUsesDedicatedPort(TeamCityProperties.getBoolean(TRACKER_DEDICATED_PORT));
+        setTrackerUdpEnabled(TeamCityProperties.getBoolean(TRACKER_UDP_ENABLED));
         setMaxNumberOfSeededTorrents(TeamCityProperties.getInteger(MAX_NUMBER_OF_SEEDED_TORRENTS, DEFAULT_MAX_NUMBER_OF_SEEDED_TORRENTS));
+        setMaxSeededBytes(TorrentsSeeder.readMaxSeededBytes());
         long newFileSize = getFileSizeThreshold();
         setFileSizeThresholdMb(newFileSize);
         setMaxConnectionsCount(TeamCityProperties.getInteger(MAX_INCOMING_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
@@ -141,6 +146,14 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
     }
   }
 
+  private void setMaxSeededBytes(long maxSeededBytes) {
+    long oldValue = myMaxSeededBytes;
+    if (oldValue != maxSeededBytes) {
+      myMaxSeededBytes = maxSeededBytes;
+      propertyChanged(MAX_SEEDED_SIZE, oldValue, maxSeededBytes);
+    }
+  }
+
   private void setAnnounceIntervalSec(int sec) {
     int oldValue = TorrentUtil.getIntegerValue(myConfiguration, ANNOUNCE_INTERVAL, DEFAULT_ANNOUNCE_INTERVAL);
     if (oldValue != sec) {
@@ -178,6 +191,14 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
     }
   }
 
+  private void setTrackerUdpEnabled(boolean enabled) {
+    boolean oldValue = TorrentUtil.getBooleanValue(myConfiguration, TRACKER_UDP_ENABLED, DEFAULT_TRACKER_UDP_ENABLED);
+    if (oldValue != enabled) {
+      myConfiguration.setProperty(TRACKER_UDP_ENABLED, String.valueOf(enabled));
+      propertyChanged(TRACKER_UDP_ENABLED, oldValue, enabled);
+    }
+  }
+
   public void setAgentDownloadEnabled(boolean enabled) {
     boolean oldValue = TorrentUtil.getBooleanValue(myConfiguration, LeechSettings.DOWNLOAD_ENABLED, LeechSettings.DEFAULT_DOWNLOAD_ENABLED);
     if (oldValue != enabled) {
@@ -257,10 +278,105 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
     return TeamCityProperties.getInteger(ANNOUNCE_INTERVAL, DEFAULT_ANNOUNCE_INTERVAL);
   }
 
+  @Override
   public int getTrackerTorrentExpireTimeoutSec() {
     return TeamCityProperties.getInteger(TRACKER_TORRENT_EXPIRE_TIMEOUT, DEFAULT_TRACKER_TORRENT_EXPIRE_TIMEOUT);
   }
 
+  public int getTrackerAnnounceCacheTtlSec() {
+    return TeamCityProperties.getInteger(TRACKER_ANNOUNCE_CACHE_TTL, DEFAULT_TRACKER_ANNOUNCE_CACHE_TTL);
+  }
+
+  public boolean isTrackerSnapshotEnabled() {
+    return TeamCityProperties.getBooleanOrTrue(TRACKER_SNAPSHOT_ENABLED);
+  }
+
+  public int getTrackerSnapshotIntervalSec() {
+    return TeamCityProperties.getInteger(TRACKER_SNAPSHOT_INTERVAL, DEFAULT_TRACKER_SNAPSHOT_INTERVAL);
+  }
+
+  public int getArtifactsPipelineThreadsCount() {
+    return Math.max(1, TeamCityProperties.getInteger(ARTIFACTS_PIPELINE_THREADS, DEFAULT_ARTIFACTS_PIPELINE_THREADS));
+  }
+
+  public int getArtifactsPipelineQueueSize() {
+    return TeamCityProperties.getInteger(ARTIFACTS_PIPELINE_QUEUE_SIZE, DEFAULT_ARTIFACTS_PIPELINE_QUEUE_SIZE);
+  }
+
+  public long getArtifactsPipelineShutdownTimeoutMs() {
+    return TeamCityProperties.getLong(ARTIFACTS_PIPELINE_SHUTDOWN_TIMEOUT_MS, DEFAULT_ARTIFACTS_PIPELINE_SHUTDOWN_TIMEOUT_MS);
+  }
+
+  public int getArtifactsPipelineBatchSize() {
+    return TeamCityProperties.getInteger(ARTIFACTS_PIPELINE_BATCH_SIZE, DEFAULT_ARTIFACTS_PIPELINE_BATCH_SIZE);
+  }
+
+  public int getArtifactsPipelineResolveParallelism() {
+    return TeamCityProperties.getInteger(ARTIFACTS_PIPELINE_RESOLVE_PARALLELISM, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  public boolean isTorrentGenerationEnabled() {
+    return TeamCityProperties.getBoolean(SERVER_TORRENT_GENERATION_ENABLED);
+  }
+
+  public int getTorrentGenerationThreadsCount() {
+    return Math.max(1, TeamCityProperties.getInteger(SERVER_TORRENT_GENERATION_THREADS, DEFAULT_SERVER_TORRENT_GENERATION_THREADS));
+  }
+
+  public int getTorrentGenerationQueueSize() {
+    return Math.max(1, TeamCityProperties.getInteger(SERVER_TORRENT_GENERATION_QUEUE_SIZE, DEFAULT_SERVER_TORRENT_GENERATION_QUEUE_SIZE));
+  }
+
+  public long getTorrentGenerationBytesPerSec() {
+    return TeamCityProperties.getLong(SERVER_TORRENT_GENERATION_BYTES_PER_SEC, DEFAULT_SERVER_TORRENT_GENERATION_BYTES_PER_SEC);
+  }
+
+  public int getTorrentsIndexCacheSize() {
+    return Math.max(1, TeamCityProperties.getInteger(TORRENTS_INDEX_CACHE_SIZE, DEFAULT_TORRENTS_INDEX_CACHE_SIZE));
+  }
+
+  public boolean isPrefetchEnabled() {
+    return TeamCityProperties.getBoolean(SERVER_PREFETCH_ENABLED);
+  }
+
+  public int getPrefetchFanOut() {
+    return Math.max(0, TeamCityProperties.getInteger(SERVER_PREFETCH_FAN_OUT, DEFAULT_SERVER_PREFETCH_FAN_OUT));
+  }
+
+  public long getPrefetchMinFileSizeBytes() {
+    final String strValue = TeamCityProperties.getProperty(SERVER_PREFETCH_MIN_FILE_SIZE, DEFAULT_SERVER_PREFETCH_MIN_FILE_SIZE);
+    try {
+      return StringUtil.parseFileSize(strValue);
+    } catch (NumberFormatException e) {
+      Loggers.SERVER.warnAndDebugDetails("incorrect value " + strValue + " for prefetch file size property", e);
+      return StringUtil.parseFileSize(DEFAULT_SERVER_PREFETCH_MIN_FILE_SIZE);
+    }
+  }
+
+  public long getPrefetchTaskTtlMs() {
+    return TimeUnit.SECONDS.toMillis(TeamCityProperties.getInteger(SERVER_PREFETCH_TASK_TTL_SEC, DEFAULT_SERVER_PREFETCH_TASK_TTL_SEC));
+  }
+
+  public boolean isSeedingAdmissionEnabled() {
+    return TeamCityProperties.getBoolean(SERVER_SEEDING_ADMISSION_ENABLED);
+  }
+
+  public int getSeedingAdmissionMinAgentSeeders() {
+    return Math.max(1, TeamCityProperties.getInteger(SERVER_SEEDING_ADMISSION_MIN_AGENT_SEEDERS, DEFAULT_SERVER_SEEDING_ADMISSION_MIN_AGENT_SEEDERS));
+  }
+
+  public int getSeedingAdmissionIntervalSec() {
+    return Math.max(1, TeamCityProperties.getInteger(SERVER_SEEDING_ADMISSION_INTERVAL_SEC, DEFAULT_SERVER_SEEDING_ADMISSION_INTERVAL_SEC));
+  }
+
+  public boolean isTrackerUdpEnabled() {
+    return TeamCityProperties.getBoolean(TRACKER_UDP_ENABLED);
+  }
+
+  public int getTrackerUdpPort() {
+    return TeamCityProperties.getInteger(TRACKER_UDP_PORT, DEFAULT_TRACKER_UDP_PORT);
+  }
+
   public boolean isTrackerDedicatedPort() {
     return TeamCityProperties.getBoolean(TRACKER_DEDICATED_PORT);
   }
@@ -321,6 +437,24 @@ public class TorrentConfigurator implements TorrentConfiguration, SeedSettings {
     propertyChanged(ANNOUNCE_URL, oldAnnounceUrl, announceUrl);
   }
 
+  /**
+   * @return announce url of UDP tracker endpoint or empty string if endpoint isn't running.
+   * Empty string is used instead of null because the value is passed to agents via XML-RPC
+   */
+  @NotNull
+  @Override
+  public String getUdpAnnounceUrl() {
+    final String udpAnnounceUrl = myUdpAnnounceUrl;
+    if (isTrackerEnabled() && isTrackerUdpEnabled() && udpAnnounceUrl != null)
+      return udpAnnounceUrl;
+    else
+      return "";
+  }
+
+  public void setUdpAnnounceUrl(@Nullable final String udpAnnounceUrl) {
+    myUdpAnnounceUrl = udpAnnounceUrl;
+  }
+
   @NotNull
   @Override
   public String getOwnTorrentAddress() {
@@ -8,14 +8,17 @@ import com.turn.ttorrent.tracker.*;
 import jetbrains.buildServer.NetworkUtil;
 import jetbrains.buildServer.serverSide.BuildServerAdapter;
 import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.ServerResponsibility;
 import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.torrent.web.TrackerController;
 import jetbrains.buildServer.util.EventDispatcher;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.HashSet;
@@ -30,7 +33,8 @@ public class TorrentTrackerManager {
 
   private final static Logger LOG = Logger.getInstance(TorrentTrackerManager.class.getName());
 
-  private final TrackerRequestProcessor myTrackerService;
+  private final CachingTrackerRequestProcessor myTrackerService;
+  private final KeepAliveAnnounceProcessor myKeepAliveProcessor;
   private final TorrentsRepository myTorrentsRepository;
   private Tracker myTracker;
   private boolean myTrackerRunning;
@@ -38,21 +42,32 @@ public class TorrentTrackerManager {
   private final ScheduledExecutorService myExecutorService;
   @NotNull private final ServerResponsibility myServerResponsibility;
   private ScheduledFuture<?> myCleanupTaskFuture;
+  private ScheduledFuture<?> mySnapshotTaskFuture;
+  @NotNull private final TrackerSnapshotStorage mySnapshotStorage;
+  @NotNull private final PeerAnnounceTimes myAnnounceTimes;
+  @NotNull private final UdpTrackerServer myUdpTrackerServer;
+  private volatile URI myUdpAnnounceUri;
 
 
   public TorrentTrackerManager(@NotNull final TorrentConfigurator configurator,
                                @NotNull final ExecutorServices executorServices,
                                @NotNull final EventDispatcher<BuildServerListener> dispatcher,
                                @NotNull final AddressChecker addressChecker,
-                               @NotNull final ServerResponsibility serverResponsibility) {
+                               @NotNull final ServerResponsibility serverResponsibility,
+                               @NotNull final ServerPaths serverPaths) {
     myConfigurator = configurator;
     myExecutorService = executorServices.getNormalExecutorService();
     myServerResponsibility = serverResponsibility;
 
     final int locksCount = 20;
     myTorrentsRepository = new TorrentsRepository(locksCount);
-    myTrackerService = new TrackerRequestProcessor(myTorrentsRepository, addressChecker);
+    myAnnounceTimes = new PeerAnnounceTimes();
+    myTrackerService = new CachingTrackerRequestProcessor(myTorrentsRepository, addressChecker, myAnnounceTimes);
+    myKeepAliveProcessor = new KeepAliveAnnounceProcessor(myTorrentsRepository, addressChecker, myAnnounceTimes);
+    mySnapshotStorage = new TrackerSnapshotStorage(new File(serverPaths.getCachesDir(), "torrentTracker/tracker.snapshot"), myAnnounceTimes);
     myTrackerService.setAcceptForeignTorrents(true);
+    myUdpTrackerServer = new UdpTrackerServer(myTorrentsRepository, addressChecker, myTrackerService::getAnnounceInterval, myAnnounceTimes,
+            myTrackerService::invalidate);
     dispatcher.addListener(new BuildServerAdapter(){
       @Override
       public void serverShutdown() {
@@ -87,7 +102,7 @@ public class TorrentTrackerManager {
       return;
     }
 
-    if (TorrentConfiguration.TRACKER_DEDICATED_PORT.equals(propertyName)) {
+    if (TorrentConfiguration.TRACKER_DEDICATED_PORT.equals(propertyName) || TorrentConfiguration.TRACKER_UDP_ENABLED.equals(propertyName)) {
       condRestartTracker();
       return;
     }
@@ -119,25 +134,50 @@ public class TorrentTrackerManager {
     if (!myServerResponsibility.canManageServerConfig()) return;
 
     myTorrentsRepository.clear();
+    myAnnounceTimes.clear();
+    if (myConfigurator.isTrackerSnapshotEnabled()) {
+      mySnapshotStorage.load(myTorrentsRepository, myConfigurator.getTrackerTorrentExpireTimeoutSec());
+    }
+    myTrackerService.setCacheTtlSec(myConfigurator.getTrackerAnnounceCacheTtlSec());
 
     // if we don't use individual port, we need nothing. Tracker's controller is already initialized.
     if (myConfigurator.isTrackerDedicatedPort()){
       startIndividualPort(myConfigurator.getResolvedOwnAddress());
     }
+    if (myConfigurator.isTrackerUdpEnabled()) {
+      startUdpEndpoint(myConfigurator.getResolvedOwnAddress());
+    }
 
     //setting peer collection interval to the same as announce interval
     myCleanupTaskFuture = myExecutorService.scheduleWithFixedDelay(new Runnable() {
       public void run() {
         try {
           myTorrentsRepository.cleanup(myConfigurator.getTrackerTorrentExpireTimeoutSec());
+          myAnnounceTimes.expirePeers(myTorrentsRepository, myConfigurator.getTrackerTorrentExpireTimeoutSec());
+          myTrackerService.setCacheTtlSec(myConfigurator.getTrackerAnnounceCacheTtlSec());
+          myTrackerService.cleanupCache();
         } catch (Exception ex) {
           LOG.warn(ex.toString());
         }
       }
     }, 0, 5, TimeUnit.SECONDS);
 
+    if (myConfigurator.isTrackerSnapshotEnabled()) {
+      final int snapshotInterval = myConfigurator.getTrackerSnapshotIntervalSec();
+      mySnapshotTaskFuture = myExecutorService.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            mySnapshotStorage.save(myTorrentsRepository);
+          } catch (Exception ex) {
+            LOG.warn(ex.toString());
+          }
+        }
+      }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+    }
+
     myTrackerRunning = true;
 
+    myConfigurator.setUdpAnnounceUrl(myUdpAnnounceUri == null ? null : myUdpAnnounceUri.toString());
     myConfigurator.setAnnounceUrl(getAnnounceUri().toString());
   }
 
@@ -156,11 +196,33 @@ public class TorrentTrackerManager {
     }
   }
 
+  private void startUdpEndpoint(@NotNull String trackerAddress) {
+    final int port = myConfigurator.getTrackerUdpPort();
+    try {
+      myUdpTrackerServer.start(new InetSocketAddress(port));
+      myUdpAnnounceUri = URI.create(String.format("udp://%s:%d/announce", trackerAddress, myUdpTrackerServer.getPort()));
+      LOG.info("UDP torrent tracker started on url: " + myUdpAnnounceUri);
+    } catch (Exception e) {
+      LOG.warnAndDebugDetails("Failed to start UDP torrent tracker on port " + port, e);
+      myUdpAnnounceUri = null;
+    }
+  }
+
   public void stopTracker() {
     if (myCleanupTaskFuture != null) {
       myCleanupTaskFuture.cancel(true);
     }
+    if (mySnapshotTaskFuture != null) {
+      mySnapshotTaskFuture.cancel(false);
+      mySnapshotTaskFuture = null;
+    }
+    if (myTrackerRunning && myConfigurator.isTrackerSnapshotEnabled()) {
+      mySnapshotStorage.save(myTorrentsRepository);
+    }
     myTrackerRunning = false;
+    myUdpTrackerServer.stop();
+    myUdpAnnounceUri = null;
+    myConfigurator.setUdpAnnounceUrl(null);
     if (myTracker != null) {
       LOG.info("Stopping torrent tracker");
       myTracker.stop();
@@ -183,10 +245,20 @@ public class TorrentTrackerManager {
      return myTorrentsRepository;
   }
 
+  @NotNull
+  public PeerAnnounceTimes getAnnounceTimes() {
+    return myAnnounceTimes;
+  }
+
   public TrackerRequestProcessor getTrackerService() {
     return myTrackerService;
   }
 
+  @NotNull
+  public KeepAliveAnnounceProcessor getKeepAliveProcessor() {
+    return myKeepAliveProcessor;
+  }
+
   public void setAnnounceInterval(final int announceInterval){
     myTrackerService.setAnnounceInterval(announceInterval);
   }
@@ -209,6 +281,15 @@ public class TorrentTrackerManager {
     return myTorrentsRepository.getTorrents().size();
   }
 
+  /**
+   * @return uri of the UDP tracker endpoint or null if it is not running.
+   * Created torrents list this uri as the first announce tier, http announce uri remains the fallback tier
+   */
+  @Nullable
+  public URI getUdpAnnounceUri() {
+    return myUdpAnnounceUri;
+  }
+
   public URI getAnnounceUri() {
     if (myConfigurator.isTrackerDedicatedPort()){
       return myTracker.getAnnounceURI();
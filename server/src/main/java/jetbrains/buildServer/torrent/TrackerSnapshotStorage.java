@@ -0,0 +1,174 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.TorrentUtils;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores tracked torrents and their peers to compact binary file and restores them on tracker start.
+ * <p>
+ * Format: magic, version, save timestamp, torrents count and for each torrent: info hash, peers count and for each peer:
+ * peer id, ip, port, uploaded, downloaded, left bytes and time of the last announce.
+ * <p>
+ * Peers which didn't announce during expire timeout are not restored. Announce times of restored peers are put
+ * to {@link PeerAnnounceTimes}, so restored peers expire at the same moment as they would expire without restart.
+ */
+public class TrackerSnapshotStorage {
+
+  private final static Logger LOG = Logger.getInstance(TrackerSnapshotStorage.class.getName());
+
+  private static final int MAGIC = 0x54525331;
+  private static final int VERSION = 2;
+
+  @NotNull private final File mySnapshotFile;
+  @NotNull private final PeerAnnounceTimes myAnnounceTimes;
+
+  public TrackerSnapshotStorage(@NotNull File snapshotFile, @NotNull PeerAnnounceTimes announceTimes) {
+    mySnapshotFile = snapshotFile;
+    myAnnounceTimes = announceTimes;
+  }
+
+  /**
+   * saves current state of repository. File is replaced atomically so partially written snapshot is never loaded
+   */
+  public void save(@NotNull TorrentsRepository repository) {
+    final Collection<TrackedTorrent> torrents = new ArrayList<>(repository.getTorrents().values());
+    final File tmpFile = new File(mySnapshotFile.getParentFile(), mySnapshotFile.getName() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      FileUtil.createParentDirs(mySnapshotFile);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      final long saveTime = System.currentTimeMillis();
+      out.writeLong(saveTime);
+      out.writeInt(torrents.size());
+      for (TrackedTorrent torrent : torrents) {
+        final String hexInfoHash = TorrentUtils.byteArrayToHexString(torrent.getInfoHash());
+        writeBytes(out, torrent.getInfoHash());
+        final List<TrackedPeer> peers = new ArrayList<>(torrent.getPeers().values());
+        out.writeInt(peers.size());
+        for (TrackedPeer peer : peers) {
+          writeBytes(out, toBytes(peer.getPeerId()));
+          out.writeUTF(peer.getIp());
+          out.writeInt(peer.getPort());
+          out.writeLong(peer.getUploaded());
+          out.writeLong(peer.getDownloaded());
+          out.writeLong(peer.getLeft());
+          final Long lastAnnounce = myAnnounceTimes.getLastAnnounce(hexInfoHash, peer.getIp(), peer.getPort());
+          out.writeLong(lastAnnounce == null ? saveTime : lastAnnounce);
+        }
+      }
+      out.close();
+      out = null;
+      Files.move(tmpFile.toPath(), mySnapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      LOG.debug("Tracker snapshot with " + torrents.size() + " torrents saved to " + mySnapshotFile);
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to save tracker snapshot to " + mySnapshotFile, e);
+    } finally {
+      FileUtil.close(out);
+      FileUtil.delete(tmpFile);
+    }
+  }
+
+  /**
+   * restores torrents and peers from snapshot. Peers which didn't announce during expire timeout are skipped
+   *
+   * @return count of restored peers
+   */
+  public int load(@NotNull TorrentsRepository repository, int expireTimeoutSec) {
+    if (!mySnapshotFile.isFile()) return 0;
+    DataInputStream in = null;
+    int restoredPeers = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(mySnapshotFile)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.info("Tracker snapshot " + mySnapshotFile + " has unsupported format and will be ignored");
+        return 0;
+      }
+      final long now = System.currentTimeMillis();
+      final long expireTimeoutMs = TimeUnit.SECONDS.toMillis(expireTimeoutSec);
+      final long age = now - in.readLong();
+      if (age < 0 || age > expireTimeoutMs) {
+        LOG.info("Tracker snapshot " + mySnapshotFile + " is expired and will be ignored");
+        return 0;
+      }
+      final int torrentsCount = in.readInt();
+      int restoredTorrents = 0;
+      int skippedPeers = 0;
+      for (int i = 0; i < torrentsCount; i++) {
+        final byte[] infoHash = readBytes(in);
+        final String hexInfoHash = TorrentUtils.byteArrayToHexString(infoHash);
+        TrackedTorrent torrent = null;
+        final int peersCount = in.readInt();
+        for (int j = 0; j < peersCount; j++) {
+          final byte[] peerId = readBytes(in);
+          final String ip = in.readUTF();
+          final int port = in.readInt();
+          final long uploaded = in.readLong();
+          final long downloaded = in.readLong();
+          final long left = in.readLong();
+          final long lastAnnounce = Math.min(in.readLong(), now);
+          if (now - lastAnnounce > expireTimeoutMs) {
+            skippedPeers++;
+            continue;
+          }
+          if (torrent == null) {
+            repository.putIfAbsent(hexInfoHash, new TrackedTorrent(infoHash));
+            torrent = repository.getTorrent(hexInfoHash);
+            restoredTorrents++;
+          }
+          torrent.update(AnnounceRequestMessage.RequestEvent.STARTED, ByteBuffer.wrap(peerId),
+                  TorrentUtils.byteArrayToHexString(peerId), ip, port, uploaded, downloaded, left);
+          myAnnounceTimes.restored(hexInfoHash, ip, port, lastAnnounce);
+          restoredPeers++;
+        }
+      }
+      LOG.info("Restored " + restoredTorrents + " torrents with " + restoredPeers + " peers from tracker snapshot, " +
+              skippedPeers + " expired peers skipped");
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to load tracker snapshot from " + mySnapshotFile, e);
+    } finally {
+      FileUtil.close(in);
+    }
+    return restoredPeers;
+  }
+
+  private static void writeBytes(@NotNull DataOutputStream out, @NotNull byte[] bytes) throws IOException {
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  @NotNull
+  private static byte[] readBytes(@NotNull DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readUnsignedShort()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  @NotNull
+  private static byte[] toBytes(ByteBuffer buffer) {
+    if (buffer == null) return new byte[0];
+    final ByteBuffer copy = buffer.duplicate();
+    copy.rewind();
+    final byte[] bytes = new byte[copy.remaining()];
+    copy.get(bytes);
+    return bytes;
+  }
+}
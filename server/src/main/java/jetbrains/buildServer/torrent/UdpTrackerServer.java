@@ -0,0 +1,382 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.turn.ttorrent.common.TorrentUtils;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.AddressChecker;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import jetbrains.buildServer.util.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * UDP tracker endpoint (BEP 15) based on non-blocking {@link DatagramChannel}.
+ * Shares torrents repository with http tracker so peers announced by any protocol are visible for all peers.
+ * <p>
+ * Requests are handled on the selector thread, so handling never blocks: count of issued connection ids is limited
+ * and peer addresses are converted without name resolution. Connection id is accepted only from the address it was issued to.
+ */
+public class UdpTrackerServer {
+
+  private final static Logger LOG = Logger.getInstance(UdpTrackerServer.class.getName());
+
+  private static final long PROTOCOL_ID = 0x41727101980L;
+  private static final int ACTION_CONNECT = 0;
+  private static final int ACTION_ANNOUNCE = 1;
+  private static final int ACTION_SCRAPE = 2;
+  private static final int ACTION_ERROR = 3;
+
+  private static final int CONNECT_REQUEST_SIZE = 16;
+  private static final int ANNOUNCE_REQUEST_SIZE = 98;
+  private static final int MIN_SCRAPE_REQUEST_SIZE = 16;
+  private static final int MAX_PACKET_SIZE = 1500;
+  private static final int MAX_PEERS_IN_RESPONSE = 200;
+  private static final int DEFAULT_NUM_WANT = 50;
+  private static final long CONNECTION_ID_TTL_MS = TimeUnit.MINUTES.toMillis(2);
+  static final int MAX_CONNECTION_IDS = 65536;
+
+  @NotNull private final TorrentsRepository myTorrentsRepository;
+  @NotNull private final AddressChecker myAddressChecker;
+  @NotNull private final IntSupplier myAnnounceInterval;
+  @NotNull private final PeerAnnounceTimes myAnnounceTimes;
+  @NotNull private final Consumer<String> myPeersChangedListener;
+  @NotNull private final Map<Long, ConnectionId> myConnectionIds = new ConcurrentHashMap<>();
+  @NotNull private final Random myRandom = new SecureRandom();
+  private final ByteBuffer myReceiveBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+  private final ByteBuffer mySendBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+
+  private volatile DatagramChannel myChannel;
+  private volatile Selector mySelector;
+  private volatile Thread myThread;
+
+  public UdpTrackerServer(@NotNull TorrentsRepository torrentsRepository,
+                          @NotNull AddressChecker addressChecker,
+                          @NotNull IntSupplier announceInterval) {
+    this(torrentsRepository, addressChecker, announceInterval, new PeerAnnounceTimes(), hexInfoHash -> {});
+  }
+
+  /**
+   * @param peersChangedListener receives info hash of torrent when announce with event changes its peers
+   */
+  public UdpTrackerServer(@NotNull TorrentsRepository torrentsRepository,
+                          @NotNull AddressChecker addressChecker,
+                          @NotNull IntSupplier announceInterval,
+                          @NotNull PeerAnnounceTimes announceTimes,
+                          @NotNull Consumer<String> peersChangedListener) {
+    myTorrentsRepository = torrentsRepository;
+    myAddressChecker = addressChecker;
+    myAnnounceInterval = announceInterval;
+    myAnnounceTimes = announceTimes;
+    myPeersChangedListener = peersChangedListener;
+  }
+
+  public void start(@NotNull InetSocketAddress bindAddress) throws IOException {
+    myChannel = DatagramChannel.open();
+    try {
+      myChannel.configureBlocking(false);
+      myChannel.bind(bindAddress);
+      mySelector = Selector.open();
+      myChannel.register(mySelector, SelectionKey.OP_READ);
+    } catch (IOException e) {
+      FileUtil.close(myChannel);
+      throw e;
+    }
+    myThread = new Thread(this::run, "UDP torrent tracker");
+    myThread.setDaemon(true);
+    myThread.start();
+    LOG.info("UDP torrent tracker started on " + bindAddress);
+  }
+
+  public void stop() {
+    final Thread thread = myThread;
+    myThread = null;
+    if (thread == null) return;
+    thread.interrupt();
+    final Selector selector = mySelector;
+    if (selector != null) {
+      selector.wakeup();
+    }
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    FileUtil.close(myChannel);
+    FileUtil.close(mySelector);
+    myConnectionIds.clear();
+    LOG.info("UDP torrent tracker stopped");
+  }
+
+  public int getPort() {
+    final DatagramChannel channel = myChannel;
+    return channel == null ? -1 : channel.socket().getLocalPort();
+  }
+
+  private void run() {
+    long lastCleanup = System.currentTimeMillis();
+    while (myThread == Thread.currentThread() && !Thread.currentThread().isInterrupted()) {
+      try {
+        if (mySelector.select(TimeUnit.SECONDS.toMillis(1)) > 0) {
+          mySelector.selectedKeys().clear();
+          receiveAll();
+        }
+        final long now = System.currentTimeMillis();
+        if (now - lastCleanup > CONNECTION_ID_TTL_MS) {
+          removeExpiredConnectionIds(now);
+          lastCleanup = now;
+        }
+      } catch (IOException e) {
+        LOG.warnAndDebugDetails("Error in UDP torrent tracker", e);
+      }
+    }
+  }
+
+  private void receiveAll() throws IOException {
+    SocketAddress sender;
+    while (true) {
+      myReceiveBuffer.clear();
+      sender = myChannel.receive(myReceiveBuffer);
+      if (sender == null) return;
+      myReceiveBuffer.flip();
+      mySendBuffer.clear();
+      try {
+        handle(myReceiveBuffer, (InetSocketAddress) sender, mySendBuffer);
+      } catch (RuntimeException e) {
+        LOG.warnAndDebugDetails("Failed to process UDP tracker request from " + sender, e);
+        continue;
+      }
+      mySendBuffer.flip();
+      if (mySendBuffer.hasRemaining()) {
+        myChannel.send(mySendBuffer, sender);
+      }
+    }
+  }
+
+  /**
+   * handles one request and writes response to the buffer. Nothing is written for malformed requests
+   */
+  void handle(@NotNull ByteBuffer request, @NotNull InetSocketAddress sender, @NotNull ByteBuffer response) {
+    if (request.remaining() < CONNECT_REQUEST_SIZE) return;
+    final long connectionId = request.getLong();
+    final int action = request.getInt();
+    final int transactionId = request.getInt();
+
+    if (action == ACTION_CONNECT) {
+      if (connectionId != PROTOCOL_ID) return;
+      if (myConnectionIds.size() >= MAX_CONNECTION_IDS) {
+        removeExpiredConnectionIds(System.currentTimeMillis());
+        if (myConnectionIds.size() >= MAX_CONNECTION_IDS) {
+          LOG.debug("Too many UDP tracker connections, connect request from " + sender + " is ignored");
+          return;
+        }
+      }
+      final long newConnectionId = myRandom.nextLong();
+      myConnectionIds.put(newConnectionId, new ConnectionId(sender.getAddress(), System.currentTimeMillis()));
+      response.putInt(ACTION_CONNECT).putInt(transactionId).putLong(newConnectionId);
+      return;
+    }
+
+    final ConnectionId issued = myConnectionIds.get(connectionId);
+    if (issued == null || issued.isExpired(System.currentTimeMillis()) || !issued.isIssuedTo(sender.getAddress())) {
+      writeError(response, transactionId, "Connection ID mismatch");
+      return;
+    }
+
+    switch (action) {
+      case ACTION_ANNOUNCE:
+        if (request.limit() < ANNOUNCE_REQUEST_SIZE) {
+          writeError(response, transactionId, "Malformed announce request");
+          return;
+        }
+        handleAnnounce(request, sender, transactionId, response);
+        return;
+      case ACTION_SCRAPE:
+        if (request.limit() < MIN_SCRAPE_REQUEST_SIZE) return;
+        handleScrape(request, transactionId, response);
+        return;
+      default:
+        writeError(response, transactionId, "Unknown action " + action);
+    }
+  }
+
+  private void handleAnnounce(@NotNull ByteBuffer request,
+                              @NotNull InetSocketAddress sender,
+                              int transactionId,
+                              @NotNull ByteBuffer response) {
+    final byte[] infoHash = new byte[20];
+    request.get(infoHash);
+    final byte[] peerId = new byte[20];
+    request.get(peerId);
+    final long downloaded = request.getLong();
+    final long left = request.getLong();
+    final long uploaded = request.getLong();
+    final AnnounceRequestMessage.RequestEvent event = toEvent(request.getInt());
+    final int requestedIp = request.getInt();
+    request.getInt(); // key
+    final int numWant = request.getInt();
+    final int port = request.getShort() & 0xFFFF;
+
+    final String ip = resolveIp(requestedIp, sender);
+    if (ip == null) {
+      writeError(response, transactionId, "Invalid peer address");
+      return;
+    }
+
+    final String hexInfoHash = TorrentUtils.byteArrayToHexString(infoHash);
+    TrackedTorrent torrent = myTorrentsRepository.getTorrent(hexInfoHash);
+    if (torrent == null) {
+      if (event == AnnounceRequestMessage.RequestEvent.STOPPED) {
+        writeAnnounceHeader(response, transactionId, 0, 0);
+        return;
+      }
+      myTorrentsRepository.putIfAbsent(hexInfoHash, new TrackedTorrent(infoHash));
+      torrent = myTorrentsRepository.getTorrent(hexInfoHash);
+    }
+
+    final String hexPeerId = TorrentUtils.byteArrayToHexString(peerId);
+    try {
+      torrent.update(event, ByteBuffer.wrap(peerId), hexPeerId, ip, port, uploaded, downloaded, left);
+      myAnnounceTimes.announced(hexInfoHash, ip, port);
+      if (event != AnnounceRequestMessage.RequestEvent.NONE) {
+        myPeersChangedListener.accept(hexInfoHash);
+      }
+    } catch (IOException e) {
+      writeError(response, transactionId, "Failed to update peer");
+      return;
+    }
+
+    writeAnnounceHeader(response, transactionId, torrent.leechers(), torrent.seeders());
+    if (event == AnnounceRequestMessage.RequestEvent.STOPPED) return;
+
+    final int maxPeers = Math.min(numWant <= 0 ? DEFAULT_NUM_WANT : numWant,
+            Math.min(MAX_PEERS_IN_RESPONSE, response.remaining() / 6));
+    int written = 0;
+    for (TrackedPeer peer : torrent.getPeers().values()) {
+      if (written >= maxPeers) break;
+      if (hexPeerId.equals(peer.getHexPeerId())) continue;
+      // seeders don't need other seeders
+      if (left == 0 && peer.getLeft() == 0) continue;
+      final byte[] address = toIpv4(peer.getIp());
+      if (address == null) continue;
+      response.put(address).putShort((short) peer.getPort());
+      written++;
+    }
+  }
+
+  private void removeExpiredConnectionIds(long now) {
+    myConnectionIds.values().removeIf(issued -> issued.isExpired(now));
+  }
+
+  private void handleScrape(@NotNull ByteBuffer request, int transactionId, @NotNull ByteBuffer response) {
+    response.putInt(ACTION_SCRAPE).putInt(transactionId);
+    final byte[] infoHash = new byte[20];
+    while (request.remaining() >= infoHash.length && response.remaining() >= 12) {
+      request.get(infoHash);
+      final TrackedTorrent torrent = myTorrentsRepository.getTorrent(TorrentUtils.byteArrayToHexString(infoHash));
+      if (torrent == null) {
+        response.putInt(0).putInt(0).putInt(0);
+      } else {
+        response.putInt(torrent.seeders()).putInt(0).putInt(torrent.leechers());
+      }
+    }
+  }
+
+  private void writeAnnounceHeader(@NotNull ByteBuffer response, int transactionId, int leechers, int seeders) {
+    response.putInt(ACTION_ANNOUNCE).putInt(transactionId).putInt(myAnnounceInterval.getAsInt()).putInt(leechers).putInt(seeders);
+  }
+
+  private static void writeError(@NotNull ByteBuffer response, int transactionId, @NotNull String message) {
+    response.clear();
+    response.putInt(ACTION_ERROR).putInt(transactionId).put(message.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @Nullable
+  private String resolveIp(int requestedIp, @NotNull InetSocketAddress sender) {
+    if (requestedIp != 0) {
+      try {
+        final String ip = InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(requestedIp).array()).getHostAddress();
+        if (!myAddressChecker.isBadAddress(ip)) {
+          return ip;
+        }
+      } catch (UnknownHostException ignored) {
+      }
+    }
+    final InetAddress address = sender.getAddress();
+    if (address == null || myAddressChecker.isBadAddress(address.getHostAddress())) return null;
+    return address.getHostAddress();
+  }
+
+  /**
+   * parses IPv4 literal. Name resolution is never performed: peers with host names or IPv6 addresses are skipped
+   */
+  @Nullable
+  static byte[] toIpv4(@NotNull String ip) {
+    final String[] parts = ip.split("\\.", -1);
+    if (parts.length != 4) return null;
+    final byte[] address = new byte[4];
+    for (int i = 0; i < parts.length; i++) {
+      final String part = parts[i];
+      if (part.isEmpty() || part.length() > 3) return null;
+      int value = 0;
+      for (int j = 0; j < part.length(); j++) {
+        final char c = part.charAt(j);
+        if (c < '0' || c > '9') return null;
+        value = value * 10 + (c - '0');
+      }
+      if (value > 255) return null;
+      address[i] = (byte) value;
+    }
+    return address;
+  }
+
+  @NotNull
+  private static AnnounceRequestMessage.RequestEvent toEvent(int event) {
+    switch (event) {
+      case 1:
+        return AnnounceRequestMessage.RequestEvent.COMPLETED;
+      case 2:
+        return AnnounceRequestMessage.RequestEvent.STARTED;
+      case 3:
+        return AnnounceRequestMessage.RequestEvent.STOPPED;
+      default:
+        return AnnounceRequestMessage.RequestEvent.NONE;
+    }
+  }
+
+  private static class ConnectionId {
+    @Nullable private final InetAddress myAddress;
+    private final long myCreated;
+
+    private ConnectionId(@Nullable InetAddress address, long created) {
+      myAddress = address;
+      myCreated = created;
+    }
+
+    private boolean isExpired(long now) {
+      return now - myCreated > CONNECTION_ID_TTL_MS;
+    }
+
+    private boolean isIssuedTo(@Nullable InetAddress address) {
+      return myAddress != null && myAddress.equals(address);
+    }
+  }
+}
\ No newline at end of file
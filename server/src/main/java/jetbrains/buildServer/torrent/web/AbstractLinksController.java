@@ -8,7 +8,6 @@ import jetbrains.buildServer.serverSide.SBuildServer;
 import jetbrains.buildServer.torrent.ServerTorrentsDirectorySeeder;
 import jetbrains.buildServer.torrent.TorrentConfigurator;
 import jetbrains.buildServer.torrent.torrent.TorrentUtil;
-import jetbrains.buildServer.util.FileUtil;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -18,8 +17,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractLinksController extends BaseController {
@@ -50,9 +49,9 @@ public abstract class AbstractLinksController extends BaseController {
       long buildId = Long.parseLong(buildIdParam);
       SBuild build = myServer.findBuildInstanceById(buildId);
       if (build != null && myConfigurator.isDownloadEnabled()) {
-        Collection<File> torrentFiles = myTorrentsManager.getTorrentFiles(build);
+        List<String> torrentPaths = myTorrentsManager.getTorrentPaths(build);
         File baseDir = myTorrentsManager.getTorrentFilesBaseDir(build.getArtifactsDirectory());
-        Map<File, String> torrentsAndArtifacts = getArtifactsWithTorrents(baseDir, torrentFiles);
+        Map<File, String> torrentsAndArtifacts = getArtifactsWithTorrents(baseDir, torrentPaths);
 
         writeResponse(response, torrentsAndArtifacts, build);
         response.setStatus(HttpServletResponse.SC_OK);
@@ -69,13 +68,10 @@ public abstract class AbstractLinksController extends BaseController {
                                         @NotNull SBuild build) throws IOException;
 
   @NotNull
-  private Map<File, String> getArtifactsWithTorrents(@NotNull File baseDir, @NotNull Collection<File> torrentFiles) {
+  private Map<File, String> getArtifactsWithTorrents(@NotNull File baseDir, @NotNull List<String> torrentPaths) {
     Map<File, String> torrentFilesAndArtifactsPath = new HashMap<>();
-    for (File f: torrentFiles) {
-      String path = FileUtil.getRelativePath(baseDir, f);
-      if (path == null) continue;
-      path = path.replace('\\', '/');
-      torrentFilesAndArtifactsPath.put(f, path.substring(0, path.length() - TorrentUtil.TORRENT_FILE_SUFFIX.length()));
+    for (String path: torrentPaths) {
+      torrentFilesAndArtifactsPath.put(new File(baseDir, path), path.substring(0, path.length() - TorrentUtil.TORRENT_FILE_SUFFIX.length()));
     }
     return torrentFilesAndArtifactsPath;
   }
@@ -48,21 +48,58 @@ public class DownloadTorrentController extends BaseController {
 
     if (torrentFile == null) {
       response.sendError(HttpServletResponse.SC_NOT_FOUND);
-    } else {
-      response.setContentType(WebUtil.getMimeType(request, torrentFile.getName()));
-      // force set content-disposition to attachment
-      WebUtil.setContentDisposition(request, response, torrentFile.getName(), false);
-      ServletOutputStream output = response.getOutputStream();
-      FileInputStream fis = null;
-      try {
-        fis = new FileInputStream(torrentFile);
-        StreamUtil.copyStreamContent(fis, output);
-      } finally {
-        FileUtil.close(fis);
-        output.close();
-      }
+      return null;
+    }
+
+    // torrent file of the build doesn't change, but it can be recreated, so length and modification time are part of etag
+    final long lastModified = torrentFile.lastModified();
+    final long length = torrentFile.length();
+    final String etag = "\"" + buildId + "-" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+    response.setHeader("Cache-Control", "private, no-cache");
+    if (isNotModified(request, etag, lastModified)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return null;
+    }
+
+    response.setContentType(WebUtil.getMimeType(request, torrentFile.getName()));
+    // force set content-disposition to attachment
+    WebUtil.setContentDisposition(request, response, torrentFile.getName(), false);
+    response.setHeader("Content-Length", String.valueOf(length));
+    if ("HEAD".equals(request.getMethod())) {
+      return null;
+    }
+
+    ServletOutputStream output = response.getOutputStream();
+    FileInputStream fis = null;
+    try {
+      fis = new FileInputStream(torrentFile);
+      StreamUtil.copyStreamContent(fis, output);
+    } finally {
+      FileUtil.close(fis);
+      output.close();
     }
 
     return null;
   }
+
+  private static boolean isNotModified(@NotNull HttpServletRequest request, @NotNull String etag, long lastModified) {
+    final String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        final String trimmed = tag.trim();
+        if (trimmed.equals(etag) || trimmed.equals("*")) return true;
+      }
+      return false;
+    }
+    final long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // http dates have seconds precision
+    return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
 }
\ No newline at end of file
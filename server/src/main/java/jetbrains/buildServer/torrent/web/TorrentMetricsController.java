@@ -0,0 +1,59 @@
+
+
+package jetbrains.buildServer.torrent.web;
+
+import jetbrains.buildServer.controllers.AuthorizationInterceptor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.torrent.BuildArtifactsPipeline;
+import jetbrains.buildServer.torrent.ServerTorrentsDirectorySeeder;
+import jetbrains.buildServer.torrent.TorrentTrackerManager;
+import jetbrains.buildServer.torrent.util.MetricsRegistry;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+
+/**
+ * Exposes plugin metrics in Prometheus text format
+ */
+public class TorrentMetricsController extends BaseController {
+
+  public static final String PATH = "/torrentMetrics.html";
+
+  public TorrentMetricsController(@NotNull final WebControllerManager controllerManager,
+                                  @NotNull final AuthorizationInterceptor authInterceptor,
+                                  @NotNull final TorrentTrackerManager trackerManager,
+                                  @NotNull final ServerTorrentsDirectorySeeder torrentsSeeder) {
+    controllerManager.registerController(PATH, this);
+    authInterceptor.addPathBasedPermissionsChecker(PATH, (holder, request) -> {
+      if (!holder.isPermissionGrantedGlobally(Permission.VIEW_SERVER_SETTINGS)) {
+        throw new AccessDeniedException(holder, "You do not have enough permissions to view torrent metrics");
+      }
+    });
+
+    final MetricsRegistry registry = MetricsRegistry.getInstance();
+    registry.gauge("teamcity_torrent_tracker_torrents", "Torrents announced to server tracker", trackerManager::getAnnouncedTorrentsNum);
+    registry.gauge("teamcity_torrent_tracker_peers", "Unique peers connected to server tracker", trackerManager::getConnectedClientsNum);
+    final BuildArtifactsPipeline pipeline = torrentsSeeder.getArtifactsPipeline();
+    registry.gauge("teamcity_torrent_artifacts_pipeline_queue_size", "Finished builds queued or deferred for artifacts processing", pipeline::getQueueSize);
+    registry.gauge("teamcity_torrent_generator_queue_size", "Artifacts waiting for torrent generation on server",
+            torrentsSeeder.getTorrentGenerator()::getQueueSize);
+  }
+
+  @Nullable
+  @Override
+  protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+    response.setContentType(MetricsRegistry.CONTENT_TYPE);
+    response.setHeader("Cache-Control", "no-cache");
+    final PrintWriter writer = response.getWriter();
+    MetricsRegistry.getInstance().write(writer);
+    writer.flush();
+    return null;
+  }
+}
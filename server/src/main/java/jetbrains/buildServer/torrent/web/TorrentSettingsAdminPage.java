@@ -10,6 +10,7 @@ import jetbrains.buildServer.serverSide.auth.SecurityContext;
 import jetbrains.buildServer.torrent.ServerTorrentsDirectorySeeder;
 import jetbrains.buildServer.torrent.TorrentConfigurator;
 import jetbrains.buildServer.torrent.TorrentTrackerManager;
+import jetbrains.buildServer.util.StringUtil;
 import jetbrains.buildServer.web.openapi.PagePlaces;
 import jetbrains.buildServer.web.openapi.PluginDescriptor;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
@@ -85,6 +86,7 @@ public class TorrentSettingsAdminPage extends AdminPage {
     model.put("announcedTorrentsNum", myTorrentTrackerManager.getAnnouncedTorrentsNum());
     model.put("connectedClientsNum", myTorrentTrackerManager.getConnectedClientsNum());
     model.put("seededTorrentsNum", myTorrentSeeder.getNumberOfSeededTorrents());
+    model.put("seededSize", StringUtil.formatFileSize(myTorrentSeeder.getSeededBytes()));
     model.put("activePeersCount", myTorrentSeeder.getPeers().size());
     final double speedBytesPerSecond = myTorrentSeeder.getPeers().stream().mapToDouble(it -> it.getULRate().get()).sum();
     final DecimalFormat decimalFormat = new DecimalFormat("#.###");
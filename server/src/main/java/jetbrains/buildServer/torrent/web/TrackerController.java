@@ -9,6 +9,7 @@ import jetbrains.buildServer.controllers.AuthorizationInterceptor;
 import jetbrains.buildServer.controllers.BaseController;
 import jetbrains.buildServer.log.Loggers;
 import jetbrains.buildServer.torrent.TorrentTrackerManager;
+import jetbrains.buildServer.torrent.announce.KeepAliveAnnounce;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -20,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
@@ -53,7 +55,12 @@ public class TrackerController extends BaseController {
         response.setStatus(HttpServletResponse.SC_NOT_FOUND); // return 404, if tracker uses dedicated port or not started
         return null;
       }
-      if ("POST".equalsIgnoreCase(request.getMethod())) {
+      if ("POST".equalsIgnoreCase(request.getMethod()) && request.getParameter(KeepAliveAnnounce.KEEP_ALIVE_PARAM) != null) {
+        final String body = request.getReader().lines().collect(Collectors.joining("\n"));
+        final List<String> unknownHashes = myTrackerManager.getKeepAliveProcessor().process(body, request.getRemoteAddr());
+        response.setContentType("text/plain; charset=" + KeepAliveAnnounce.CHARSET);
+        response.getWriter().write(String.join("\n", unknownHashes));
+      } else if ("POST".equalsIgnoreCase(request.getMethod())) {
         final String body = request.getReader().lines().collect(Collectors.joining("\n"));
         myMultiAnnounceRequestProcessor.process(body, request.getRequestURL().toString(), request.getRemoteAddr(), getRequestHandler(response));
       } else {
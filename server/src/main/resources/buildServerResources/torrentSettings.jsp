@@ -32,6 +32,7 @@
           <li>Total downloading speed (MB/s): <strong>${totalSpeedMegabytesPerSecond}</strong></li>
           <li>Number of currently seeded torrents: <strong>${seededTorrentsNum}
             (of ${torrentConfigurator.maxNumberOfSeededTorrents})</strong></li>
+          <li>Size of currently seeded files: <strong>${seededSize}</strong></li>
         </ul>
       </td>
     </tr>
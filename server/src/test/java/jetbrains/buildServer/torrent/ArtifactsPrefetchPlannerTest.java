@@ -0,0 +1,139 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.XmlRpcHandlerManager;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.agentPools.AgentPoolManager;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+@Test
+public class ArtifactsPrefetchPlannerTest extends ServerTorrentsSeederTestCase {
+
+  private static final String PROJECT_ID = "project1";
+  private static final int PROJECT_POOL = 1;
+  private static final int OTHER_POOL = 2;
+  private static final long BUILD_ID = 1;
+
+  private Mockery myMockery;
+  private EventDispatcher<BuildServerListener> myPlannerDispatcher;
+  private ArtifactsPrefetchPlanner myPlanner;
+  private List<SBuildAgent> myCompatibleAgents;
+  private List<SBuildAgent> myRegisteredAgents;
+  private SBuildType myBuildType;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    System.setProperty(TorrentConfiguration.SERVER_PREFETCH_ENABLED, "true");
+    myConfigurator.setAgentDownloadEnabled(true);
+    myMockery = new Mockery();
+    myCompatibleAgents = new ArrayList<>();
+    myRegisteredAgents = new ArrayList<>();
+    myBuildType = myMockery.mock(SBuildType.class);
+    final BuildAgentManager agentManager = myMockery.mock(BuildAgentManager.class);
+    final BuildsManager buildsManager = myMockery.mock(BuildsManager.class);
+    final AgentPoolManager agentPoolManager = myMockery.mock(AgentPoolManager.class);
+    final XmlRpcHandlerManager xmlRpcHandlerManager = myMockery.mock(XmlRpcHandlerManager.class);
+    myMockery.checking(new Expectations() {{
+      allowing(myBuildType).getProjectId(); will(returnValue(PROJECT_ID));
+      allowing(myBuildType).getCompatibleAgents(); will(returnValue(myCompatibleAgents));
+      allowing(agentManager).getRegisteredAgents(); will(returnValue(myRegisteredAgents));
+      allowing(agentPoolManager).getAgentPoolsWithProject(PROJECT_ID); will(returnValue(Collections.singleton(PROJECT_POOL)));
+      // queued builds are not found, so polled tasks are dropped without resolving artifacts
+      allowing(buildsManager).findBuildInstanceById(BUILD_ID); will(returnValue(null));
+      ignoring(xmlRpcHandlerManager);
+    }});
+    myPlannerDispatcher = EventDispatcher.create(BuildServerListener.class);
+    myPlanner = new ArtifactsPrefetchPlanner(myConfigurator, myTorrentsSeeder, agentManager, buildsManager,
+            agentPoolManager, myPlannerDispatcher, xmlRpcHandlerManager);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    System.clearProperty(TorrentConfiguration.SERVER_PREFETCH_ENABLED);
+    super.tearDown();
+  }
+
+  public void testBuildIsQueuedForIdleCompatibleAgentsOfProjectPools() {
+    compatibleAgent("idle", PROJECT_POOL, null);
+    compatibleAgent("otherPool", OTHER_POOL, null);
+    compatibleAgent("busy", PROJECT_POOL, myMockery.mock(SRunningBuild.class, "runningBuild"));
+    compatibleAgent("buildAgent", PROJECT_POOL, null);
+    agent("incompatible", PROJECT_POOL, null);
+
+    buildFinished(false);
+
+    assertEquals(1, myPlanner.getQueuedTasksCount());
+    myPlanner.getPrefetchTasks(token("incompatible"));
+    assertEquals(1, myPlanner.getQueuedTasksCount());
+    myPlanner.getPrefetchTasks(token("idle"));
+    assertEquals(0, myPlanner.getQueuedTasksCount());
+  }
+
+  public void testPersonalBuildIsNotPrefetched() {
+    compatibleAgent("idle", PROJECT_POOL, null);
+
+    buildFinished(true);
+
+    assertEquals(0, myPlanner.getQueuedTasksCount());
+  }
+
+  public void testTasksArePolledByAgentAuthorizationToken() {
+    compatibleAgent("agent1", PROJECT_POOL, null);
+    compatibleAgent("agent2", PROJECT_POOL, null);
+    buildFinished(false);
+    assertEquals(2, myPlanner.getQueuedTasksCount());
+
+    assertEquals(0, myPlanner.getPrefetchTasks("agent1").size());
+    assertEquals(0, myPlanner.getPrefetchTasks("").size());
+    assertEquals(2, myPlanner.getQueuedTasksCount());
+
+    myPlanner.getPrefetchTasks(token("agent1"));
+    assertEquals(1, myPlanner.getQueuedTasksCount());
+  }
+
+  private void buildFinished(final boolean personal) {
+    final SRunningBuild build = myMockery.mock(SRunningBuild.class, "finishedBuild");
+    myMockery.checking(new Expectations() {{
+      allowing(build).isPersonal(); will(returnValue(personal));
+      allowing(build).getBuildType(); will(returnValue(myBuildType));
+      allowing(build).getAgentName(); will(returnValue("buildAgent"));
+      allowing(build).getBuildId(); will(returnValue(BUILD_ID));
+    }});
+    myPlannerDispatcher.getMulticaster().buildFinished(build);
+  }
+
+  private void compatibleAgent(String name, int poolId, @Nullable SRunningBuild runningBuild) {
+    myCompatibleAgents.add(agent(name, poolId, runningBuild));
+  }
+
+  private SBuildAgent agent(final String name, final int poolId, @Nullable final SRunningBuild runningBuild) {
+    final SBuildAgent agent = myMockery.mock(SBuildAgent.class, name);
+    myMockery.checking(new Expectations() {{
+      allowing(agent).getName(); will(returnValue(name));
+      allowing(agent).getAuthorizationToken(); will(returnValue(token(name)));
+      allowing(agent).isRegistered(); will(returnValue(true));
+      allowing(agent).isEnabled(); will(returnValue(true));
+      allowing(agent).isAuthorized(); will(returnValue(true));
+      allowing(agent).getAgentPoolId(); will(returnValue(poolId));
+      allowing(agent).getRunningBuild(); will(returnValue(runningBuild));
+    }});
+    myRegisteredAgents.add(agent);
+    return agent;
+  }
+
+  private static String token(String agentName) {
+    return "token-of-" + agentName;
+  }
+}
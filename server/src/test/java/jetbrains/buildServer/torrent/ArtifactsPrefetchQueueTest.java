@@ -0,0 +1,47 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@Test
+public class ArtifactsPrefetchQueueTest extends BaseTestCase {
+
+  public void testTasksArePolledOnce() {
+    final ArtifactsPrefetchQueue queue = new ArtifactsPrefetchQueue(10);
+    final ArtifactsPrefetchQueue.Task first = new ArtifactsPrefetchQueue.Task(1, 0);
+    final ArtifactsPrefetchQueue.Task second = new ArtifactsPrefetchQueue.Task(2, 0);
+    queue.add("agent1", first);
+    queue.add("agent1", second);
+    queue.add("agent1", new ArtifactsPrefetchQueue.Task(1, 5));
+    queue.add("agent2", first);
+    assertEquals(3, queue.size());
+
+    assertEquals(Arrays.asList(first, second), queue.poll("agent1", 10, 100));
+    assertEquals(Collections.emptyList(), queue.poll("agent1", 10, 100));
+    assertEquals(Collections.singletonList(first), queue.poll("agent2", 10, 100));
+    assertEquals(0, queue.size());
+  }
+
+  public void testExpiredTasksAreDropped() {
+    final ArtifactsPrefetchQueue queue = new ArtifactsPrefetchQueue(10);
+    final ArtifactsPrefetchQueue.Task fresh = new ArtifactsPrefetchQueue.Task(2, 900);
+    queue.add("agent", new ArtifactsPrefetchQueue.Task(1, 0));
+    queue.add("agent", fresh);
+
+    assertEquals(Collections.singletonList(fresh), queue.poll("agent", 1000, 500));
+  }
+
+  public void testOldestTasksAreEvicted() {
+    final ArtifactsPrefetchQueue queue = new ArtifactsPrefetchQueue(2);
+    for (int i = 0; i < 5; i++) {
+      queue.add("agent", new ArtifactsPrefetchQueue.Task(i, 0));
+    }
+    assertEquals(Arrays.asList(new ArtifactsPrefetchQueue.Task(3, 0), new ArtifactsPrefetchQueue.Task(4, 0)),
+            queue.poll("agent", 0, 100));
+  }
+}
@@ -0,0 +1,115 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+@Test
+public class BuildArtifactsPipelineTest {
+
+  public void testBuildIsDeferredWhenQueueIsFull() throws Exception {
+    BuildArtifactsPipeline pipeline = new BuildArtifactsPipeline(1, 1, 5000);
+    try {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<String> processed = new CopyOnWriteArrayList<>();
+      pipeline.submit("build 1", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      pipeline.submit("build 2", () -> processed.add("build 2"));
+      assertEquals(pipeline.getQueueSize(), 1);
+
+      final AtomicReference<Thread> deferredThread = new AtomicReference<>();
+      final CountDownLatch deferredProcessed = new CountDownLatch(1);
+      pipeline.submit("build 3", () -> {
+        deferredThread.set(Thread.currentThread());
+        processed.add("build 3");
+        deferredProcessed.countDown();
+      });
+      assertNull(deferredThread.get());
+      assertEquals(pipeline.getDeferredBuildsCount(), 1);
+      assertEquals(pipeline.getQueueSize(), 2);
+
+      release.countDown();
+      assertTrue(deferredProcessed.await(5, TimeUnit.SECONDS));
+      assertNotSame(deferredThread.get(), Thread.currentThread());
+      assertEquals(processed.size(), 2);
+      assertEquals(processed.get(0), "build 2");
+      assertEquals(processed.get(1), "build 3");
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  public void testBuildIsDroppedWhenDeferredBuildsAreFull() throws Exception {
+    BuildArtifactsPipeline pipeline = new BuildArtifactsPipeline(1, 1, 5000);
+    try {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch processed = new CountDownLatch(2);
+      final List<String> processedBuilds = new CopyOnWriteArrayList<>();
+      pipeline.submit("build 1", () -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      for (String build : Arrays.asList("build 2", "build 3", "build 4")) {
+        pipeline.submit(build, () -> {
+          processedBuilds.add(build);
+          processed.countDown();
+        });
+      }
+
+      assertEquals(pipeline.getQueueSize(), 2);
+      assertEquals(pipeline.getDeferredBuildsCount(), 1);
+      assertEquals(pipeline.getDroppedBuildsCount(), 1);
+
+      release.countDown();
+      assertTrue(processed.await(5, TimeUnit.SECONDS));
+      assertEquals(processedBuilds, Arrays.asList("build 2", "build 3"));
+    } finally {
+      pipeline.shutdown();
+    }
+  }
+
+  public void testQueuedBuildsAreProcessedOnShutdown() throws Exception {
+    BuildArtifactsPipeline pipeline = new BuildArtifactsPipeline(1, 1, 5000);
+    final CountDownLatch started = new CountDownLatch(1);
+    pipeline.submit("build 1", () -> {
+      started.countDown();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    final CountDownLatch processed = new CountDownLatch(2);
+    pipeline.submit("build 2", processed::countDown);
+    pipeline.submit("build 3", processed::countDown);
+
+    pipeline.shutdown();
+
+    assertEquals(processed.getCount(), 0);
+    assertEquals(pipeline.getProcessedBuildsCount(), 3);
+  }
+}
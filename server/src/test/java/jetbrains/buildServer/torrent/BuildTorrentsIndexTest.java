@@ -0,0 +1,118 @@
+
+
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.torrent.seeder.TorrentsSeeder;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Test
+public class BuildTorrentsIndexTest extends BaseTestCase {
+
+  public void testIndexIsUsedInsteadOfScan() throws IOException {
+    final File artifactsDir = createTempDir();
+    final File torrentsDir = new File(artifactsDir, TorrentsSeeder.TORRENTS_DIT_PATH);
+    createFile(new File(torrentsDir, "a.jar.torrent"));
+    createFile(new File(torrentsDir, "dir/b.zip.torrent"));
+    createFile(new File(torrentsDir, "dir/not_torrent.txt"));
+
+    new BuildTorrentsIndex(10).rebuild(artifactsDir);
+    assertTrue(new File(artifactsDir, BuildTorrentsIndex.INDEX_FILE_PATH).isFile());
+
+    // new torrent file is not seen until index is rebuilt, so directory is not scanned
+    createFile(new File(torrentsDir, "c.jar.torrent"));
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(10);
+    assertEquals(Arrays.asList("a.jar.torrent", "dir/b.zip.torrent"), index.getTorrentPaths(artifactsDir, true));
+
+    index.torrentCreated(new File(torrentsDir, "c.jar.torrent"));
+    assertEquals(Arrays.asList("a.jar.torrent", "dir/b.zip.torrent", "c.jar.torrent"), index.getTorrentPaths(artifactsDir, true));
+    assertEquals(Arrays.asList("a.jar.torrent", "dir/b.zip.torrent", "c.jar.torrent"), new BuildTorrentsIndex(10).getTorrentPaths(artifactsDir, true));
+  }
+
+  public void testBuildWithoutIndexIsScanned() throws IOException {
+    final File artifactsDir = createTempDir();
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(10);
+    assertEquals(Collections.emptyList(), index.getTorrentPaths(artifactsDir, true));
+
+    createFile(new File(artifactsDir, TorrentsSeeder.TORRENTS_DIT_PATH + "/a.jar.torrent"));
+    index.invalidate(artifactsDir);
+    assertEquals(Collections.singletonList("a.jar.torrent"), index.getTorrentPaths(artifactsDir, true));
+  }
+
+  public void testRunningBuildIsNotCached() throws IOException {
+    final File artifactsDir = createTempDir();
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(10);
+    assertEquals(Collections.emptyList(), index.getTorrentPaths(artifactsDir, false));
+
+    createFile(new File(artifactsDir, TorrentsSeeder.TORRENTS_DIT_PATH + "/a.jar.torrent"));
+    assertEquals(Collections.singletonList("a.jar.torrent"), index.getTorrentPaths(artifactsDir, false));
+    assertEquals(0, index.getCachedBuildsCount());
+    assertFalse(new File(artifactsDir, BuildTorrentsIndex.INDEX_FILE_PATH).exists());
+  }
+
+  public void testRemovedIndexIsScannedAgain() throws IOException {
+    final File artifactsDir = createTempDir();
+    final File torrentsDir = new File(artifactsDir, TorrentsSeeder.TORRENTS_DIT_PATH);
+    createFile(new File(torrentsDir, "a.jar.torrent"));
+    createFile(new File(torrentsDir, "b.jar.torrent"));
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(10);
+    index.rebuild(artifactsDir);
+
+    Files.delete(new File(torrentsDir, "a.jar.torrent").toPath());
+    index.remove(artifactsDir);
+
+    assertFalse(new File(artifactsDir, BuildTorrentsIndex.INDEX_FILE_PATH).exists());
+    assertEquals(Collections.singletonList("b.jar.torrent"), index.getTorrentPaths(artifactsDir, true));
+  }
+
+  public void testConcurrentlyCreatedTorrentsAreNotLost() throws Exception {
+    final File artifactsDir = createTempDir();
+    final File torrentsDir = new File(artifactsDir, TorrentsSeeder.TORRENTS_DIT_PATH);
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(10);
+    index.rebuild(artifactsDir);
+
+    final int count = 20;
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        final File torrentFile = new File(torrentsDir, i + ".jar.torrent");
+        futures.add(executor.submit(() -> index.torrentCreated(torrentFile)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(count, index.getTorrentPaths(artifactsDir, true).size());
+    assertEquals(count, new BuildTorrentsIndex(10).getTorrentPaths(artifactsDir, true).size());
+  }
+
+  public void testCacheSizeIsLimited() throws IOException {
+    final BuildTorrentsIndex index = new BuildTorrentsIndex(2);
+    for (int i = 0; i < 5; i++) {
+      index.getTorrentPaths(createTempDir(), true);
+    }
+    assertEquals(2, index.getCachedBuildsCount());
+  }
+
+  private static void createFile(File file) throws IOException {
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.createFile(file.toPath());
+  }
+}
@@ -0,0 +1,125 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.TorrentUtils;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.AddressChecker;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import com.turn.ttorrent.tracker.TrackerRequestProcessor;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+@Test
+public class CachingTrackerRequestProcessorTest {
+
+  private static final int PORT = 6881;
+
+  private TorrentsRepository myTorrentsRepository;
+  private CachingTrackerRequestProcessor myProcessor;
+  private byte[] myInfoHash;
+
+  @BeforeMethod
+  public void setUp() {
+    AddressChecker addressChecker = new AddressChecker() {
+      public boolean isBadAddress(String ip) {
+        return false;
+      }
+    };
+    myTorrentsRepository = new TorrentsRepository(10);
+    myProcessor = new CachingTrackerRequestProcessor(myTorrentsRepository, addressChecker);
+    myProcessor.setAcceptForeignTorrents(true);
+    myProcessor.setCacheTtlSec(60);
+    myInfoHash = new byte[20];
+    Arrays.fill(myInfoHash, (byte) 1);
+  }
+
+  public void testCachedResponseIsNotServedToOtherPeer() throws Exception {
+    announce("10.0.0.1", "started");
+    announce("10.0.0.2", "started");
+
+    final byte[] first = announce("10.0.0.1", null);
+    assertTrue(containsPeer(first, "10.0.0.2"));
+    assertFalse(containsPeer(first, "10.0.0.1"));
+
+    final byte[] second = announce("10.0.0.2", null);
+    assertTrue(containsPeer(second, "10.0.0.1"));
+    assertFalse(containsPeer(second, "10.0.0.2"));
+
+    final byte[] third = announce("10.0.0.1", null);
+    assertTrue(containsPeer(third, "10.0.0.2"));
+    assertFalse(containsPeer(third, "10.0.0.1"));
+  }
+
+  public void testPeersShareCachedPeerListOfTorrent() throws Exception {
+    announce("10.0.0.1", "started");
+    announce("10.0.0.2", "started");
+    announce("10.0.0.3", "started");
+    assertTrue(containsPeer(announce("10.0.0.1", null), "10.0.0.3"));
+
+    // peer is removed bypassing the processor, so cached peer list isn't invalidated
+    final TrackedTorrent torrent = myTorrentsRepository.getTorrent(TorrentUtils.byteArrayToHexString(myInfoHash));
+    final byte[] peerId = peerId("10.0.0.3").getBytes(StandardCharsets.ISO_8859_1);
+    torrent.update(AnnounceRequestMessage.RequestEvent.STOPPED, ByteBuffer.wrap(peerId), TorrentUtils.byteArrayToHexString(peerId),
+            "10.0.0.3", PORT, 0, 0, 100);
+
+    final byte[] response = announce("10.0.0.2", null);
+    assertTrue(containsPeer(response, "10.0.0.1"));
+    assertTrue(containsPeer(response, "10.0.0.3"));
+    assertFalse(containsPeer(response, "10.0.0.2"));
+
+    announce("10.0.0.4", "started");
+    assertFalse(containsPeer(announce("10.0.0.2", null), "10.0.0.3"));
+  }
+
+  public void testEventInvalidatesCachedResponses() throws Exception {
+    announce("10.0.0.1", "started");
+    assertFalse(containsPeer(announce("10.0.0.1", null), "10.0.0.2"));
+
+    announce("10.0.0.2", "started");
+
+    assertTrue(containsPeer(announce("10.0.0.1", null), "10.0.0.2"));
+  }
+
+  private byte[] announce(String ip, @Nullable String event) throws Exception {
+    final String peerId = peerId(ip);
+    final String uri = "http://localhost/announce" +
+            "?info_hash=" + URLEncoder.encode(new String(myInfoHash, StandardCharsets.ISO_8859_1), "ISO-8859-1") +
+            "&peer_id=" + URLEncoder.encode(peerId, "ISO-8859-1") +
+            "&port=" + PORT +
+            "&uploaded=0&downloaded=0&left=100&compact=1" +
+            (event == null ? "" : "&event=" + event);
+    final byte[][] result = new byte[1][];
+    myProcessor.process(uri, ip, new TrackerRequestProcessor.RequestHandler() {
+      public void serveResponse(int code, String description, ByteBuffer responseData) {
+        assertEquals(code, 200);
+        result[0] = new byte[responseData.remaining()];
+        responseData.duplicate().get(result[0]);
+      }
+    });
+    assertNotNull(result[0]);
+    return result[0];
+  }
+
+  private static String peerId(String ip) {
+    return String.format("%-20s", ip).replace(' ', '-');
+  }
+
+  private static boolean containsPeer(byte[] response, String ip) throws Exception {
+    final byte[] peer = ByteBuffer.allocate(6).put(InetAddress.getByName(ip).getAddress()).putShort((short) PORT).array();
+    for (int i = 0; i + peer.length <= response.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(response, i, i + peer.length), peer)) return true;
+    }
+    return false;
+  }
+}
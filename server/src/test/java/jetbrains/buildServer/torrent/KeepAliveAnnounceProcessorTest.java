@@ -0,0 +1,84 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.PeerUID;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedPeer;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+@Test
+public class KeepAliveAnnounceProcessorTest {
+
+  private TorrentsRepository myTorrentsRepository;
+  private KeepAliveAnnounceProcessor myProcessor;
+
+  @BeforeMethod
+  public void setUp() {
+    myTorrentsRepository = new TorrentsRepository(10);
+    myProcessor = new KeepAliveAnnounceProcessor(myTorrentsRepository, new IpChecker());
+  }
+
+  public void testKnownPeerIsRefreshedAndUnknownTorrentsReturned() {
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1});
+    final String ip = "127.0.0.1";
+    final int port = 6881;
+    torrent.getPeers().put(new PeerUID(new InetSocketAddress(ip, port), torrent.getHexInfoHash()),
+            new TrackedPeer(torrent, ip, port, ByteBuffer.allocate(10)));
+    myTorrentsRepository.putIfAbsent(torrent.getHexInfoHash(), torrent);
+
+    final String body = "P " + ip + " " + port + "\n" +
+            "T " + torrent.getHexInfoHash() + "\n" +
+            "T 02\n";
+    final List<String> unknown = myProcessor.process(body, ip);
+
+    assertEquals(unknown, Collections.singletonList("02"));
+    assertEquals(torrent.getPeers().size(), 1);
+  }
+
+  public void testTorrentWithoutKnownPeerIsUnknown() {
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1});
+    myTorrentsRepository.putIfAbsent(torrent.getHexInfoHash(), torrent);
+
+    final List<String> unknown = myProcessor.process("P 127.0.0.1 6881\nT " + torrent.getHexInfoHash() + "\n", "127.0.0.1");
+
+    assertEquals(unknown, Collections.singletonList(torrent.getHexInfoHash()));
+  }
+
+  public void testRejectedAddressIsReplacedWithSenderAddress() {
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1});
+    final String senderIp = "10.0.0.5";
+    final int port = 6881;
+    torrent.getPeers().put(new PeerUID(new InetSocketAddress(senderIp, port), torrent.getHexInfoHash()),
+            new TrackedPeer(torrent, senderIp, port, ByteBuffer.allocate(10)));
+    myTorrentsRepository.putIfAbsent(torrent.getHexInfoHash(), torrent);
+
+    // loopback address is rejected, so the peer is refreshed by address of the request sender
+    final List<String> unknown = myProcessor.process("P 127.0.0.1 " + port + "\nT " + torrent.getHexInfoHash() + "\n", senderIp);
+
+    assertEquals(unknown, Collections.<String>emptyList());
+    assertEquals(torrent.getPeers().size(), 1);
+  }
+
+  public void testForeignPeerIsNotRefreshedFromOtherHost() {
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1});
+    final String peerIp = "10.0.0.5";
+    final int port = 6881;
+    torrent.getPeers().put(new PeerUID(new InetSocketAddress(peerIp, port), torrent.getHexInfoHash()),
+            new TrackedPeer(torrent, peerIp, port, ByteBuffer.allocate(10)));
+    myTorrentsRepository.putIfAbsent(torrent.getHexInfoHash(), torrent);
+
+    final List<String> unknown = myProcessor.process("P 0.0.0.0 " + port + "\nT " + torrent.getHexInfoHash() + "\n", "10.0.0.6");
+
+    assertEquals(unknown, Collections.singletonList(torrent.getHexInfoHash()));
+  }
+}
@@ -0,0 +1,41 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+@Test
+public class SeedingAdmissionPolicyTest extends BaseTestCase {
+
+  public void testTorrentIsDemotedWhenEnoughAgentsSeedIt() {
+    final SeedingAdmissionPolicy policy = new SeedingAdmissionPolicy();
+    final Map<String, Integer> seeders = new HashMap<>();
+    seeders.put("popular", 5);
+    seeders.put("rare", 1);
+
+    assertEquals(Collections.singleton("popular"), policy.update(Arrays.asList("popular", "rare", "unknown"), seeders, 3));
+  }
+
+  public void testTorrentIsRestoredWhenSeedersLeave() {
+    final SeedingAdmissionPolicy policy = new SeedingAdmissionPolicy();
+    final List<String> seeded = Collections.singletonList("hash");
+
+    assertEquals(Collections.emptySet(), policy.update(seeded, Collections.singletonMap("hash", 2), 3));
+    assertEquals(Collections.singleton("hash"), policy.update(seeded, Collections.singletonMap("hash", 3), 3));
+    // one seeder less keeps torrent demoted
+    assertEquals(Collections.singleton("hash"), policy.update(seeded, Collections.singletonMap("hash", 2), 3));
+    assertEquals(Collections.emptySet(), policy.update(seeded, Collections.singletonMap("hash", 1), 3));
+    assertEquals(Collections.emptySet(), policy.update(seeded, Collections.singletonMap("hash", 2), 3));
+  }
+
+  public void testTorrentIsRestoredWhenTrackerForgetsIt() {
+    final SeedingAdmissionPolicy policy = new SeedingAdmissionPolicy();
+    final List<String> seeded = Collections.singletonList("hash");
+
+    assertEquals(Collections.singleton("hash"), policy.update(seeded, Collections.singletonMap("hash", 3), 3));
+    assertEquals(Collections.emptySet(), policy.update(seeded, Collections.<String, Integer>emptyMap(), 3));
+  }
+}
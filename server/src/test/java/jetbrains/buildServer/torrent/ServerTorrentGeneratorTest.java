@@ -0,0 +1,107 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.TorrentMetadata;
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.RootUrlHolder;
+import jetbrains.buildServer.XmlRpcHandlerManager;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.torrent.torrent.TorrentUtil;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@Test
+public class ServerTorrentGeneratorTest extends BaseTestCase {
+
+  private ServerTorrentGenerator myGenerator;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Mockery m = new Mockery();
+    final XmlRpcHandlerManager rpcHandlerManager = m.mock(XmlRpcHandlerManager.class);
+    final RootUrlHolder rootUrlHolder = m.mock(RootUrlHolder.class);
+    m.checking(new Expectations() {{
+      allowing(rpcHandlerManager).addHandler(with(any(String.class)), with(any(Object.class)));
+      allowing(rootUrlHolder).getRootUrl(); will(returnValue("http://localhost:8111"));
+    }});
+    final ServerPaths serverPaths = new ServerPaths(createTempDir().getAbsolutePath());
+    myGenerator = new ServerTorrentGenerator(new TorrentConfigurator(serverPaths, rootUrlHolder, rpcHandlerManager));
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myGenerator.shutdown();
+    super.tearDown();
+  }
+
+  public void testArtifactIsReadChunkByChunk() throws Exception {
+    final int length = ServerTorrentGenerator.MAX_READ_CHUNK * 5 / 2;
+    final File srcFile = createTempFile(length);
+    final File torrentFile = new File(createTempDir(), srcFile.getName() + TorrentUtil.TORRENT_FILE_SUFFIX);
+
+    final List<Long> acquired = new ArrayList<>();
+    myGenerator.writeTorrent(srcFile, torrentFile, "http://localhost:8111/trackerAnnounce.html", null, acquired::add);
+
+    long acquiredTotal = 0;
+    for (long bytes : acquired) {
+      assertTrue(bytes <= ServerTorrentGenerator.MAX_READ_CHUNK);
+      acquiredTotal += bytes;
+    }
+    assertTrue(acquiredTotal >= length);
+    final TorrentMetadata metadata = TorrentUtil.loadTorrent(torrentFile);
+    assertEquals("http://localhost:8111/trackerAnnounce.html", metadata.getAnnounce());
+    assertEquals(1, metadata.getFiles().size());
+    assertEquals(length, metadata.getFiles().get(0).size);
+    assertEquals(srcFile.getName(), metadata.getFiles().get(0).getRelativePathAsString());
+    assertEquals(length, myGenerator.getHashedBytes());
+  }
+
+  public void testUdpAnnounceUrlIsFirstAnnounceTier() throws Exception {
+    final File srcFile = createTempFile(ServerTorrentGenerator.MAX_READ_CHUNK);
+    final File torrentFile = new File(createTempDir(), srcFile.getName() + TorrentUtil.TORRENT_FILE_SUFFIX);
+
+    myGenerator.writeTorrent(srcFile, torrentFile, "http://localhost:8111/trackerAnnounce.html", "udp://localhost:6969/announce", bytes -> {});
+
+    final TorrentMetadata metadata = TorrentUtil.loadTorrent(torrentFile);
+    assertEquals("http://localhost:8111/trackerAnnounce.html", metadata.getAnnounce());
+    assertEquals(Arrays.asList(Collections.singletonList("udp://localhost:6969/announce"),
+            Collections.singletonList("http://localhost:8111/trackerAnnounce.html")), metadata.getAnnounceList());
+  }
+
+  public void testHashingStopsWhenBudgetWaitIsInterrupted() throws Exception {
+    final File srcFile = createTempFile(ServerTorrentGenerator.MAX_READ_CHUNK * 3);
+    final File torrentFile = new File(createTempDir(), srcFile.getName() + TorrentUtil.TORRENT_FILE_SUFFIX);
+
+    final List<Long> acquired = new ArrayList<>();
+    try {
+      myGenerator.writeTorrent(srcFile, torrentFile, "http://localhost:8111/trackerAnnounce.html", null, bytes -> {
+        if (!acquired.isEmpty()) throw new InterruptedException();
+        acquired.add(bytes);
+      });
+      fail("hashing must be interrupted");
+    } catch (InterruptedIOException e) {
+      // expected
+    } finally {
+      // clear interrupted flag restored by generator
+      Thread.interrupted();
+    }
+
+    assertEquals(1, acquired.size());
+    assertTrue(myGenerator.getHashedBytes() <= acquired.get(0));
+    assertFalse(torrentFile.exists());
+  }
+}
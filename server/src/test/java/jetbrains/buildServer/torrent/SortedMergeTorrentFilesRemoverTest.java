@@ -0,0 +1,119 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import jetbrains.buildServer.BaseTestCase;
+import jetbrains.buildServer.serverSide.artifacts.BuildArtifact;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Test
+public class SortedMergeTorrentFilesRemoverTest extends BaseTestCase {
+
+  private ExecutorService myExecutor;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myExecutor.shutdownNow();
+    super.tearDown();
+  }
+
+  public void removeUnusedTorrentsTest() throws IOException {
+    final Path torrentsDir = createTempDir().toPath();
+    createFile(torrentsDir, "exist.jar.torrent");
+    createFile(torrentsDir, "notExist.jar.torrent");
+    createFile(torrentsDir, "dir/exist.jar.torrent");
+    createFile(torrentsDir, "dir/notExist.jar.torrent");
+    createFile(torrentsDir, "dir/sub/exist.jar.torrent");
+    createFile(torrentsDir, "dir-a/exist.jar.torrent");
+    createFile(torrentsDir, "removed/a.jar.torrent");
+    createFile(torrentsDir, "removed/sub/b.jar.torrent");
+
+    final Set<Path> removed = new HashSet<>();
+    SortedMergeTorrentFilesRemover remover = new SortedMergeTorrentFilesRemover(path -> {
+      synchronized (removed) {
+        removed.add(torrentsDir.relativize(path));
+      }
+    }, myExecutor);
+
+    List<BuildArtifact> artifacts = Arrays.asList(
+            createBuildArtifact("dir/sub/exist.jar"),
+            createBuildArtifact("exist.jar"),
+            createBuildArtifact("dir-a/exist.jar"),
+            createBuildArtifact("dir/exist.jar"));
+    remover.removeUnusedTorrents(artifacts, torrentsDir);
+
+    Set<Path> expected = new HashSet<>();
+    expected.add(torrentsDir.relativize(torrentsDir.resolve("notExist.jar.torrent")));
+    expected.add(torrentsDir.relativize(torrentsDir.resolve("dir/notExist.jar.torrent")));
+    expected.add(torrentsDir.relativize(torrentsDir.resolve("removed/a.jar.torrent")));
+    expected.add(torrentsDir.relativize(torrentsDir.resolve("removed/sub/b.jar.torrent")));
+    assertEquals(expected, removed);
+  }
+
+  public void symlinksAndTemporaryFilesAreKeptTest() throws IOException {
+    final Path torrentsDir = createTempDir().toPath();
+    final Path outsideDir = createTempDir().toPath();
+    createFile(outsideDir, "outside.jar.torrent");
+    createFile(torrentsDir, "notExist.jar.torrent");
+    createFile(torrentsDir, "generating.jar.torrent" + ServerTorrentGenerator.TMP_FILE_SUFFIX);
+    createFile(torrentsDir, "removed/generating.jar.torrent" + ServerTorrentGenerator.TMP_FILE_SUFFIX);
+    Files.createSymbolicLink(torrentsDir.resolve("link"), outsideDir);
+    Files.createSymbolicLink(torrentsDir.resolve("link.jar.torrent"), outsideDir.resolve("outside.jar.torrent"));
+
+    final Set<Path> removed = new HashSet<>();
+    SortedMergeTorrentFilesRemover remover = new SortedMergeTorrentFilesRemover(path -> {
+      synchronized (removed) {
+        removed.add(torrentsDir.relativize(path));
+      }
+    }, myExecutor);
+    remover.removeUnusedTorrents(Arrays.asList(createBuildArtifact("exist.jar")), torrentsDir);
+
+    Set<Path> expected = new HashSet<>();
+    expected.add(torrentsDir.relativize(torrentsDir.resolve("notExist.jar.torrent")));
+    assertEquals(expected, removed);
+  }
+
+  private static void createFile(@NotNull Path root, @NotNull String relativePath) throws IOException {
+    final File file = root.resolve(relativePath).toFile();
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), new byte[]{1});
+  }
+
+  private BuildArtifact createBuildArtifact(final String relativePath) {
+    return new DummyBuildArtifactAdapter() {
+      @NotNull
+      @Override
+      public String getRelativePath() {
+        return relativePath;
+      }
+
+      @NotNull
+      @Override
+      public String getName() {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+      }
+    };
+  }
+}
@@ -9,6 +9,7 @@ import com.turn.ttorrent.common.protocol.http.HTTPTrackerMessage;
 import com.turn.ttorrent.tracker.AddressChecker;
 import com.turn.ttorrent.tracker.TrackedTorrent;
 import com.turn.ttorrent.tracker.TrackerRequestProcessor;
+import jetbrains.buildServer.serverSide.ServerPaths;
 import jetbrains.buildServer.serverSide.ServerResponsibility;
 import jetbrains.buildServer.serverSide.executors.ExecutorServices;
 import jetbrains.buildServer.torrent.settings.SeedSettings;
@@ -58,7 +59,7 @@ public class TorrentTrackerConfiguratorTest extends ServerTorrentsSeederTestCase
       public ExecutorService getLowPriorityExecutorService() {
         return null;
       }
-    }, myDispatcher, addressChecker, serverResponsibility);
+    }, myDispatcher, addressChecker, serverResponsibility, new ServerPaths(createTempDir().getAbsolutePath()));
 
     myDispatcher.getMulticaster().serverStartup();
 
@@ -220,4 +221,20 @@ public class TorrentTrackerConfiguratorTest extends ServerTorrentsSeederTestCase
       }
     }
   }
-}
\ No newline at end of file
+
+  public void test_max_seeded_size() {
+    String oldProperty = System.getProperty(SeedSettings.MAX_SEEDED_SIZE);
+    try {
+      System.setProperty(SeedSettings.MAX_SEEDED_SIZE, "10mb");
+      myConfigurator.getConfigurationWatcher().checkForModifications();
+      assertEquals(10 * 1024 * 1024, myTorrentsSeeder.getTorrentsSeeder().getMaxSeededBytes());
+    } finally {
+      if (Objects.isNull(oldProperty)) {
+        System.clearProperty(SeedSettings.MAX_SEEDED_SIZE);
+      } else {
+        System.setProperty(SeedSettings.MAX_SEEDED_SIZE, oldProperty);
+      }
+      myConfigurator.getConfigurationWatcher().checkForModifications();
+    }
+  }
+}
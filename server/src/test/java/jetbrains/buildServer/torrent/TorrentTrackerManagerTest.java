@@ -3,6 +3,7 @@
 package jetbrains.buildServer.torrent;
 
 import com.turn.ttorrent.common.PeerUID;
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
 import com.turn.ttorrent.tracker.AddressChecker;
 import com.turn.ttorrent.tracker.TrackedPeer;
 import com.turn.ttorrent.tracker.TrackedTorrent;
@@ -45,13 +46,15 @@ public class TorrentTrackerManagerTest extends BaseTestCase {
       allowing(rootUrlHolder).getRootUrl(); will(returnValue("http://localhost:8111"));
       allowing(serverResponsibility).canManageServerConfig(); will(returnValue(true));
     }});
+    final ServerPaths serverPaths = new ServerPaths(createTempDir().getAbsolutePath());
     myTorrentTrackerManager = new TorrentTrackerManager(
-            new TorrentConfigurator(new ServerPaths(createTempDir().getAbsolutePath()), rootUrlHolder, rpcHandlerManager),
+            new TorrentConfigurator(serverPaths, rootUrlHolder, rpcHandlerManager),
             executorServices,
             new EventDispatcher<BuildServerListener>(BuildServerListener.class) {
             },
             m.mock(AddressChecker.class),
-            serverResponsibility
+            serverResponsibility,
+            serverPaths
     );
 
   }
@@ -87,4 +90,21 @@ public class TorrentTrackerManagerTest extends BaseTestCase {
     assertEquals(2, myTorrentTrackerManager.getConnectedClientsNum());
 
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testTrackerStateRestoredFromSnapshot() throws Exception {
+    myTorrentTrackerManager.startTracker();
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1, 2, 3});
+    final ByteBuffer peerId = ByteBuffer.wrap("ABCDEFGHIJKLMNOPQRST".getBytes());
+    torrent.update(AnnounceRequestMessage.RequestEvent.STARTED, peerId, "4142434445464748494A4B4C4D4E4F5051525354",
+            "127.0.0.1", 6881, 0, 0, 0);
+    myTorrentTrackerManager.getTorrentsRepository().putIfAbsent(torrent.getHexInfoHash(), torrent);
+
+    myTorrentTrackerManager.stopTracker();
+    myTorrentTrackerManager.startTracker();
+
+    assertEquals(1, myTorrentTrackerManager.getTorrents().size());
+    assertEquals(1, myTorrentTrackerManager.getTorrents().get(torrent.getHexInfoHash()).getPeers().size());
+    assertEquals(1, myTorrentTrackerManager.getConnectedClientsNum());
+  }
+}
@@ -0,0 +1,94 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.protocol.AnnounceRequestMessage;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import com.turn.ttorrent.tracker.TrackedTorrent;
+import jetbrains.buildServer.BaseTestCase;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class TrackerSnapshotStorageTest extends BaseTestCase {
+
+  private static final String IP = "127.0.0.1";
+  private static final int EXPIRE_TIMEOUT_SEC = 60;
+
+  private File mySnapshotFile;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mySnapshotFile = new File(createTempDir(), "tracker.snapshot");
+  }
+
+  public void testPeersExpiredBeforeRestartAreSkipped() throws Exception {
+    final PeerAnnounceTimes times = new PeerAnnounceTimes();
+    final TorrentsRepository repository = new TorrentsRepository(10);
+    final TrackedTorrent torrent = addTorrent(repository);
+    addPeer(torrent, times, 6881, TimeUnit.SECONDS.toMillis(10));
+    addPeer(torrent, times, 6882, TimeUnit.SECONDS.toMillis(EXPIRE_TIMEOUT_SEC + 10));
+    new TrackerSnapshotStorage(mySnapshotFile, times).save(repository);
+
+    final TorrentsRepository restored = new TorrentsRepository(10);
+    final PeerAnnounceTimes restoredTimes = new PeerAnnounceTimes();
+    assertEquals(1, new TrackerSnapshotStorage(mySnapshotFile, restoredTimes).load(restored, EXPIRE_TIMEOUT_SEC));
+
+    assertEquals(1, restored.getTorrent(torrent.getHexInfoHash()).getPeers().size());
+    assertEquals(times.getLastAnnounce(torrent.getHexInfoHash(), IP, 6881),
+            restoredTimes.getLastAnnounce(torrent.getHexInfoHash(), IP, 6881));
+    assertNull(restoredTimes.getLastAnnounce(torrent.getHexInfoHash(), IP, 6882));
+  }
+
+  public void testRestoredPeerExpiresAtOriginalTime() throws Exception {
+    final PeerAnnounceTimes times = new PeerAnnounceTimes();
+    final TorrentsRepository repository = new TorrentsRepository(10);
+    final TrackedTorrent torrent = addTorrent(repository);
+    addPeer(torrent, times, 6881, TimeUnit.SECONDS.toMillis(EXPIRE_TIMEOUT_SEC - 5));
+    addPeer(torrent, times, 6882, 0);
+    new TrackerSnapshotStorage(mySnapshotFile, times).save(repository);
+
+    final TorrentsRepository restored = new TorrentsRepository(10);
+    final PeerAnnounceTimes restoredTimes = new PeerAnnounceTimes();
+    assertEquals(2, new TrackerSnapshotStorage(mySnapshotFile, restoredTimes).load(restored, EXPIRE_TIMEOUT_SEC));
+
+    assertEquals(1, restoredTimes.expirePeers(restored, EXPIRE_TIMEOUT_SEC - 10));
+    assertEquals(1, restored.getTorrent(torrent.getHexInfoHash()).getPeers().size());
+  }
+
+  public void testRestoredPeerIsNotAnnouncedUntilItAnnouncesAgain() throws Exception {
+    final PeerAnnounceTimes times = new PeerAnnounceTimes();
+    final TorrentsRepository repository = new TorrentsRepository(10);
+    final TrackedTorrent torrent = addTorrent(repository);
+    addPeer(torrent, times, 6881, 0);
+    times.announced(torrent.getHexInfoHash(), IP, 6881);
+    assertTrue(times.hasAnnounced(torrent.getHexInfoHash(), IP, 6881));
+    new TrackerSnapshotStorage(mySnapshotFile, times).save(repository);
+
+    final TorrentsRepository restored = new TorrentsRepository(10);
+    final PeerAnnounceTimes restoredTimes = new PeerAnnounceTimes();
+    new TrackerSnapshotStorage(mySnapshotFile, restoredTimes).load(restored, EXPIRE_TIMEOUT_SEC);
+    assertFalse(restoredTimes.hasAnnounced(torrent.getHexInfoHash(), IP, 6881));
+
+    restoredTimes.announced(torrent.getHexInfoHash(), IP, 6881);
+    assertTrue(restoredTimes.hasAnnounced(torrent.getHexInfoHash(), IP, 6881));
+  }
+
+  private static TrackedTorrent addTorrent(TorrentsRepository repository) {
+    final TrackedTorrent torrent = new TrackedTorrent(new byte[]{1, 2, 3});
+    repository.putIfAbsent(torrent.getHexInfoHash(), torrent);
+    return torrent;
+  }
+
+  private static void addPeer(TrackedTorrent torrent, PeerAnnounceTimes times, int port, long announceAgeMs) throws Exception {
+    final byte[] peerId = String.format("%-20d", port).replace(' ', '-').getBytes();
+    torrent.update(AnnounceRequestMessage.RequestEvent.STARTED, ByteBuffer.wrap(peerId), "PEER" + port, IP, port, 0, 0, 0);
+    times.restored(torrent.getHexInfoHash(), IP, port, System.currentTimeMillis() - announceAgeMs);
+  }
+}
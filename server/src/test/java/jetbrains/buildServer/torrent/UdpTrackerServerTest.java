@@ -0,0 +1,139 @@
+
+
+package jetbrains.buildServer.torrent;
+
+import com.turn.ttorrent.common.TorrentUtils;
+import com.turn.ttorrent.tracker.AddressChecker;
+import com.turn.ttorrent.tracker.TorrentsRepository;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+@Test
+public class UdpTrackerServerTest {
+
+  private TorrentsRepository myTorrentsRepository;
+  private UdpTrackerServer myServer;
+  private List<String> myChangedTorrents;
+
+  @BeforeMethod
+  public void setUp() {
+    myTorrentsRepository = new TorrentsRepository(10);
+    AddressChecker addressChecker = new AddressChecker() {
+      public boolean isBadAddress(String ip) {
+        return false;
+      }
+    };
+    myChangedTorrents = new ArrayList<>();
+    myServer = new UdpTrackerServer(myTorrentsRepository, addressChecker, () -> 30, new PeerAnnounceTimes(), myChangedTorrents::add);
+  }
+
+  public void testConnectAndAnnounce() {
+    final long connectionId = connect(11, "10.0.0.1");
+
+    final byte[] infoHash = new byte[20];
+    Arrays.fill(infoHash, (byte) 1);
+    ByteBuffer response = announce(connectionId, 12, infoHash, (byte) 'A', "10.0.0.1", 6881, 0);
+    assertEquals(response.getInt(), 1);
+    assertEquals(response.getInt(), 12);
+    assertEquals(response.getInt(), 30);
+    assertEquals(response.getInt(), 0);
+    assertEquals(response.getInt(), 1);
+    assertEquals(response.remaining(), 0);
+
+    response = announce(connect(14, "10.0.0.2"), 13, infoHash, (byte) 'B', "10.0.0.2", 6882, 100);
+    assertEquals(response.getInt(), 1);
+    assertEquals(response.getInt(), 13);
+    assertEquals(response.getInt(), 30);
+    assertEquals(response.getInt(), 1);
+    assertEquals(response.getInt(), 1);
+    final byte[] peerIp = new byte[4];
+    response.get(peerIp);
+    assertEquals(peerIp, new byte[]{10, 0, 0, 1});
+    assertEquals(response.getShort() & 0xFFFF, 6881);
+    assertEquals(myTorrentsRepository.getTorrents().size(), 1);
+  }
+
+  public void testAnnounceWithEventReportsChangedTorrent() {
+    final long connectionId = connect(11, "10.0.0.1");
+    final byte[] infoHash = new byte[20];
+    Arrays.fill(infoHash, (byte) 1);
+
+    announce(connectionId, 12, infoHash, (byte) 'A', "10.0.0.1", 6881, 0);
+
+    assertEquals(myChangedTorrents, Collections.singletonList(TorrentUtils.byteArrayToHexString(infoHash)));
+  }
+
+  public void testUnknownConnectionIdIsRejected() {
+    final byte[] infoHash = new byte[20];
+    final ByteBuffer response = announce(42, 5, infoHash, (byte) 'A', "10.0.0.1", 6881, 0);
+    assertEquals(response.getInt(), 3);
+    assertEquals(response.getInt(), 5);
+    assertEquals(myTorrentsRepository.getTorrents().size(), 0);
+  }
+
+  public void testConnectionIdIsRejectedFromOtherAddress() {
+    final long connectionId = connect(11, "10.0.0.1");
+    final byte[] infoHash = new byte[20];
+
+    final ByteBuffer response = announce(connectionId, 12, infoHash, (byte) 'B', "10.0.0.2", 6882, 0);
+
+    assertEquals(response.getInt(), 3);
+    assertEquals(response.getInt(), 12);
+    assertEquals(myTorrentsRepository.getTorrents().size(), 0);
+  }
+
+  public void testConnectionIdsAreLimited() {
+    for (int i = 0; i < UdpTrackerServer.MAX_CONNECTION_IDS; i++) {
+      connect(i, "10.0.0.1");
+    }
+    final ByteBuffer request = ByteBuffer.allocate(16);
+    request.putLong(0x41727101980L).putInt(0).putInt(-1).flip();
+    assertEquals(handle(request, "10.0.0.1").remaining(), 0);
+  }
+
+  public void testPeerAddressIsNotResolved() {
+    assertEquals(UdpTrackerServer.toIpv4("10.0.0.255"), new byte[]{10, 0, 0, (byte) 255});
+    assertNull(UdpTrackerServer.toIpv4("localhost"));
+    assertNull(UdpTrackerServer.toIpv4("10.0.0.256"));
+    assertNull(UdpTrackerServer.toIpv4("10.0..1"));
+    assertNull(UdpTrackerServer.toIpv4("::1"));
+  }
+
+  private long connect(int transactionId, String ip) {
+    final ByteBuffer request = ByteBuffer.allocate(16);
+    request.putLong(0x41727101980L).putInt(0).putInt(transactionId).flip();
+    final ByteBuffer response = handle(request, ip);
+    assertEquals(response.getInt(), 0);
+    assertEquals(response.getInt(), transactionId);
+    return response.getLong();
+  }
+
+  private ByteBuffer announce(long connectionId, int transactionId, byte[] infoHash, byte peerIdByte, String ip, int port, long left) {
+    final byte[] peerId = new byte[20];
+    Arrays.fill(peerId, peerIdByte);
+    final ByteBuffer request = ByteBuffer.allocate(98);
+    request.putLong(connectionId).putInt(1).putInt(transactionId)
+            .put(infoHash).put(peerId)
+            .putLong(0).putLong(left).putLong(0)
+            .putInt(2).putInt(0).putInt(0).putInt(-1)
+            .putShort((short) port)
+            .flip();
+    return handle(request, ip);
+  }
+
+  private ByteBuffer handle(ByteBuffer request, String ip) {
+    final ByteBuffer response = ByteBuffer.allocate(1500);
+    myServer.handle(request, new InetSocketAddress(ip, 1234), response);
+    response.flip();
+    return response;
+  }
+}
@@ -0,0 +1,152 @@
+
+
+package jetbrains.buildServer.torrent.web;
+
+import jetbrains.buildServer.serverSide.BuildsManager;
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.torrent.ServerTorrentsSeederTestCase;
+import jetbrains.buildServer.util.FileUtil;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.Nullable;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+@Test
+public class DownloadTorrentControllerTest extends ServerTorrentsSeederTestCase {
+
+  private static final long BUILD_ID = 1;
+
+  private Mockery myMockery;
+  private SBuild myBuild;
+  private DownloadTorrentController myController;
+
+  @BeforeMethod
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myMockery = new Mockery();
+    final File artifactsDir = createTempDir();
+    myBuild = myMockery.mock(SBuild.class);
+    final BuildsManager buildsManager = myMockery.mock(BuildsManager.class);
+    final WebControllerManager controllerManager = myMockery.mock(WebControllerManager.class);
+    myMockery.checking(new Expectations() {{
+      allowing(myBuild).getArtifactsDirectory(); will(returnValue(artifactsDir));
+      allowing(buildsManager).findBuildInstanceById(BUILD_ID); will(returnValue(myBuild));
+      allowing(buildsManager).findBuildInstanceById(BUILD_ID + 1); will(returnValue(null));
+      ignoring(controllerManager);
+    }});
+    myController = new DownloadTorrentController(controllerManager, myTorrentsSeeder, buildsManager);
+  }
+
+  public void testTorrentFileIsServedWithEtag() throws Exception {
+    writeTorrentFile("torrent content");
+
+    final Response response = handle(BUILD_ID, null);
+
+    assertEquals(HttpServletResponse.SC_OK, response.myStatus);
+    assertNotNull(response.myEtag);
+    assertEquals("torrent content", response.myBody.toString("UTF-8"));
+  }
+
+  public void testNotModifiedWhenEtagMatches() throws Exception {
+    writeTorrentFile("torrent content");
+    final String etag = handle(BUILD_ID, null).myEtag;
+
+    final Response response = handle(BUILD_ID, etag);
+
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.myStatus);
+    assertEquals(etag, response.myEtag);
+    assertEquals(0, response.myBody.size());
+  }
+
+  public void testRecreatedTorrentFileIsServedAgain() throws Exception {
+    final File torrentFile = writeTorrentFile("torrent content");
+    final String etag = handle(BUILD_ID, null).myEtag;
+
+    FileUtil.writeFileAndReportErrors(torrentFile, "recreated torrent content");
+
+    final Response response = handle(BUILD_ID, etag);
+
+    assertEquals(HttpServletResponse.SC_OK, response.myStatus);
+    assertFalse(etag.equals(response.myEtag));
+    assertEquals("recreated torrent content", response.myBody.toString("UTF-8"));
+  }
+
+  public void testNotFoundForUnknownBuild() throws Exception {
+    writeTorrentFile("torrent content");
+
+    assertEquals(HttpServletResponse.SC_NOT_FOUND, handle(BUILD_ID + 1, null).myStatus);
+  }
+
+  private File writeTorrentFile(String content) throws Exception {
+    final File torrentFile = myTorrentsSeeder.getTorrentFile(myBuild, "a.jar.torrent");
+    FileUtil.createParentDirs(torrentFile);
+    FileUtil.writeFileAndReportErrors(torrentFile, content);
+    return torrentFile;
+  }
+
+  private Response handle(final long buildId, @Nullable final String ifNoneMatch) throws Exception {
+    final Mockery m = new Mockery();
+    final HttpServletRequest request = m.mock(HttpServletRequest.class);
+    final HttpServletResponse httpResponse = m.mock(HttpServletResponse.class);
+    final Response result = new Response();
+    m.checking(new Expectations() {{
+      allowing(request).getParameter("buildId"); will(returnValue(String.valueOf(buildId)));
+      allowing(request).getParameter("file"); will(returnValue("a.jar"));
+      allowing(request).getHeader("If-None-Match"); will(returnValue(ifNoneMatch));
+      allowing(request).getDateHeader("If-Modified-Since"); will(returnValue(-1L));
+      allowing(request).getMethod(); will(returnValue("GET"));
+      ignoring(request);
+
+      allowing(httpResponse).setHeader(with("ETag"), with(any(String.class))); will(new CustomAction("store etag") {
+        public Object invoke(Invocation invocation) {
+          result.myEtag = (String) invocation.getParameter(1);
+          return null;
+        }
+      });
+      allowing(httpResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED); will(storeStatus(result));
+      allowing(httpResponse).sendError(HttpServletResponse.SC_NOT_FOUND); will(storeStatus(result));
+      allowing(httpResponse).getOutputStream(); will(returnValue(new ServletOutputStream() {
+        public void write(int b) {
+          result.myBody.write(b);
+        }
+
+        public boolean isReady() {
+          return true;
+        }
+
+        public void setWriteListener(WriteListener writeListener) {
+        }
+      }));
+      ignoring(httpResponse);
+    }});
+    myController.doHandle(request, httpResponse);
+    return result;
+  }
+
+  private static CustomAction storeStatus(final Response result) {
+    return new CustomAction("store status") {
+      public Object invoke(Invocation invocation) {
+        result.myStatus = (Integer) invocation.getParameter(0);
+        return null;
+      }
+    };
+  }
+
+  private static final class Response {
+    private int myStatus = HttpServletResponse.SC_OK;
+    private String myEtag;
+    private final ByteArrayOutputStream myBody = new ByteArrayOutputStream();
+  }
+}